@@ -71,7 +71,7 @@ public class AndroidDatabaseManager extends Activity implements OnItemClickListe
 		
 
 		//in the below line Change the text 'yourCustomSqlHelper' with your custom sqlitehelper class name
-		dbm = new IndoorTrackerDatabaseHandler(AndroidDatabaseManager.this);
+		dbm = IndoorTrackerDatabaseHandler.getInstance(AndroidDatabaseManager.this);
 		
 		mainscrollview = new ScrollView(AndroidDatabaseManager.this);
 		
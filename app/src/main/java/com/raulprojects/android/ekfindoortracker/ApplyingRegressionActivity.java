@@ -58,7 +58,7 @@ public class ApplyingRegressionActivity extends Activity {
 
     private void initiateAndroid() {
         // Creation of MAC/BSSID database
-        measdbh = new IndoorTrackerDatabaseHandler(this);
+        measdbh = IndoorTrackerDatabaseHandler.getInstance(this);
 
         mInputCoefficients = new double[4];
 
@@ -1,19 +1,27 @@
 package com.raulprojects.android.ekfindoortracker;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Point;
-import android.net.wifi.ScanResult;
 import android.util.Log;
 
+import com.raulprojects.ekfindoortracker.core.APDataSource;
+import com.raulprojects.ekfindoortracker.core.APRegistry;
+import com.raulprojects.ekfindoortracker.core.KnownAP;
+import com.raulprojects.ekfindoortracker.core.LatencyHistogram;
+import com.raulprojects.ekfindoortracker.core.PathLossModel;
+import com.raulprojects.ekfindoortracker.core.TietotaloFloorPlan;
+
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Database Handler for app. There are three main tables:
@@ -21,11 +29,27 @@ import java.util.List;
  *      + MEASUREMENTS table
  *      + COEFFICIENTS table
  *
+ * Schema v2 stores one row per AP pathloss model in coefficients table, with its model type and
+ * typed coefficient columns, keyed by id_bssid. bssids.name and measurements.id_bssid are
+ * indexed. Upgrading from v1 keeps the APs and survey measurements, and carries the latest four
+ * coefficient rows of each AP into its model row.
+ *
  * Database can be viewed in real time in the own app by using AndroidDatabaseManager class
+ *
+ * Known APs of bssids table are cached in memory in an APRegistry shared by every handler. It
+ * is invalidated whenever bssids table changes. Likewise, pathloss models of coefficients table
+ * are cached with their RSS-to-distance tables, which are precomputed when coefficients are
+ * stored.
+ *
+ * There is a single handler per process, got with getInstance(), which keeps one connection
+ * open for the process lifetime: no method closes the database. AP position by name is served
+ * from the APRegistry. Other hot lookups (coefficients by AP id and BSSID by AP id) reuse
+ * compiled statements or constant SQL, and every cursor is closed before returning. Latency
+ * of each query type is recorded in a LatencyHistogram, see getQueryLatencyReport().
  */
-public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
+public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper implements APDataSource {
 
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 2;
     public static final String DATABASE_NAME = "accesspointData";
     private static final String TABLE_BSSIDS = "bssids";
     private static final String TABLE_MEASUREMENTS = "measurements";
@@ -44,37 +68,96 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
     private static final String KEY_RSS = "value_rss";
     private static final String KEY_DISTANCE = "value_distance";
 
-    // coefficients table column names
-    private static final String KEY_COEFFICIENT_ID = "id";
+    // coefficients table column names, one row per AP
     //private static final String KEY_BSSID = "id_bssid";
-    private static final String KEY_COEFFICIENT_VALUE = "value_coefficient";
-
-
-    // AP MAC ADDRESS LIST
-    private static final String BSSID1 = "00:17:0f:d9:71:d";
-    private static final String BSSID2 = "00:17:0f:d9:6c:8";
-    private static final String BSSID3 = "00:17:0f:d9:6f:d";
-    private static final String BSSID4 = "f4:7f:35:f6:ab:a";
-    private static final String BSSID5 = "18:33:9d:fe:9c:6";
-    private static final String BSSID6 = "18:33:9d:fe:91:c";
-    private static final String BSSID7 = "18:33:9d:f9:31:8";
-    private static final String BSSID8 = "18:33:9d:f9:84:7";
-    private static final String BSSID9 = "04:da:d2:a7:2f:c";
-    private static final String BSSID10 = "04:da:d2:29:bf:8";
-    private static final String BSSID11 = "04:da:d2:57:0a:3";
-    private static final String BSSID12 = "04:da:d2:29:c4:c";
-    private static final String BSSID13 = "04:da:d2:57:0a:3";
-    private static final String BSSID14 = "04:da:d2:56:ee:e";
-    private static final String BSSID15 = "04:da:d2:29:c2:3";
-    private static final String BSSID16 = "04:da:d2:57:0d:a";
-    private static final String BSSID17 = "04:da:d2:29:b4:0";
-    private static final String BSSID18 = "04:da:d2:57:0e:5";
+    private static final String KEY_MODEL_TYPE = "model_type";
+    private static final String KEY_COEFFICIENT_A = "coefficient_a";
+    private static final String KEY_COEFFICIENT_B = "coefficient_b";
+    private static final String KEY_COEFFICIENT_C = "coefficient_c";
+    private static final String KEY_COEFFICIENT_D = "coefficient_d";
+
+    // coefficients table v1 column names, four anonymous rows per AP
+    private static final String KEY_COEFFICIENT_ID_V1 = "id";
+    private static final String KEY_COEFFICIENT_VALUE_V1 = "value_coefficient";
+
+    // indexes of lookup columns
+    private static final String INDEX_BSSIDS_NAME = "index_bssids_name";
+    private static final String INDEX_MEASUREMENTS_BSSID = "index_measurements_id_bssid";
+
+    /** Pathloss model type: distance = a + b*RSS + c*RSS^2 + d*RSS^3 */
+    public static final String MODEL_TYPE_CUBIC = "cubic";
+
+    private static final String SQL_COEFFICIENTS_BY_ID = "SELECT " + KEY_COEFFICIENT_A + ", "
+            + KEY_COEFFICIENT_B + ", " + KEY_COEFFICIENT_C + ", " + KEY_COEFFICIENT_D
+            + " FROM " + TABLE_COEFFICIENTS + " WHERE " + KEY_BSSID + "=?";
+
+
+    // In-memory registry of bssids table, null when it must be (re)loaded
+    private static volatile APRegistry sAPRegistry;
+    // In-memory pathloss models by AP id, null when they must be (re)loaded
+    private static volatile Map<Integer, PathLossModel> sPathLossModels;
+
+    // Query types whose latency is recorded
+    public static final int QUERY_AP_POSITION = 0;
+    public static final int QUERY_COEFFICIENTS = 1;
+    public static final int QUERY_BSSID_NAME = 2;
+    public static final int QUERY_AP_REGISTRY = 3;
+    public static final int QUERY_PATHLOSS_MODELS = 4;
+    public static final int QUERY_RSS_VALUES = 5;
+    public static final int QUERY_DISTANCE_VALUES = 6;
+    public static final int QUERY_ADD_MEASUREMENT = 7;
+    public static final int QUERY_ADD_COEFFICIENTS = 8;
+
+    public static final String[] QUERY_NAMES = {
+            "AP position", "coefficients", "BSSID name", "AP registry", "pathloss models",
+            "RSS values", "distance values", "add measurements", "add coefficients"
+    };
+
+    private static IndoorTrackerDatabaseHandler sInstance;
+
+    // Connection kept open for the process lifetime
+    private SQLiteDatabase mDatabase;
+    // Compiled statements of hot lookups, guarded by this
+    private SQLiteStatement mBssidNameStatement;
+    // Compiled statements of bulk writes, guarded by this
+    private SQLiteStatement mInsertMeasurementStatement, mInsertModelStatement;
+
+    private final LatencyHistogram[] mQueryLatency;
 
     /**
      * CONSTRUCTOR
      */
-    public IndoorTrackerDatabaseHandler(Context context) {
+    private IndoorTrackerDatabaseHandler(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mQueryLatency = new LatencyHistogram[QUERY_NAMES.length];
+        for (int i = 0; i < mQueryLatency.length; i++)
+            mQueryLatency[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Gets the single handler of the process. It is bound to the application context, so it
+     * does not leak the activity which first asks for it.
+     * @param context any context of the app
+     * @return the database handler
+     */
+    public static synchronized IndoorTrackerDatabaseHandler getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new IndoorTrackerDatabaseHandler(context.getApplicationContext());
+        return sInstance;
+    }
+
+    /**
+     * Gets the connection of the handler, opening it the first time. It is never closed by the
+     * handler, so statements compiled on it remain valid.
+     */
+    private synchronized SQLiteDatabase getDatabase() {
+        if (mDatabase == null || !mDatabase.isOpen()) {
+            mDatabase = getWritableDatabase();
+            mBssidNameStatement = null;
+            mInsertMeasurementStatement = null;
+            mInsertModelStatement = null;
+        }
+        return mDatabase;
     }
 
     /**
@@ -83,6 +166,8 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
 
     /** Only runs once, when there is no database in the system */
     public void onCreate(SQLiteDatabase db) {
+        invalidateAPRegistry();
+        invalidatePathLossModels();
 
         /** Create bssids table */
         String CREATE_BSSID_TABLE = "CREATE TABLE " + TABLE_BSSIDS + "("
@@ -92,25 +177,25 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
                 + KEY_BSSID_POS_Y + " INTEGER" + ")";
         db.execSQL(CREATE_BSSID_TABLE);
         // fills bssids table
-        String [] bssids = {
-                BSSID1, BSSID2, BSSID3, BSSID4, BSSID5, BSSID6, BSSID7, BSSID8, BSSID9, BSSID10,
-                BSSID11, BSSID12, BSSID13, BSSID14, BSSID15, BSSID16, BSSID17, BSSID18
-        };
-        int [] bssidXPositions = {
-                44, 29, 46, 39, 50, 40, 51, 40, 32, 19,
-                15, 17, 8, 15, 17, 8, 13, 6
-        };
-        int [] bssidYPositions = {
-                11, 28, 40, 61, 72, 100, 102, 115, 138, 146,
-                123, 108, 108, 100, 83, 83, 70, 37
-        };
-        // Fill static table with AP bssids and their positions
-        ContentValues bssidValues = new ContentValues();
-        for (int i = 0; i < bssids.length; i++) {
-            bssidValues.put(KEY_BSSID_NAME, bssids[i]);
-            bssidValues.put(KEY_BSSID_POS_X, bssidXPositions[i]);
-            bssidValues.put(KEY_BSSID_POS_Y, bssidYPositions[i]);
-            db.insert(TABLE_BSSIDS, null, bssidValues);
+        String [] bssids = TietotaloFloorPlan.BSSIDS;
+        int [] bssidXPositions = TietotaloFloorPlan.X_POSITIONS;
+        int [] bssidYPositions = TietotaloFloorPlan.Y_POSITIONS;
+        // Fill static table with AP bssids and their positions, in one transaction
+        SQLiteStatement insertBssid = db.compileStatement("INSERT INTO " + TABLE_BSSIDS + " ("
+                + KEY_BSSID_NAME + ", " + KEY_BSSID_POS_X + ", " + KEY_BSSID_POS_Y
+                + ") VALUES (?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < bssids.length; i++) {
+                insertBssid.bindString(1, bssids[i]);
+                insertBssid.bindLong(2, bssidXPositions[i]);
+                insertBssid.bindLong(3, bssidYPositions[i]);
+                insertBssid.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertBssid.close();
         }
 
         /** Create measurements table */
@@ -122,120 +207,247 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
         db.execSQL(CREATE_MEASUREMENTS_TABLE);
 
         /** Create coefficients table */
+        createCoefficientsTable(db);
+
+        createIndexes(db);
+    }
+
+    /**
+     * Migrates the database step by step from oldVersion, so that surveyed measurements and
+     * coefficients are never lost.
+     */
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        invalidateAPRegistry();
+        invalidatePathLossModels();
+        if (oldVersion < 2)
+            upgradeToVersion2(db);
+    }
+
+    /** One row per AP with typed coefficient columns */
+    private static void createCoefficientsTable(SQLiteDatabase db) {
         String CREATE_COEFFICIENTS_TABLE = "CREATE TABLE " + TABLE_COEFFICIENTS + "("
-                + KEY_COEFFICIENT_ID + " INTEGER PRIMARY KEY,"
-                + KEY_BSSID + " INTEGER,"
-                + KEY_COEFFICIENT_VALUE + " DOUBLE" + ")";
+                + KEY_BSSID + " INTEGER PRIMARY KEY,"
+                + KEY_MODEL_TYPE + " TEXT NOT NULL,"
+                + KEY_COEFFICIENT_A + " REAL,"
+                + KEY_COEFFICIENT_B + " REAL,"
+                + KEY_COEFFICIENT_C + " REAL,"
+                + KEY_COEFFICIENT_D + " REAL" + ")";
         db.execSQL(CREATE_COEFFICIENTS_TABLE);
     }
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Drop older table if existed
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BSSIDS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEASUREMENTS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_COEFFICIENTS);
-        // Create tables again
-        onCreate(db);
+
+    /** Indexes of columns used by lookups. coefficients table is already keyed by id_bssid */
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BSSIDS_NAME + " ON " + TABLE_BSSIDS
+                + "(" + KEY_BSSID_NAME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_MEASUREMENTS_BSSID + " ON "
+                + TABLE_MEASUREMENTS + "(" + KEY_BSSID + ")");
     }
 
     /**
-     * INDOOR TRACKER HANDLER METHODS
+     * v1 -> v2: coefficients table is rebuilt with one row per AP. Coefficients were appended
+     * in [a b c d] order, so the last four rows of an AP are its latest model; APs with fewer
+     * rows had no complete model and are left out. bssids and measurements tables are kept.
      */
+    private static void upgradeToVersion2(SQLiteDatabase db) {
+        String TABLE_COEFFICIENTS_V1 = TABLE_COEFFICIENTS + "_v1";
+        db.execSQL("ALTER TABLE " + TABLE_COEFFICIENTS + " RENAME TO " + TABLE_COEFFICIENTS_V1);
+        createCoefficientsTable(db);
+
+        Cursor cursor = db.query(TABLE_COEFFICIENTS_V1, new String[]{KEY_BSSID,
+                KEY_COEFFICIENT_VALUE_V1}, null, null, null, null, KEY_BSSID + ", "
+                + KEY_COEFFICIENT_ID_V1);
+        SQLiteStatement insertModel = compileInsertModel(db);
+        try {
+            double[] rows = new double[4];
+            int count = 0, idBssid = 0;
+            boolean hasRow = cursor.moveToNext();
+            while (hasRow) {
+                if (count > 0 && cursor.getInt(0) != idBssid) {
+                    insertModel(insertModel, idBssid, rows, count);
+                    count = 0;
+                }
+                idBssid = cursor.getInt(0);
+                // Circular buffer which keeps the last four rows of the AP
+                rows[count % 4] = cursor.getDouble(1);
+                count++;
+                hasRow = cursor.moveToNext();
+            }
+            if (count > 0)
+                insertModel(insertModel, idBssid, rows, count);
+        } finally {
+            cursor.close();
+            insertModel.close();
+        }
+        db.execSQL("DROP TABLE " + TABLE_COEFFICIENTS_V1);
+
+        createIndexes(db);
+    }
+
+    /** Inserts the v1 model of an AP, given the last four of its count rows in a ring buffer */
+    private static void insertModel(SQLiteStatement insertModel, int idBssid, double[] rows,
+                                    int count) {
+        if (count < 4)
+            return;
+        double[] coefficients = new double[4];
+        for (int i = 0; i < 4; i++)
+            coefficients[i] = rows[(count + i) % 4];
+        bindModel(insertModel, idBssid, MODEL_TYPE_CUBIC, coefficients);
+        insertModel.executeInsert();
+    }
+
+    /** INSERT OR REPLACE of one model row: id_bssid, model_type, a, b, c, d */
+    private static SQLiteStatement compileInsertModel(SQLiteDatabase db) {
+        return db.compileStatement("INSERT OR REPLACE INTO " + TABLE_COEFFICIENTS + " ("
+                + KEY_BSSID + ", " + KEY_MODEL_TYPE + ", " + KEY_COEFFICIENT_A + ", "
+                + KEY_COEFFICIENT_B + ", " + KEY_COEFFICIENT_C + ", " + KEY_COEFFICIENT_D
+                + ") VALUES (?, ?, ?, ?, ?, ?)");
+    }
+
+    private static void bindModel(SQLiteStatement insertModel, int idBssid, String modelType,
+                                  double[] coefficients) {
+        insertModel.bindLong(1, idBssid);
+        insertModel.bindString(2, modelType);
+        for (int i = 0; i < 4; i++)
+            insertModel.bindDouble(3 + i, coefficients[i]);
+    }
 
     /**
-     * Compares WiFi AP scan results with APs stored in database and remove those that are not in
-     * it.
-     * @param results WiFi scan results list with all the AP data scanned in MapViewActivity
-     * @return WiFi scan results list with AP data already filtered.
+     * INDOOR TRACKER HANDLER METHODS
      */
-    public List<ScanResult> filterKnownAPDB (List<ScanResult> results){
-        /* Sort Scan results list by BSSID */
 
-        Collections.sort(results, new Comparator<ScanResult>() {
-            public int compare(ScanResult one, ScanResult other) {
-                return one.BSSID.compareTo(other.BSSID);
+    /**
+     * Gets the in-memory registry of known APs. It is loaded from bssids table the first time
+     * and after every change of that table.
+     * @return APRegistry with every AP of bssids table
+     */
+    @Override
+    public APRegistry getAPRegistry(){
+        APRegistry registry = sAPRegistry;
+        if (registry == null) {
+            synchronized (IndoorTrackerDatabaseHandler.class) {
+                registry = sAPRegistry;
+                if (registry == null) {
+                    registry = loadAPRegistryDB();
+                    sAPRegistry = registry;
+                }
             }
-        });
-
-        SQLiteDatabase db = this.getReadableDatabase();
-        // Select all BSSIDs from bssids table
-        String selectQuery = "SELECT * FROM " + TABLE_BSSIDS;
-        Cursor cursor = db.rawQuery(selectQuery, null);
+        }
+        return registry;
+    }
 
-        boolean apIsKnown;
+    /** Forces the registry of known APs to be reloaded on next use */
+    public static void invalidateAPRegistry(){
+        sAPRegistry = null;
+    }
 
-        List<ScanResult> toRemove = new ArrayList<ScanResult>();
-        /* Compares both lists element by element. If an item is not in known AP table,
-        is inserted into toRemove list in order to remove it at the end */
-        for (int j = 0; j < results.size(); j++) { // Scan results list
-            apIsKnown = false;
-            if (cursor.moveToFirst()) {
-                for (int i = 0; i < cursor.getCount(); i++) { // Known APs in database
-                    if (removeLastDigitBssid(results.get(j).BSSID).equals(cursor.getString(1))) {
-                        apIsKnown = true;
-                        // Overwrite with common BSSID name (bssid without last digit)
-                        results.get(j).BSSID = cursor.getString(1);
-                    }
-                    cursor.moveToNext();
-                }
-                // Remove AP from list
-                if (!apIsKnown)
-                    toRemove.add(results.get(j));
+    /**
+     * Reads every AP of bssids table
+     * @return APRegistry with every AP of bssids table
+     */
+    private APRegistry loadAPRegistryDB(){
+        long start = System.nanoTime();
+        SQLiteDatabase db = getDatabase();
+        Cursor cursor = db.query(TABLE_BSSIDS, new String[]{KEY_BSSID_ID, KEY_BSSID_NAME,
+                KEY_BSSID_POS_X, KEY_BSSID_POS_Y}, null, null, null, null, KEY_BSSID_ID);
+        List<KnownAP> knownAPs = new ArrayList<KnownAP>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                knownAPs.add(new KnownAP(cursor.getInt(0), cursor.getString(1),
+                        cursor.getInt(2), cursor.getInt(3)));
             }
+        } finally {
+            cursor.close();
         }
-        // Removes all items stored into toRemove list from results list
-        results.removeAll(toRemove);
-        db.close();
-        return results;
+        mQueryLatency[QUERY_AP_REGISTRY].record(System.nanoTime() - start);
+        return new APRegistry(knownAPs);
     }
 
     /**
-     * Gets AP position from bssids table
+     * Gets AP position from bssids table, through the in-memory registry of known APs
      * @param bssid AP BSSID of interest
-     * @return Point object with AP position
+     * @return Point object with AP position, (0, 0) for an unknown AP
      */
     public Point getAPPositionDB (String bssid) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_BSSIDS, new String[]{KEY_BSSID_POS_X, KEY_BSSID_POS_Y},
-                KEY_BSSID_NAME + "=?",
-                new String[]{bssid}, null, null, null, null);
-        int x = 0, y = 0;
-        if (cursor.moveToFirst()) {
-            x = Integer.parseInt(cursor.getString(0));
-            y = Integer.parseInt(cursor.getString(1));
+        long start = System.nanoTime();
+        KnownAP ap = getAPRegistry().getAP(bssid);
+        Point position = ap != null ? new Point((int) ap.x, (int) ap.y) : new Point(0, 0);
+        mQueryLatency[QUERY_AP_POSITION].record(System.nanoTime() - start);
+        return position;
+    }
+
+    /**
+     * Gets the in-memory pathloss models of every AP with estimated coefficients. They are
+     * loaded from coefficients table the first time and after every change of that table.
+     * @return unmodifiable map from AP id (id_bssid) to its PathLossModel
+     */
+    @Override
+    public Map<Integer, PathLossModel> getPathLossModels(){
+        Map<Integer, PathLossModel> models = sPathLossModels;
+        if (models == null) {
+            synchronized (IndoorTrackerDatabaseHandler.class) {
+                models = sPathLossModels;
+                if (models == null) {
+                    models = loadPathLossModelsDB();
+                    sPathLossModels = models;
+                }
+            }
+        }
+        return models;
+    }
+
+    /** Forces pathloss models to be reloaded on next use */
+    public static void invalidatePathLossModels(){
+        sPathLossModels = null;
+    }
+
+    /**
+     * Reads every pathloss model of coefficients table, one row per AP. Models of an unknown
+     * type are left out, so those APs fall back to the default model.
+     * @return unmodifiable map from AP id (id_bssid) to its PathLossModel
+     */
+    private Map<Integer, PathLossModel> loadPathLossModelsDB(){
+        long start = System.nanoTime();
+        SQLiteDatabase db = getDatabase();
+        Cursor cursor = db.query(TABLE_COEFFICIENTS, new String[]{KEY_BSSID, KEY_COEFFICIENT_A,
+                KEY_COEFFICIENT_B, KEY_COEFFICIENT_C, KEY_COEFFICIENT_D}, KEY_MODEL_TYPE + "=?",
+                new String[]{MODEL_TYPE_CUBIC}, null, null, null);
+        Map<Integer, PathLossModel> models = new HashMap<Integer, PathLossModel>();
+        try {
+            while (cursor.moveToNext()) {
+                double[] coefficients = new double[4];
+                for (int i = 0; i < 4; i++)
+                    coefficients[i] = cursor.getDouble(1 + i);
+                models.put(cursor.getInt(0), new PathLossModel(coefficients));
+            }
+        } finally {
+            cursor.close();
         }
-        db.close();
-        return new Point (x, y);
+        mQueryLatency[QUERY_PATHLOSS_MODELS].record(System.nanoTime() - start);
+        return Collections.unmodifiableMap(models);
     }
 
     /**
-     * Gets coefficients [a b c d] from estimated pathloss model of BSSID selected
+     * Gets coefficients [a b c d] from estimated pathloss model of BSSID selected. It is a
+     * single-row read by primary key, and SQL is constant, so the statement is compiled once
+     * and reused from the connection cache.
      * @param idBssidApSelected BSSID selected
-     * @return coefficients [a b c d]
+     * @return coefficients [a b c d], all 0 if the AP has no model
      */
-
     public double[] getCoefficientsDB (int idBssidApSelected){
-        SQLiteDatabase db = this.getReadableDatabase();
+        long start = System.nanoTime();
         double[] coefficients = new double[4];
-        Cursor cursor = db.query(TABLE_COEFFICIENTS, new String[]{KEY_COEFFICIENT_VALUE},
-                KEY_BSSID + "=?",
-                new String[]{String.valueOf(idBssidApSelected)}, null, null, null, null);
-        // There is at least one register
-        if (cursor.moveToFirst()) {
-            for (int i = 0; i < cursor.getCount(); i++) {
-                coefficients[i] = cursor.getDouble(0);
-                cursor.moveToNext();
+        Cursor cursor = getDatabase().rawQuery(SQL_COEFFICIENTS_BY_ID,
+                new String[]{String.valueOf(idBssidApSelected)});
+        try {
+            if (cursor.moveToFirst()) {
+                for (int i = 0; i < 4; i++)
+                    coefficients[i] = cursor.getDouble(i);
             }
+        } finally {
+            cursor.close();
         }
-        db.close();
-
+        mQueryLatency[QUERY_COEFFICIENTS].record(System.nanoTime() - start);
         return coefficients;
-
-    }
-    private String removeLastDigitBssid (String bssid){
-        if (bssid.length() > 0) {
-            bssid = bssid.substring(0, bssid.length()-1);
-        }
-        return bssid;
     }
 
     /**
@@ -249,14 +461,21 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
      * @param id_BSSID Identification number of currently used AP MAC/BSSID
      */
     public String getBssidNameDB(int id_BSSID) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_BSSIDS, new String[]{KEY_BSSID_NAME}, KEY_BSSID_ID + "=?",
-                new String[]{String.valueOf(id_BSSID)}, null, null, null, null);
+        long start = System.nanoTime();
         String bssid = "";
-        if (cursor.moveToFirst()) {
-            bssid = cursor.getString(0);
+        SQLiteDatabase db = getDatabase();
+        synchronized (this) {
+            if (mBssidNameStatement == null)
+                mBssidNameStatement = db.compileStatement("SELECT " + KEY_BSSID_NAME + " FROM "
+                        + TABLE_BSSIDS + " WHERE " + KEY_BSSID_ID + "=?");
+            mBssidNameStatement.bindLong(1, id_BSSID);
+            try {
+                bssid = mBssidNameStatement.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                // Unknown id, empty name
+            }
         }
-        db.close();
+        mQueryLatency[QUERY_BSSID_NAME].record(System.nanoTime() - start);
         return bssid;
     }
 
@@ -270,16 +489,75 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
      * @param value_distance meters away from where value_RSS was measured
      */
     public void addMeasurementDB(int id_BSSID, int value_RSS, int value_distance) {
-        // If id_BSSID is already in table, update measurements
-        // If id_BSSID is not in table, insert measurements
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues measurementValues = new ContentValues();
-        measurementValues.put(KEY_BSSID, id_BSSID);
-        measurementValues.put(KEY_RSS, value_RSS);
-        measurementValues.put(KEY_DISTANCE, value_distance);
-        // insert AP measurements into measurements table
-        db.insert(TABLE_MEASUREMENTS, null, measurementValues);
-        db.close();
+        addMeasurementsDB(new int[]{id_BSSID}, new int[]{value_RSS},
+                new int[]{value_distance});
+    }
+
+    /**
+     * Adds a batch of measurement sets to "measurements" table in a single transaction, with
+     * one compiled insert statement. Either every row is stored or none is.
+     *
+     * @param id_BSSIDs       AP id of each measurement
+     * @param values_RSS      RSS of each measurement
+     * @param values_distance distance of each measurement
+     */
+    public void addMeasurementsDB(int[] id_BSSIDs, int[] values_RSS, int[] values_distance) {
+        if (id_BSSIDs.length != values_RSS.length || id_BSSIDs.length != values_distance.length)
+            throw new IllegalArgumentException("Measurement arrays must have the same length");
+        long start = System.nanoTime();
+        SQLiteDatabase db = getDatabase();
+        synchronized (this) {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < id_BSSIDs.length; i++)
+                    insertMeasurement(db, id_BSSIDs[i], values_RSS[i], values_distance[i]);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        mQueryLatency[QUERY_ADD_MEASUREMENT].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Replaces every measurement set of an AP in a single transaction, e.g. when a survey of
+     * that AP is imported again.
+     *
+     * @param id_BSSID        Identification number of the AP
+     * @param values_RSS      RSS of each measurement
+     * @param values_distance distance of each measurement
+     */
+    public void replaceMeasurementsDB(int id_BSSID, int[] values_RSS, int[] values_distance) {
+        if (values_RSS.length != values_distance.length)
+            throw new IllegalArgumentException("Measurement arrays must have the same length");
+        long start = System.nanoTime();
+        SQLiteDatabase db = getDatabase();
+        synchronized (this) {
+            db.beginTransaction();
+            try {
+                db.delete(TABLE_MEASUREMENTS, KEY_BSSID + "=?",
+                        new String[]{String.valueOf(id_BSSID)});
+                for (int i = 0; i < values_RSS.length; i++)
+                    insertMeasurement(db, id_BSSID, values_RSS[i], values_distance[i]);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        mQueryLatency[QUERY_ADD_MEASUREMENT].record(System.nanoTime() - start);
+    }
+
+    /** Inserts one measurement with the compiled statement. Caller holds the lock of this. */
+    private void insertMeasurement(SQLiteDatabase db, int id_BSSID, int value_RSS,
+                                   int value_distance) {
+        if (mInsertMeasurementStatement == null)
+            mInsertMeasurementStatement = db.compileStatement("INSERT INTO "
+                    + TABLE_MEASUREMENTS + " (" + KEY_BSSID + ", " + KEY_RSS + ", "
+                    + KEY_DISTANCE + ") VALUES (?, ?, ?)");
+        mInsertMeasurementStatement.bindLong(1, id_BSSID);
+        mInsertMeasurementStatement.bindLong(2, value_RSS);
+        mInsertMeasurementStatement.bindLong(3, value_distance);
+        mInsertMeasurementStatement.executeInsert();
     }
 
     /**
@@ -289,19 +567,19 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
      * @return rssArray
      */
     public double[] getRSSValuesDB(int id_BSSID) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_MEASUREMENTS, new String[]{KEY_RSS},
+        long start = System.nanoTime();
+        Cursor cursor = getDatabase().query(TABLE_MEASUREMENTS, new String[]{KEY_RSS},
                 KEY_BSSID + "=?",
                 new String[]{String.valueOf(id_BSSID)}, null, null, null, null);
-        double[] rssArray = new double[cursor.getCount()];
-        // There is at least one register
-        if (cursor.moveToFirst()) {
-            for (int i = 0; i < cursor.getCount(); i++) {
+        double[] rssArray;
+        try {
+            rssArray = new double[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++)
                 rssArray[i] = cursor.getDouble(0);
-                cursor.moveToNext();
-            }
+        } finally {
+            cursor.close();
         }
-        db.close();
+        mQueryLatency[QUERY_RSS_VALUES].record(System.nanoTime() - start);
         return rssArray;
     }
 
@@ -312,53 +590,109 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
      * @return distanceArray
      */
     public double[] getDistanceValuesDB(int id_BSSID) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_MEASUREMENTS, new String[]{KEY_DISTANCE},
+        long start = System.nanoTime();
+        Cursor cursor = getDatabase().query(TABLE_MEASUREMENTS, new String[]{KEY_DISTANCE},
                 KEY_BSSID + "=?",
                 new String[]{String.valueOf(id_BSSID)}, null, null, null, null);
-        double[] distanceArray = new double[cursor.getCount()];
-        // There is at least one register
-        if (cursor.moveToFirst()) {
-            for (int i = 0; i < cursor.getCount(); i++) {
+        double[] distanceArray;
+        try {
+            distanceArray = new double[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++)
                 distanceArray[i] = cursor.getDouble(0);
-                cursor.moveToNext();
-            }
+        } finally {
+            cursor.close();
         }
-        db.close();
+        mQueryLatency[QUERY_DISTANCE_VALUES].record(System.nanoTime() - start);
         return distanceArray;
     }
 
     /**
-     * Adds coefficients to database. They are stored in [a b c d] order
+     * Adds coefficients to database. They are stored in [a b c d] order, replacing the
+     * previous coefficients of the AP atomically.
      * @param id_BSSID Identification number of currently used AP MAC/BSSID
      * @param coefficients coefficients [a b c d]
      */
     public void addCoefficientsDB(int id_BSSID, double[] coefficients) {
-        // NEEDS TO BE DONE:
-        //      If id_BSSID is already in table, update coefficients
-        //      If id_BSSID is not in table, insert coefficients
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues coefficientValues = new ContentValues();
-        coefficientValues.put(KEY_BSSID, id_BSSID);
-        coefficientValues.put(KEY_COEFFICIENT_VALUE, coefficients[0]);
-        db.insert(TABLE_COEFFICIENTS, null, coefficientValues);
-        coefficientValues.put(KEY_BSSID, id_BSSID);
-        coefficientValues.put(KEY_COEFFICIENT_VALUE, coefficients[1]);
-        db.insert(TABLE_COEFFICIENTS, null, coefficientValues);
-        coefficientValues.put(KEY_BSSID, id_BSSID);
-        coefficientValues.put(KEY_COEFFICIENT_VALUE, coefficients[2]);
-        db.insert(TABLE_COEFFICIENTS, null, coefficientValues);
-        coefficientValues.put(KEY_BSSID, id_BSSID);
-        coefficientValues.put(KEY_COEFFICIENT_VALUE, coefficients[3]);
-        db.insert(TABLE_COEFFICIENTS, null, coefficientValues);
-        db.close();
+        addCoefficientsDB(Collections.singletonMap(id_BSSID, coefficients));
+    }
+
+    /**
+     * Stores the coefficients of several APs in a single transaction, with a compiled upsert
+     * statement. The model row of each AP replaces its previous one.
+     * @param coefficientsByAP coefficients [a b c d] by AP id (id_bssid)
+     */
+    public void addCoefficientsDB(Map<Integer, double[]> coefficientsByAP) {
+        for (double[] coefficients : coefficientsByAP.values()) {
+            if (coefficients.length != 4)
+                throw new IllegalArgumentException("Coefficients must be [a b c d]");
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase db = getDatabase();
+        synchronized (this) {
+            if (mInsertModelStatement == null)
+                mInsertModelStatement = compileInsertModel(db);
+            db.beginTransaction();
+            try {
+                for (Map.Entry<Integer, double[]> entry : coefficientsByAP.entrySet()) {
+                    bindModel(mInsertModelStatement, entry.getKey(), MODEL_TYPE_CUBIC,
+                            entry.getValue());
+                    mInsertModelStatement.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        mQueryLatency[QUERY_ADD_COEFFICIENTS].record(System.nanoTime() - start);
+
+        for (Map.Entry<Integer, double[]> entry : coefficientsByAP.entrySet())
+            updatePathLossModel(entry.getKey(), entry.getValue());
+    }
+
+    /** Precomputes the pathloss model of an AP whose coefficients have just been stored */
+    private void updatePathLossModel(int id_BSSID, double[] coefficients){
+        synchronized (IndoorTrackerDatabaseHandler.class) {
+            Map<Integer, PathLossModel> models = sPathLossModels;
+            if (models == null)
+                return; // Models will be loaded with these coefficients on next use
+            Map<Integer, PathLossModel> updatedModels = new HashMap<Integer, PathLossModel>
+                    (models);
+            updatedModels.put(id_BSSID, new PathLossModel(coefficients));
+            sPathLossModels = Collections.unmodifiableMap(updatedModels);
+        }
     }
 
 
+    /**
+     * QUERY LATENCY
+     */
+
+    /**
+     * @param query one of QUERY_* constants
+     * @return latency histogram of that query type
+     */
+    public LatencyHistogram getQueryLatency(int query){
+        return mQueryLatency[query];
+    }
+
+    /** @return one line per query type: count, p50, p99 and max in milliseconds */
+    public String getQueryLatencyReport(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %6s %8s %8s %8s%n", "query (ms)", "n", "p50", "p99",
+                "max"));
+        for (int i = 0; i < mQueryLatency.length; i++) {
+            LatencyHistogram histogram = mQueryLatency[i];
+            sb.append(String.format("%-16s %6d %8.3f %8.3f %8.3f%n", QUERY_NAMES[i],
+                    histogram.getCount(), histogram.getPercentile(50) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
     /** Used to check database, help method of AndroidDatabaseManager activity */
     public ArrayList<Cursor> getData(String Query) {
-        //get writable database
-        SQLiteDatabase sqlDB = this.getWritableDatabase();
+        //get the connection of the handler
+        SQLiteDatabase sqlDB = getDatabase();
         String[] columns = new String[]{"mesage"};
         //an array list of cursor to save two cursors one has results from the query
         //other cursor stores error message if any errors are triggered
@@ -370,10 +704,20 @@ public class IndoorTrackerDatabaseHandler extends SQLiteOpenHelper {
             String maxQuery = Query;
             //execute the query results will be save in Cursor c
             Cursor c = sqlDB.rawQuery(maxQuery, null);
+            // rawQuery() is lazy: the statement only runs when the cursor is first filled
+            int count = c != null ? c.getCount() : 0;
+            // Any statement but a read one may have changed bssids or coefficients tables
+            String statement = Query.trim().toLowerCase();
+            if (!statement.startsWith("select") && !statement.startsWith("pragma")) {
+                if (statement.contains(TABLE_BSSIDS))
+                    invalidateAPRegistry();
+                if (statement.contains(TABLE_COEFFICIENTS))
+                    invalidatePathLossModels();
+            }
             //add value to cursor2
             Cursor2.addRow(new Object[]{"Success"});
             alc.set(1, Cursor2);
-            if (null != c && c.getCount() > 0) {
+            if (count > 0) {
                 alc.set(0, c);
                 c.moveToFirst();
                 return alc;
@@ -7,23 +7,39 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Color;
 import android.graphics.Point;
+import android.graphics.Typeface;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.text.InputType;
+import android.util.Log;
+import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.EditText;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.qozix.tileview.TileView;
-
-import java.util.Collections;
-import java.util.Comparator;
+import com.raulprojects.ekfindoortracker.core.FixPipeline;
+import com.raulprojects.ekfindoortracker.core.LatestWinsExecutor;
+import com.raulprojects.ekfindoortracker.core.PipelineLatency;
+import com.raulprojects.ekfindoortracker.core.RecordedScan;
+import com.raulprojects.ekfindoortracker.core.ScanLogWriter;
+import com.raulprojects.ekfindoortracker.core.TrackerConfiguration;
+import com.raulprojects.ekfindoortracker.core.TrackerConfigurationFile;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -66,28 +82,31 @@ import java.util.TimerTask;
  */
 
 public class MapViewActivity extends Activity {
-    public long start, end;
+    private volatile long mScanRequestTime, mScanReceiveTime, mUIPostTime;
+    private PipelineLatency mLatency;
+    private TextView mLatencyOverlay;
     private TileView mTileView;
     private ImageView mMarker;
     private Point mUserPosition;
     private WifiManager mWifi;
     private BroadcastReceiver mReceiver;
     private Timer mTimer;
-    private boolean mIsActivityPaused = false;
-    private boolean mIsScanned = false;
-    private boolean mIsAlgorithmFinished = true;
-    private int mNumberProcessingThreads = 0;
-    private List<APAlgorithmData> mAlgorithmInputDataList;
-    private Prefilter mFilter;
-    private List<ScanResult> filteredResults;
-    private LSAlgorithm mLSAlgorithm;
-    private int mIterationK;
-    private EKFAlgorithmData mEKFData;
-    private int mIdBssidApSelected;
+    private volatile boolean mIsActivityPaused = false;
+    private LatestWinsExecutor<RecordedScan> mEstimationExecutor;
+    private FixPipeline mPipeline;
+    private ScanLogWriter mScanLogWriter;
+    private int mSkippedScans; // scans the log rejected since recording started
+    private TrackerConfigurationFile mConfigurationFile;
+    private volatile TrackerConfiguration mConfiguration;
+    private String mReportedConfigurationError;
+    private String mReportedEstimationError; // only used by the estimation thread
     public static final int UPDATE_MAP = 1;
-    public static final int SCAN_INTERVAL = 2000; // 3 seconds
-    public static final int SCAN_DELAY = 1000; // 1 second
-    public static final int MAX_PROCESSING_THREADS = 1; // 1 thread
+    public static final int UPDATE_CONFIGURATION = 2;
+    public static final int CONFIGURATION_ERROR = 3;
+    public static final int ESTIMATION_ERROR = 4;
+    public static final String LATENCY_DUMP_FILE = "latency.txt";
+    public static final String SCAN_LOG_FILE = "scans.bin";
+    public static final String CONFIGURATION_FILE = "tracker.properties";
     /** UI Handler which updates map */
     Handler mUIHandler = new Handler (){
         @Override
@@ -98,7 +117,7 @@ public class MapViewActivity extends Activity {
                     Point point = (Point) msg.obj;
                     // Updates map with user position
                     mTileView.removeMarker(mMarker);
-                    // If less than 4 AP were acquired
+                    // If not enough APs were acquired
                     if (point.x == -10){
                         // Toast
                         Toast.makeText(getBaseContext(), "Only "+ point.y +" APs acquired",
@@ -109,7 +128,8 @@ public class MapViewActivity extends Activity {
                         Toast.makeText(getBaseContext(), "Coordinates negative",
                                 Toast.LENGTH_SHORT)
                                 .show();
-                    }else if(point.x > 80 || point.y > 150){ //Out of boundaries
+                    }else if(point.x > mConfiguration.mapWidth
+                            || point.y > mConfiguration.mapHeight){ //Out of boundaries
                         // Toast
                         Toast.makeText(getBaseContext(), "Coordinates out of boundaries",
                                 Toast.LENGTH_SHORT)
@@ -121,6 +141,21 @@ public class MapViewActivity extends Activity {
                         Toast.makeText(getBaseContext(), "Correct scan", Toast.LENGTH_SHORT)
                                 .show();
                     }
+                    mLatency.recordSince(PipelineLatency.STAGE_UI_POST, mUIPostTime);
+                    mLatency.recordSince(PipelineLatency.STAGE_SCAN_TO_FIX, mScanReceiveTime);
+                    if (mLatencyOverlay.getVisibility() == View.VISIBLE)
+                        mLatencyOverlay.setText(getLatencyReport());
+                    break;
+                case UPDATE_CONFIGURATION:
+                    applyConfiguration((TrackerConfiguration) msg.obj);
+                    break;
+                case CONFIGURATION_ERROR:
+                    Toast.makeText(getBaseContext(), "Configuration not loaded: " + msg.obj,
+                            Toast.LENGTH_LONG).show();
+                    break;
+                case ESTIMATION_ERROR:
+                    Toast.makeText(getBaseContext(), "Scan not processed: " + msg.obj,
+                            Toast.LENGTH_LONG).show();
                     break;
                 default:
                     break;
@@ -152,159 +187,236 @@ public class MapViewActivity extends Activity {
         mTileView.addDetailLevel(0.125f, "tilesfolder/125_%col%_%row%.png",
                 "map125.jpg", 256, 256);
         mTileView.setScale(0.25);
-        setContentView(mTileView);
+
+        /** Latency overlay above the map, hidden by default */
+        mLatency = new PipelineLatency();
+        mLatencyOverlay = new TextView(this);
+        mLatencyOverlay.setTypeface(Typeface.MONOSPACE);
+        mLatencyOverlay.setTextSize(10);
+        mLatencyOverlay.setTextColor(Color.WHITE);
+        mLatencyOverlay.setBackgroundColor(Color.argb(160, 0, 0, 0));
+        mLatencyOverlay.setVisibility(View.GONE);
+
+        FrameLayout layout = new FrameLayout(this);
+        layout.addView(mTileView);
+        layout.addView(mLatencyOverlay, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT,
+                Gravity.TOP | Gravity.LEFT));
+        setContentView(layout);
         /** Marker used in CellID indoor tracker */
         mMarker = new ImageView(MapViewActivity.this);
         mMarker.setImageResource(R.drawable.maps_marker_blue);
         mMarker.setAdjustViewBounds(true);
+        /** Tracker configuration from CONFIGURATION_FILE in app files directory, if any */
+        mConfigurationFile = new TrackerConfigurationFile(new File(getFilesDir(),
+                CONFIGURATION_FILE));
+        mConfigurationFile.poll();
+        mConfiguration = mConfigurationFile.getConfiguration();
+        if (mConfigurationFile.getLastError() != null) {
+            mReportedConfigurationError = mConfigurationFile.getLastError();
+            Toast.makeText(getBaseContext(), "Configuration not loaded: "
+                    + mReportedConfigurationError, Toast.LENGTH_LONG).show();
+        }
         // Define the bounds using the map coordinates: X: [0 - 60]; Y:[0 - 150]
-        mTileView.defineRelativeBounds(0, 150, 60, 0);
+        mTileView.defineRelativeBounds(0, mConfiguration.mapHeight, mConfiguration.mapWidth, 0);
     }
     /**
-     * setScanningTask() is a Timer Task which is scheduled to run every SCAN_INTERVAL seconds.
-     * Therefore, it creates a thread at the beginning of the cycle and runs repeatedly until
-     * user or Android system pauses or destroys the application.
+     * setScanningTask() creates the fix pipeline and the estimation executor, and schedules the
+     * scanning task.
      */
     private void setScanningTask(){
-        mIdBssidApSelected = 3; // By default, AP3 is chosen to provide pathloss model
-
-        mLSAlgorithm = new LSAlgorithm();
-
         mWifi = (WifiManager) getSystemService(getApplicationContext().WIFI_SERVICE);
-        mFilter = new Prefilter(this);
-        mIterationK = 1;
+        // By default, AP3 is chosen to provide pathloss model
+        mPipeline = new FixPipeline(IndoorTrackerDatabaseHandler.getInstance(this), mLatency,
+                mConfiguration);
 
+        /* Single algorithm thread: newer scans overwrite unprocessed older ones */
+        mEstimationExecutor = new LatestWinsExecutor<RecordedScan>("estimation",
+                new LatestWinsExecutor.Consumer<RecordedScan>() {
+                    @Override
+                    public void process(RecordedScan scan) {
+                        estimatePosition(scan);
+                    }
+                },
+                new LatestWinsExecutor.FailureListener<RecordedScan>() {
+                    @Override
+                    public void onFailure(RecordedScan scan, RuntimeException e) {
+                        reportEstimationError(e);
+                    }
+                });
+
+        scheduleScanning();
+    }
+    /**
+     * Timer Task which is scheduled to run every scanIntervalMillis of the configuration.
+     * Therefore, it creates a thread at the beginning of the cycle and runs repeatedly until
+     * user or Android system pauses or destroys the application, or the scan cadence changes.
+     */
+    private void scheduleScanning(){
         mTimer = new Timer();
         mTimer.schedule(new TimerTask() {
             @Override
             public void run() {
-                if (!mIsActivityPaused && mIsAlgorithmFinished) {
-                    mIsScanned = false;
-                    end = System.currentTimeMillis();
+                if (!mIsActivityPaused) {
+                    reloadConfiguration();
+                    mScanRequestTime = System.nanoTime();
                     mWifi.startScan();
                 }
             }
-        }, SCAN_DELAY, SCAN_INTERVAL);
+        }, mConfiguration.scanDelayMillis, mConfiguration.scanIntervalMillis);
     }
+
     /**
-     * processScanResults() should be triggered every time after startScan() is run in the Timer
-     * task (hence, every SCAN_INTERVAL seconds). It runs in a separated thread.
-     * Its function is gathering WiFi scanning results and using them to apply the indoor
-     * algorithm. When it is finished, this method communicates with UI thread and updates user
-     * position.
+     * HOT RELOAD
+     * The scanning thread checks CONFIGURATION_FILE before each scan, which is a stat call
+     * unless the file has changed. A new valid configuration is handed over to the pipeline,
+     * which applies it before its next scan without losing filter state, and to the UI thread,
+     * which reschedules scanning and redefines map bounds if needed. Invalid files are reported
+     * and ignored.
      *
-     * NOTE: If necessary, we can deploy more than one thread for this method changing
-     * mNumberProcessingThreads variable, in order to make a more efficient application. It
-     * would execute at the same time the algorithm with different data, allowing to update the
-     * map even faster, but would require better device performance.
+     * Timer.cancel() does not wait for a running task, so the task of a replaced timer may
+     * still be reloading when the new timer runs its first one: reloads are synchronized.
      */
-    public void processScanResults(final List<ScanResult> results) {
-        if(results.size() > 0 && mNumberProcessingThreads <= MAX_PROCESSING_THREADS && !mIsScanned){
-            /** Execute a new thread */
-            Thread t = new Thread() {
-                public void run() {
-                    mNumberProcessingThreads++;
-                    mIsScanned = true;
-                    mIsAlgorithmFinished = false;
-
-                    /** Extended Kalman Filter Algorithm  */
-                    filteredResults = mFilter.filterEverythingOut(results);
-                    // If more than 4 AP were acquired, apply EKF
-                    if(filteredResults.size() >= 4){
-
-                        /* Gets the 4 strongest RSS from 4 APs */
-                        filteredResults = getStrongestRSSList(filteredResults);
-
-                        /* Translates RSS to distance by using estimated pathloss model */
-                        mAlgorithmInputDataList
-                                = mFilter.translatesRSStoDistance (filteredResults, mIdBssidApSelected);
-
-                        if (mIterationK == 1){ // First iteration uses WCLS algorithm
-
-                            /* Initial guess using Weighted Circular Least Square algorithm */
-                            Point initialGuess = mLSAlgorithm.applyWCLSAlgorithm
-                                    (mAlgorithmInputDataList);
-                            double[] x = new double[]{initialGuess.x, initialGuess.y};
-
-                            /* Set covariance matrix P */
-                            double[][] P = new double[][]{
-                                    {10,0},
-                                    {0, 10}
-                            };
-
-                            mEKFData = new EKFAlgorithmData(x, P);
-
-                            /* Apply EKF algorithm with algorithmInputDataList and initial
-                            guesses from WCLS algorithm */
-                            mEKFData = mEKFData.applyEKFAlgorithm(mAlgorithmInputDataList,
-                                    mEKFData);
-                            mIterationK++;
-                        }
-                        else
-                        {
-                            /* Apply EKF algorithm with algorithmInputDataList and estimates from
-                             previous iteration */
-                            mEKFData = mEKFData.applyEKFAlgorithm(mAlgorithmInputDataList,
-                                        mEKFData);
-                            mIterationK++;
-                        }
-
-                        int coordinateX = (int) mEKFData.x.get(0);
-                        int coordinateY = (int) mEKFData.x.get(1);
-
-                        mUserPosition = new Point(coordinateX, coordinateY);
-
-                    }
-                    else // If less than 4 AP were acquired, return error code
-                    {
-                        mUserPosition = new Point (-10, filteredResults.size());
-                    }
-
-                    /* Call the UPDATE_MAP case method of UI Handler with user position on it */
-                    Message msg = mUIHandler.obtainMessage(UPDATE_MAP, mUserPosition);
-                    mUIHandler.sendMessage(msg);
-                    mNumberProcessingThreads--;
-                    mIsAlgorithmFinished = true;
+    private synchronized void reloadConfiguration() {
+        if (mConfigurationFile.poll()) {
+            TrackerConfiguration configuration = mConfigurationFile.getConfiguration();
+            mPipeline.setConfiguration(configuration);
+            mUIHandler.obtainMessage(UPDATE_CONFIGURATION, configuration).sendToTarget();
+        }
+        String error = mConfigurationFile.getLastError();
+        if (error != null && error != mReportedConfigurationError) {
+            mReportedConfigurationError = error;
+            mUIHandler.obtainMessage(CONFIGURATION_ERROR, error).sendToTarget();
+        }
+    }
 
+    /** Applies a new configuration on the UI thread: scan cadence and map bounds */
+    private void applyConfiguration(TrackerConfiguration configuration) {
+        TrackerConfiguration previous = mConfiguration;
+        mConfiguration = configuration;
+        if (configuration.scanIntervalMillis != previous.scanIntervalMillis
+                || configuration.scanDelayMillis != previous.scanDelayMillis) {
+            mTimer.cancel();
+            scheduleScanning();
+        }
+        if (configuration.mapWidth != previous.mapWidth
+                || configuration.mapHeight != previous.mapHeight)
+            mTileView.defineRelativeBounds(0, configuration.mapHeight, configuration.mapWidth, 0);
+        Toast.makeText(getBaseContext(), "Configuration loaded: " + configuration,
+                Toast.LENGTH_SHORT).show();
+    }
 
+    /**
+     * Logs a scan whose estimation threw, and shows its error, unless it is the same as the
+     * last one shown: a geometry error, e.g. "Nearly singular matrix", may repeat on every
+     * scan while the user stays in the same place.
+     */
+    private void reportEstimationError(RuntimeException e) {
+        Log.w("estimation", "Scan not processed", e);
+        String error = String.valueOf(e.getMessage());
+        if (!error.equals(mReportedEstimationError)) {
+            mReportedEstimationError = error;
+            mUIHandler.obtainMessage(ESTIMATION_ERROR, error).sendToTarget();
+        }
+    }
 
-                }
-            };
-            t.start(); // start new scan thread
+    /**
+     * processScanResults() should be triggered every time after startScan() is run in the Timer
+     * task (hence, every scanIntervalMillis). It copies the scan, appends it to the scan log
+     * if recording is on, and hands it over to the estimation executor, which runs
+     * estimatePosition() in its own thread.
+     *
+     * NOTE: The executor has a one-slot mailbox. If the algorithm is still busy with a
+     * previous scan when a new one arrives, a waiting unprocessed scan is replaced by the new
+     * one, so the map always converges on the freshest fix and no thread is created per scan.
+     */
+    public void processScanResults(final List<ScanResult> results) {
+        if(results.size() > 0){
+            List<WifiReading> readings = new ArrayList<WifiReading>(results.size());
+            for (ScanResult result : results)
+                readings.add(new WifiReading(result.BSSID, result.level, result.frequency));
+            RecordedScan scan = new RecordedScan(mScanReceiveTime, readings);
+            recordScan(scan);
+            mEstimationExecutor.submit(scan);
         }
     }
 
     /**
-     * Gets X strongest RSS list from X APs:
-     *      Sorts ScanResult list in descending order by "level" field
-     *      Gets the X first elements of the list by using subList
-     * @param results WiFi scan results list with all the known AP data
-     * @return WiFi scan results list with the X strongest APs
+     * Applies the indoor algorithm to a WiFi scan and communicates with UI thread to update
+     * user position. Only the estimation executor thread runs this method, hence the pipeline
+     * state is confined to that thread.
      */
-    private List<ScanResult> getStrongestRSSList (List<ScanResult> results){
+    private void estimatePosition(RecordedScan scan) {
+        if (mPipeline.estimate(scan)) {
+            mUserPosition = new Point((int) mPipeline.getX(), (int) mPipeline.getY());
+        }
+        else // If not enough APs were acquired, return error code
+        {
+            mUserPosition = new Point (-10, mPipeline.getNumberKnownAPs());
+        }
 
-        /* Sorts the list by "level" field name */
-        Collections.sort(results, new Comparator<ScanResult>() {
-            public int compare(ScanResult one, ScanResult other) {
-                int returnVal = 0;
+        /* Call the UPDATE_MAP case method of UI Handler with user position on it */
+        mUIPostTime = System.nanoTime();
+        Message msg = mUIHandler.obtainMessage(UPDATE_MAP, mUserPosition);
+        mUIHandler.sendMessage(msg);
+    }
 
-                if (one.level > other.level) {
-                    returnVal = -1;
-                } else if (one.level < other.level) {
-                    returnVal = 1;
-                } else if (one.level == other.level) {
-                    returnVal = 0;
-                }
-                return returnVal;
+    /**
+     * SCAN RECORDING
+     * Scans are appended to SCAN_LOG_FILE in app files directory, so that field sessions can be
+     * replayed offline with ScanReplay. Each start of recording opens a new session of the log,
+     * since scan timestamps are System.nanoTime() and only comparable within a session.
+     * Recording runs on the UI thread; appending a scan only encodes it into a buffer, which is
+     * written every few hundred scans. A scan the log rejects, e.g. with a malformed BSSID, is
+     * skipped: the first one is reported, and the count when recording stops.
+     */
 
-            }
-        });
+    private void recordScan(RecordedScan scan) {
+        if (mScanLogWriter == null)
+            return;
+        try {
+            mScanLogWriter.append(scan);
+        } catch (IllegalArgumentException e) {
+            if (mSkippedScans++ == 0)
+                Toast.makeText(getBaseContext(), "Scan not recorded: " + e.getMessage(),
+                        Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            stopRecording();
+            Toast.makeText(getBaseContext(), "Scan recording failed: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
 
-        /* Gets the X first elements of the list in a new list */
-        int X = 4; // X = 4
-        List<ScanResult> strongestResults = results.subList(0, X);
+    private void startRecording() {
+        File file = new File(getFilesDir(), SCAN_LOG_FILE);
+        try {
+            mScanLogWriter = new ScanLogWriter(file);
+            mSkippedScans = 0;
+            String message = "Recording scans to " + file.getAbsolutePath();
+            if (mScanLogWriter.getDiscardedBytes() > 0)
+                message += " (" + mScanLogWriter.getDiscardedBytes()
+                        + " bytes of an incomplete scan dropped)";
+            Toast.makeText(getBaseContext(), message, Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(getBaseContext(), "Scan recording failed: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
 
-        return strongestResults;
+    private void stopRecording() {
+        if (mScanLogWriter == null)
+            return;
+        try {
+            mScanLogWriter.close();
+            String message = mScanLogWriter.getNumberScans() + " scans recorded";
+            if (mSkippedScans > 0)
+                message += ", " + mSkippedScans + " skipped";
+            Toast.makeText(getBaseContext(), message, Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Toast.makeText(getBaseContext(), "Scan recording failed: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+        mScanLogWriter = null;
     }
 
 
@@ -318,8 +430,8 @@ public class MapViewActivity extends Activity {
             @Override
             public void onReceive(Context c, Intent intent)
             {
-                if(!mIsScanned)
-                    start = System.currentTimeMillis();
+                mScanReceiveTime = System.nanoTime();
+                mLatency.recordSince(PipelineLatency.STAGE_SCAN_RECEIVE, mScanRequestTime);
                 processScanResults(mWifi.getScanResults());
             }
         };
@@ -336,6 +448,13 @@ public class MapViewActivity extends Activity {
     protected void onPause(){
         super.onPause();
         mIsActivityPaused = true;
+        if (mScanLogWriter != null) {
+            try {
+                mScanLogWriter.flush();
+            } catch (IOException e) {
+                stopRecording();
+            }
+        }
     }
     /* Activity is resumed */
     @Override
@@ -348,6 +467,8 @@ public class MapViewActivity extends Activity {
     protected void onDestroy(){
         super.onDestroy();
         mTimer.cancel();
+        mEstimationExecutor.shutdown();
+        stopRecording();
     }
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -369,11 +490,51 @@ public class MapViewActivity extends Activity {
             case R.id.action_pathloss_model:
                 dialogBssid();
                 return true;
+            case R.id.action_latency_overlay:
+                // Shows or hides per-stage latency histograms above the map
+                if (mLatencyOverlay.getVisibility() == View.VISIBLE) {
+                    mLatencyOverlay.setVisibility(View.GONE);
+                } else {
+                    mLatencyOverlay.setText(getLatencyReport());
+                    mLatencyOverlay.setVisibility(View.VISIBLE);
+                }
+                return true;
+            case R.id.action_latency_dump:
+                dumpLatency();
+                return true;
+            case R.id.action_record_scans:
+                // Starts or stops appending scans to the scan log
+                if (mScanLogWriter == null)
+                    startRecording();
+                else
+                    stopRecording();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    /** Per-stage latency followed by per-query database latency */
+    private String getLatencyReport() {
+        return mLatency.getReport() + IndoorTrackerDatabaseHandler.getInstance(this)
+                .getQueryLatencyReport();
+    }
+
+    /** Appends per-stage and per-query latency histograms to LATENCY_DUMP_FILE in app files
+     * directory */
+    private void dumpLatency() {
+        File file = new File(getFilesDir(), LATENCY_DUMP_FILE);
+        try {
+            mLatency.dump(file, IndoorTrackerDatabaseHandler.getInstance(this)
+                    .getQueryLatencyReport());
+            Toast.makeText(getBaseContext(), "Latency dumped to " + file.getAbsolutePath(),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(getBaseContext(), "Latency dump failed: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
     /** Asks for desired AP which will provide pathloss model */
     private void dialogBssid() {
         // Set up the input
@@ -387,7 +548,8 @@ public class MapViewActivity extends Activity {
                 .setPositiveButton("OK", new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        mIdBssidApSelected = Integer.parseInt(input.getText().toString());
+                        mPipeline.setIdBssidApSelected(Integer.parseInt(input.getText()
+                                .toString()));
                     }
                 })
                 .setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -395,7 +557,7 @@ public class MapViewActivity extends Activity {
                     public void onClick(DialogInterface dialog, int which) {
                         dialog.cancel();
                         // code = 0 -> error
-                        mIdBssidApSelected = 0;
+                        mPipeline.setIdBssidApSelected(0);
                     }
                 })
                 .show();
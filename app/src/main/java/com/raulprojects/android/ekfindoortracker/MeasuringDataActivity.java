@@ -77,7 +77,7 @@ public class MeasuringDataActivity extends Activity {
         mRssMean = 0;
         mMetersAway = 0;
         // Creation of MAC/BSSID database
-        measdbh = new IndoorTrackerDatabaseHandler(this);
+        measdbh = IndoorTrackerDatabaseHandler.getInstance(this);
         // WiFi Manager API
         mMainWifi =(WifiManager) getSystemService(Context.WIFI_SERVICE);
         mReceiverWifi = new WifiReceiver();
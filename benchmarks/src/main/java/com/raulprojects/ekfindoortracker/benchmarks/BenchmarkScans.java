@@ -0,0 +1,146 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.APDataSource;
+import com.raulprojects.ekfindoortracker.core.PathLossModel;
+import com.raulprojects.ekfindoortracker.core.TietotaloFloorPlan;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Realistic WiFi scans over Tietotalo's first floor, used as benchmark inputs.
+ *
+ * RSS of each seeded AP follows a log-distance model with log-normal shadowing:
+ *
+ *      RSS = RSS_1M - 10*n*log10(d) + N(0, SHADOWING^2)
+ *
+ * Each known AP is seen through TUT WLAN's four BSSIDs (one per SSID, they only differ in the
+ * last digit), and scans also have foreign APs which Prefilter drops. Distances come back
+ * from the cubic pathloss model fitted to that log-distance model, as done by
+ * ApplyingRegressionActivity with surveyed data.
+ *
+ * Which known APs are in a scan is set by the geometry:
+ *      + GEOMETRY_NEAREST: the N APs nearest to the device, i.e. the strongest ones, which are
+ *      often nearly collinear along the corridor.
+ *      + GEOMETRY_SPREAD: N APs at random among every seeded AP.
+ *
+ * Scans are generated from a fixed seed, so every run measures the same inputs.
+ */
+public class BenchmarkScans {
+
+    public static final String GEOMETRY_NEAREST = "nearest";
+    public static final String GEOMETRY_SPREAD = "spread";
+
+    public static final double RSS_1M = -40;
+    public static final double PATHLOSS_EXPONENT = 3.0;
+    public static final double SHADOWING = 4.0;
+    public static final int MIN_RSS = -95;
+    public static final int MAX_RSS = -30;
+    public static final int SSIDS_PER_AP = 4;
+    public static final int FOREIGN_APS = 10;
+
+    public static final int ID_BSSID_AP_SELECTED = 3;
+
+    private static final long SEED = 42;
+
+    /**
+     * @param numberScans number of scans
+     * @param numberAPs known APs per scan, at most the number of seeded APs
+     * @param geometry GEOMETRY_NEAREST or GEOMETRY_SPREAD
+     * @return scans, each one a new list of new readings
+     */
+    public static List<List<WifiReading>> createScans(int numberScans, int numberAPs,
+                                                      String geometry){
+        int numberSeededAPs = TietotaloFloorPlan.BSSIDS.length;
+        if (numberAPs < 1 || numberAPs > numberSeededAPs)
+            throw new IllegalArgumentException("Number of APs must be in [1, "
+                    + numberSeededAPs + "]");
+        Random random = new Random(SEED);
+        List<List<WifiReading>> scans = new ArrayList<List<WifiReading>>(numberScans);
+        for (int s = 0; s < numberScans; s++) {
+            double x = random.nextDouble() * TietotaloFloorPlan.MAP_WIDTH;
+            double y = random.nextDouble() * TietotaloFloorPlan.MAP_HEIGHT;
+
+            List<WifiReading> scan = new ArrayList<WifiReading>();
+            for (int ap : selectAPs(x, y, numberAPs, geometry, random)) {
+                double dx = x - TietotaloFloorPlan.X_POSITIONS[ap];
+                double dy = y - TietotaloFloorPlan.Y_POSITIONS[ap];
+                double rss = rss(Math.sqrt(dx*dx + dy*dy), random);
+                for (int ssid = 0; ssid < SSIDS_PER_AP; ssid++)
+                    scan.add(new WifiReading(TietotaloFloorPlan.BSSIDS[ap] + ssid,
+                            clamp(rss + random.nextGaussian()), 2412 + 5*ssid));
+            }
+            for (int i = 0; i < FOREIGN_APS; i++)
+                scan.add(new WifiReading(String.format("02:00:00:00:%02x:%02x", s & 0xff, i),
+                        clamp(MIN_RSS + random.nextDouble() * (MAX_RSS - MIN_RSS)), 5180));
+            Collections.shuffle(scan, random);
+            scans.add(scan);
+        }
+        return scans;
+    }
+
+    /** @return deep copy of a scan, since Prefilter modifies readings in place */
+    public static List<WifiReading> copy(List<WifiReading> scan, List<WifiReading> output){
+        output.clear();
+        for (int i = 0; i < scan.size(); i++) {
+            WifiReading reading = scan.get(i);
+            output.add(new WifiReading(reading.BSSID, reading.level, reading.frequency));
+        }
+        return output;
+    }
+
+    /** @return data source with the seeded APs and the fitted pathloss model as default one */
+    public static APDataSource createDataSource(){
+        Map<Integer, PathLossModel> models = new HashMap<Integer, PathLossModel>();
+        models.put(ID_BSSID_AP_SELECTED, fitPathLossModel());
+        return TietotaloFloorPlan.createDataSource(models);
+    }
+
+    /**
+     * Fits d = a + b*RSS + c*RSS² + d*RSS³ by least squares to the log-distance model over
+     * [MIN_RSS, MAX_RSS].
+     */
+    public static PathLossModel fitPathLossModel(){
+        return PathLossModel.fitLogDistance(RSS_1M, PATHLOSS_EXPONENT, MIN_RSS, MAX_RSS);
+    }
+
+    private static List<Integer> selectAPs(double x, double y, int numberAPs, String geometry,
+                                           Random random){
+        int numberSeededAPs = TietotaloFloorPlan.BSSIDS.length;
+        List<Integer> aps = new ArrayList<Integer>(numberSeededAPs);
+        for (int i = 0; i < numberSeededAPs; i++)
+            aps.add(i);
+        if (GEOMETRY_NEAREST.equals(geometry)) {
+            final double[] distance = new double[numberSeededAPs];
+            for (int i = 0; i < numberSeededAPs; i++)
+                distance[i] = Math.hypot(x - TietotaloFloorPlan.X_POSITIONS[i],
+                        y - TietotaloFloorPlan.Y_POSITIONS[i]);
+            Collections.sort(aps, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer one, Integer other) {
+                    return Double.compare(distance[one], distance[other]);
+                }
+            });
+        } else if (GEOMETRY_SPREAD.equals(geometry)) {
+            Collections.shuffle(aps, random);
+        } else {
+            throw new IllegalArgumentException("Unknown geometry: " + geometry);
+        }
+        return aps.subList(0, numberAPs);
+    }
+
+    private static double rss(double distance, Random random){
+        return RSS_1M - 10 * PATHLOSS_EXPONENT * Math.log10(Math.max(distance, 1))
+                + random.nextGaussian() * SHADOWING;
+    }
+
+    private static int clamp(double rss){
+        return (int) Math.max(MIN_RSS, Math.min(MAX_RSS, Math.round(rss)));
+    }
+}
@@ -0,0 +1,125 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.APAlgorithmData;
+import com.raulprojects.ekfindoortracker.core.EKFAlgorithmData;
+import com.raulprojects.ekfindoortracker.core.EKFBatch;
+import com.raulprojects.ekfindoortracker.core.EKFBatchEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One round of EKF steps over every tracked device, i.e. one scan per device:
+ *      + BATCH: EKFBatchEngine over one EKFBatch, as each ShardedTracker shard does.
+ *      + CLOSED_FORM, EJML: one EKFAlgorithmData per device with that kernel.
+ *
+ * Score is the time of a round, hence devices/second is numberDevices / score.
+ *
+ * Synthetic devices are spread over the 60x150 m map with APs at random positions, and
+ * measured distances are the true distances plus gaussian noise.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EKFBatchBenchmark {
+
+    private static final double MAP_WIDTH = 60;
+    private static final double MAP_HEIGHT = 150;
+    private static final double DISTANCE_NOISE = 2.0;
+
+    @Param({"BATCH", "CLOSED_FORM", "EJML"})
+    public String path;
+
+    @Param({"1000", "10000"})
+    public int numberDevices;
+
+    @Param({"4", "8"})
+    public int numberAPs;
+
+    private EKFBatchEngine engine;
+    private EKFBatch batch;
+    private EKFAlgorithmData[] filters;
+    private List<List<APAlgorithmData>> inputs;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        double[][] P0 = new double[][]{
+                {10, 0},
+                {0, 10}
+        };
+
+        /* Synthetic scans: AP positions, measured distances and initial guess per device */
+        double[][] apX = new double[numberDevices][numberAPs];
+        double[][] apY = new double[numberDevices][numberAPs];
+        double[][] distance = new double[numberDevices][numberAPs];
+        double[][] initialGuess = new double[numberDevices][2];
+        double deviceX, deviceY, dx, dy;
+        for (int i = 0; i < numberDevices; i++) {
+            deviceX = random.nextDouble() * MAP_WIDTH;
+            deviceY = random.nextDouble() * MAP_HEIGHT;
+            for (int j = 0; j < numberAPs; j++) {
+                apX[i][j] = (int) (random.nextDouble() * MAP_WIDTH);
+                apY[i][j] = (int) (random.nextDouble() * MAP_HEIGHT);
+                dx = deviceX - apX[i][j];
+                dy = deviceY - apY[i][j];
+                distance[i][j] = Math.sqrt(dx*dx + dy*dy) + random.nextGaussian() * DISTANCE_NOISE;
+            }
+            initialGuess[i][0] = deviceX + random.nextGaussian() * 3;
+            initialGuess[i][1] = deviceY + random.nextGaussian() * 3;
+        }
+
+        if ("BATCH".equals(path)) {
+            engine = new EKFBatchEngine(numberDevices);
+            batch = new EKFBatch(numberDevices, numberAPs);
+            for (int i = 0; i < numberDevices; i++) {
+                engine.addDevice(i, initialGuess[i], P0);
+                batch.beginRecord(i);
+                for (int j = 0; j < numberAPs; j++)
+                    batch.addMeasurement(apX[i][j], apY[i][j], distance[i][j]);
+            }
+            return;
+        }
+
+        int kernel = "EJML".equals(path) ? EKFAlgorithmData.KERNEL_EJML
+                : EKFAlgorithmData.KERNEL_CLOSED_FORM;
+        filters = new EKFAlgorithmData[numberDevices];
+        inputs = new ArrayList<List<APAlgorithmData>>(numberDevices);
+        for (int i = 0; i < numberDevices; i++) {
+            filters[i] = new EKFAlgorithmData(initialGuess[i], P0, kernel);
+            List<APAlgorithmData> input = new ArrayList<APAlgorithmData>(numberAPs);
+            for (int j = 0; j < numberAPs; j++)
+                input.add(new APAlgorithmData("ap" + j, distance[i][j], 0, apX[i][j],
+                        apY[i][j]));
+            inputs.add(input);
+        }
+    }
+
+    @Benchmark
+    public Object applyRound(){
+        if (engine != null) {
+            engine.applyBatch(batch);
+            return batch;
+        }
+        for (int i = 0; i < filters.length; i++)
+            filters[i].applyEKFStep(inputs.get(i));
+        return filters;
+    }
+}
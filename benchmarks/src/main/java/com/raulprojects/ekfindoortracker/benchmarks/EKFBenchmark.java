@@ -0,0 +1,92 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.APAlgorithmData;
+import com.raulprojects.ekfindoortracker.core.EKFAlgorithmData;
+import com.raulprojects.ekfindoortracker.core.FixPipeline;
+import com.raulprojects.ekfindoortracker.core.Prefilter;
+import com.raulprojects.ekfindoortracker.core.TietotaloFloorPlan;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One EKF step with each kernel over every known AP of a scan:
+ *      + applyEKFStep: long-lived filter tracking scan after scan, as FixPipeline does.
+ *      + applyEKFAlgorithm: initial estimates loaded before the step, so that every call starts
+ *      from the same state.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EKFBenchmark {
+
+    private static final int NUMBER_SCANS = 256; // power of two
+
+    @Param({"EJML", "CLOSED_FORM"})
+    public String kernel;
+
+    @Param({"1", "4", "8", "18"})
+    public int numberAPs;
+
+    @Param({BenchmarkScans.GEOMETRY_NEAREST, BenchmarkScans.GEOMETRY_SPREAD})
+    public String geometry;
+
+    private EKFAlgorithmData filter;
+    private EKFAlgorithmData initialEstimates;
+    private List<List<APAlgorithmData>> inputs;
+    private int index;
+
+    @Setup
+    public void setup(){
+        int kernelId = "EJML".equals(kernel) ? EKFAlgorithmData.KERNEL_EJML
+                : EKFAlgorithmData.KERNEL_CLOSED_FORM;
+        double[] x = new double[]{TietotaloFloorPlan.MAP_WIDTH / 2.0,
+                TietotaloFloorPlan.MAP_HEIGHT / 2.0};
+        double[][] P = new double[][]{
+                {FixPipeline.INITIAL_VARIANCE, 0},
+                {0, FixPipeline.INITIAL_VARIANCE}
+        };
+        filter = new EKFAlgorithmData(x, P, kernelId);
+        initialEstimates = new EKFAlgorithmData(x, P, kernelId);
+
+        Prefilter prefilter = new Prefilter(BenchmarkScans.createDataSource());
+        inputs = new ArrayList<List<APAlgorithmData>>(NUMBER_SCANS);
+        for (List<WifiReading> scan : BenchmarkScans.createScans(NUMBER_SCANS, numberAPs,
+                geometry))
+            inputs.add(prefilter.translatesRSStoDistance(prefilter.filterEverythingOut(scan),
+                    BenchmarkScans.ID_BSSID_AP_SELECTED));
+    }
+
+    private List<APAlgorithmData> nextInput(){
+        index = (index + 1) & (NUMBER_SCANS - 1);
+        return inputs.get(index);
+    }
+
+    @Benchmark
+    public EKFAlgorithmData applyEKFStep(){
+        filter.applyEKFStep(nextInput());
+        return filter;
+    }
+
+    @Benchmark
+    public EKFAlgorithmData applyEKFAlgorithm(){
+        return filter.applyEKFAlgorithm(nextInput(), initialEstimates);
+    }
+}
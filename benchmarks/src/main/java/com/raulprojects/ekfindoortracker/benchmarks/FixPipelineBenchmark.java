@@ -0,0 +1,74 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.FixPipeline;
+import com.raulprojects.ekfindoortracker.core.PipelineLatency;
+import com.raulprojects.ekfindoortracker.core.RecordedScan;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole fix of one scan, from raw readings to the EKF estimate, with the filter already
+ * initialised by WCLS. Includes the copy of the scan, since the pipeline filters it in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FixPipelineBenchmark {
+
+    private static final int NUMBER_SCANS = 256; // power of two
+
+    @Param({"4", "8", "18"})
+    public int numberAPs;
+
+    @Param({BenchmarkScans.GEOMETRY_NEAREST, BenchmarkScans.GEOMETRY_SPREAD})
+    public String geometry;
+
+    private FixPipeline pipeline;
+    private List<List<WifiReading>> scans;
+    private List<WifiReading> copy;
+    private int index;
+
+    @Setup
+    public void setup(){
+        pipeline = new FixPipeline(BenchmarkScans.createDataSource(),
+                BenchmarkScans.ID_BSSID_AP_SELECTED, new PipelineLatency());
+        scans = BenchmarkScans.createScans(NUMBER_SCANS, numberAPs, geometry);
+        copy = new ArrayList<WifiReading>();
+        // First fixes until WCLS succeeds, so that every measured fix is an EKF one
+        for (int i = 0; i < NUMBER_SCANS && pipeline.getNumberFixes() == 0; i++) {
+            try {
+                pipeline.estimate(new RecordedScan(0, BenchmarkScans.copy(scans.get(i),
+                        new ArrayList<WifiReading>())));
+            } catch (IllegalArgumentException e) {
+                // Singular WCLS geometry, next scan
+            }
+        }
+        if (pipeline.getNumberFixes() == 0)
+            throw new IllegalStateException("No scan can be solved by WCLS");
+    }
+
+    @Benchmark
+    public boolean estimate(){
+        index = (index + 1) & (NUMBER_SCANS - 1);
+        return pipeline.estimate(new RecordedScan(0, BenchmarkScans.copy(scans.get(index),
+                copy)));
+    }
+}
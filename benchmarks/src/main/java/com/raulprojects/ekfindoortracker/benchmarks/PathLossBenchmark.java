@@ -0,0 +1,78 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.PathLossModel;
+import com.raulprojects.ekfindoortracker.core.TietotaloFloorPlan;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSS-to-distance translation of one reading: precomputed table of PathLossModel, cubic
+ * polynomial by Horner's rule, and the Math.pow form Prefilter used before the tables.
+ * RSS values are the ones of benchmark scans.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathLossBenchmark {
+
+    private static final int NUMBER_RSS = 1024; // power of two
+
+    private PathLossModel model;
+    private double[] coefficients;
+    private int[] rss;
+    private int index;
+
+    @Setup
+    public void setup(){
+        model = BenchmarkScans.fitPathLossModel();
+        coefficients = model.getCoefficients();
+        rss = new int[NUMBER_RSS];
+        int i = 0;
+        for (List<WifiReading> scan : BenchmarkScans.createScans(NUMBER_RSS,
+                TietotaloFloorPlan.BSSIDS.length, BenchmarkScans.GEOMETRY_NEAREST)) {
+            for (WifiReading reading : scan) {
+                if (i == NUMBER_RSS)
+                    return;
+                rss[i++] = reading.level;
+            }
+        }
+    }
+
+    private int nextRSS(){
+        index = (index + 1) & (NUMBER_RSS - 1);
+        return rss[index];
+    }
+
+    @Benchmark
+    public double table(){
+        return model.getDistance(nextRSS());
+    }
+
+    @Benchmark
+    public double horner(){
+        return PathLossModel.evaluate(coefficients, nextRSS());
+    }
+
+    @Benchmark
+    public double pow(){
+        int RSS = nextRSS();
+        return coefficients[0] + coefficients[1]*RSS + coefficients[2]*Math.pow(RSS, 2)
+                + coefficients[3]*Math.pow(RSS, 3);
+    }
+}
@@ -0,0 +1,94 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.APAlgorithmData;
+import com.raulprojects.ekfindoortracker.core.Prefilter;
+import com.raulprojects.ekfindoortracker.core.StrongestAPSelector;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefilter stages of one scan: known-AP and duplicate-SSID filtering, top-K strongest APs and
+ * RSS-to-distance translation.
+ *
+ * Filtering modifies readings in place, so filterEverythingOut runs on a fresh copy of the
+ * scan; copyScan measures that copy alone, to be subtracted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrefilterBenchmark {
+
+    private static final int NUMBER_SCANS = 256; // power of two
+    private static final int K = 4;
+
+    @Param({"4", "8", "18"})
+    public int numberAPs;
+
+    @Param({BenchmarkScans.GEOMETRY_NEAREST, BenchmarkScans.GEOMETRY_SPREAD})
+    public String geometry;
+
+    private Prefilter filter;
+    private StrongestAPSelector selector;
+    private List<List<WifiReading>> scans;
+    private List<List<WifiReading>> filteredScans;
+    private List<WifiReading> copy;
+    private List<WifiReading> strongest;
+    private int index;
+
+    @Setup
+    public void setup(){
+        filter = new Prefilter(BenchmarkScans.createDataSource());
+        selector = new StrongestAPSelector(K);
+        scans = BenchmarkScans.createScans(NUMBER_SCANS, numberAPs, geometry);
+        filteredScans = new ArrayList<List<WifiReading>>(NUMBER_SCANS);
+        for (List<WifiReading> scan : scans)
+            filteredScans.add(filter.filterEverythingOut(BenchmarkScans.copy(scan,
+                    new ArrayList<WifiReading>())));
+        copy = new ArrayList<WifiReading>();
+        strongest = new ArrayList<WifiReading>(K);
+    }
+
+    private int nextIndex(){
+        index = (index + 1) & (NUMBER_SCANS - 1);
+        return index;
+    }
+
+    @Benchmark
+    public List<WifiReading> copyScan(){
+        return BenchmarkScans.copy(scans.get(nextIndex()), copy);
+    }
+
+    @Benchmark
+    public List<WifiReading> filterEverythingOut(){
+        return filter.filterEverythingOut(BenchmarkScans.copy(scans.get(nextIndex()), copy));
+    }
+
+    @Benchmark
+    public List<WifiReading> topK(){
+        return selector.select(filteredScans.get(nextIndex()), K, strongest);
+    }
+
+    @Benchmark
+    public List<APAlgorithmData> translatesRSStoDistance(){
+        return filter.translatesRSStoDistance(filteredScans.get(nextIndex()),
+                BenchmarkScans.ID_BSSID_AP_SELECTED);
+    }
+}
@@ -0,0 +1,114 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.DeviceScan;
+import com.raulprojects.ekfindoortracker.core.ShardedTracker;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for ShardedTracker. It replays synthetic scans of a set of static devices at a
+ * configurable rate and prints per-shard counters every second.
+ *
+ *      TrackerLoadGenerator [devices] [scans/s] [seconds] [shards] [APs per scan]
+ *      ./gradlew :benchmarks:loadTest -PloadArgs="10000 200000 10"
+ *
+ * Unlike the JMH benchmarks it measures the tracker as a whole at a given offered load:
+ * queueing, batching and rejections, not the time of one operation.
+ *
+ * Scan rate is paced on System.nanoTime(). When the tracker cannot keep up, shard queues fill
+ * up and scans are rejected, which shows in the counters.
+ */
+public class TrackerLoadGenerator {
+
+    private static final double MAP_WIDTH = 60;
+    private static final double MAP_HEIGHT = 150;
+    private static final double DISTANCE_NOISE = 2.0;
+
+    private final int numberDevices;
+    private final int numberAPs;
+    private final double[] deviceX, deviceY;
+    private final Random random = new Random(7);
+
+    public TrackerLoadGenerator(int numberDevices, int numberAPs){
+        this.numberDevices = numberDevices;
+        this.numberAPs = numberAPs;
+        deviceX = new double[numberDevices];
+        deviceY = new double[numberDevices];
+        for (int i = 0; i < numberDevices; i++) {
+            deviceX[i] = random.nextDouble() * MAP_WIDTH;
+            deviceY[i] = random.nextDouble() * MAP_HEIGHT;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int numberDevices = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int scansPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int numberShards = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+        int numberAPs = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        final AtomicLong estimates = new AtomicLong();
+        ShardedTracker tracker = new ShardedTracker(numberShards,
+                new ShardedTracker.EstimateListener() {
+                    @Override
+                    public void onEstimate(int deviceId, long timestamp, double x, double y,
+                                           double pXX, double pXY, double pYY) {
+                        estimates.incrementAndGet();
+                    }
+                });
+        tracker.start();
+
+        TrackerLoadGenerator generator = new TrackerLoadGenerator(numberDevices, numberAPs);
+        long submitted = generator.replay(tracker, scansPerSecond, seconds);
+        tracker.shutdown(5000);
+
+        System.out.print(tracker.getStatistics());
+        System.out.println("submitted=" + submitted + " estimates=" + estimates.get());
+    }
+
+    /**
+     * Submits scans at scansPerSecond during the given time, round robin over the devices.
+     * @return number of submitted scans, accepted or not
+     */
+    public long replay(ShardedTracker tracker, int scansPerSecond, int seconds)
+            throws InterruptedException {
+        long periodNanos = Math.max(1, 1000000000L / scansPerSecond);
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long nextReport = start + 1000000000L;
+        long submitted = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            // Submits every scan which is due by now
+            long due = (now - start) / periodNanos;
+            while (submitted < due) {
+                tracker.submit(nextScan((int) (submitted % numberDevices), now));
+                submitted++;
+            }
+            if (now >= nextReport) {
+                System.out.print(tracker.getStatistics());
+                nextReport += 1000000000L;
+            }
+            Thread.sleep(1);
+        }
+        return submitted;
+    }
+
+    /** Scan of one device against random APs, with gaussian noise on distances */
+    public DeviceScan nextScan(int deviceId, long timestamp){
+        double[] apX = new double[numberAPs];
+        double[] apY = new double[numberAPs];
+        double[] distance = new double[numberAPs];
+        double dx, dy;
+        for (int m = 0; m < numberAPs; m++) {
+            apX[m] = (int) (random.nextDouble() * MAP_WIDTH);
+            apY[m] = (int) (random.nextDouble() * MAP_HEIGHT);
+            dx = deviceX[deviceId] - apX[m];
+            dy = deviceY[deviceId] - apY[m];
+            distance[m] = Math.sqrt(dx*dx + dy*dy) + random.nextGaussian() * DISTANCE_NOISE;
+        }
+        return new DeviceScan(deviceId, timestamp, apX, apY, distance);
+    }
+}
@@ -0,0 +1,83 @@
+package com.raulprojects.ekfindoortracker.benchmarks;
+
+import com.raulprojects.ekfindoortracker.core.APAlgorithmData;
+import com.raulprojects.ekfindoortracker.core.FixPipeline;
+import com.raulprojects.ekfindoortracker.core.LSAlgorithm;
+import com.raulprojects.ekfindoortracker.core.PositionEstimate;
+import com.raulprojects.ekfindoortracker.core.Prefilter;
+import com.raulprojects.ekfindoortracker.core.StrongestAPSelector;
+import com.raulprojects.ekfindoortracker.core.WifiReading;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WCLS initial guess over the 4 strongest known APs of a scan, as FixPipeline does on its first
+ * fix. Scans with less than 4 known APs, or whose AP geometry makes WCLS throw, are left out
+ * of the inputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WCLSBenchmark {
+
+    private static final int NUMBER_SCANS = 256;
+
+    @Param({"4", "8", "18"})
+    public int numberAPs;
+
+    @Param({BenchmarkScans.GEOMETRY_NEAREST, BenchmarkScans.GEOMETRY_SPREAD})
+    public String geometry;
+
+    private LSAlgorithm algorithm;
+    private List<List<APAlgorithmData>> inputs;
+    private int index;
+
+    @Setup
+    public void setup(){
+        algorithm = new LSAlgorithm();
+        Prefilter filter = new Prefilter(BenchmarkScans.createDataSource());
+        StrongestAPSelector selector = new StrongestAPSelector(FixPipeline.STRONGEST_APS);
+        inputs = new ArrayList<List<APAlgorithmData>>(NUMBER_SCANS);
+        for (List<WifiReading> scan : BenchmarkScans.createScans(NUMBER_SCANS, numberAPs,
+                geometry)) {
+            List<WifiReading> filtered = filter.filterEverythingOut(scan);
+            if (filtered.size() < FixPipeline.MIN_APS_WCLS)
+                continue;
+            List<WifiReading> strongest = selector.select(filtered, FixPipeline.STRONGEST_APS,
+                    new ArrayList<WifiReading>());
+            List<APAlgorithmData> input = filter.translatesRSStoDistance(strongest,
+                    BenchmarkScans.ID_BSSID_AP_SELECTED);
+            try {
+                algorithm.applyWCLSAlgorithm(input);
+                inputs.add(input);
+            } catch (IllegalArgumentException e) {
+                // Singular geometry, not a timing of interest
+            }
+        }
+        if (inputs.isEmpty())
+            throw new IllegalStateException("No scan can be solved by WCLS");
+    }
+
+    @Benchmark
+    public PositionEstimate applyWCLSAlgorithm(){
+        index = (index + 1) % inputs.size();
+        return algorithm.applyWCLSAlgorithm(inputs.get(index));
+    }
+}
@@ -1,6 +1,4 @@
-package com.raulprojects.android.ekfindoortracker;
-
-import android.graphics.Point;
+package com.raulprojects.ekfindoortracker.core;
 
 /**
  * Algorithm data needed to face Least Square algorithm stage.
@@ -9,14 +7,15 @@ public class APAlgorithmData {
     public String bssid;
     public double distance;
     public int RSS;
-    public Point coordinatesAP;
+    public double apX, apY; // AP coordinates
 
 
-    public APAlgorithmData(String bssid, double distance, int RSS, Point coordinatesAP){
+    public APAlgorithmData(String bssid, double distance, int RSS, double apX, double apY){
         this.bssid = bssid;
         this.distance = distance;
         this.RSS = RSS;
-        this.coordinatesAP = coordinatesAP;
+        this.apX = apX;
+        this.apY = apY;
     }
 
 }
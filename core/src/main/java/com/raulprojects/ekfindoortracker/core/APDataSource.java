@@ -0,0 +1,16 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.Map;
+
+/**
+ * Known APs and their pathloss models, as needed by Prefilter. IndoorTrackerDatabaseHandler
+ * provides them from the database; replays and tools can provide fixed ones.
+ */
+public interface APDataSource {
+
+    /** @return registry of known APs */
+    APRegistry getAPRegistry();
+
+    /** @return unmodifiable map from AP id (id_bssid) to its PathLossModel */
+    Map<Integer, PathLossModel> getPathLossModels();
+}
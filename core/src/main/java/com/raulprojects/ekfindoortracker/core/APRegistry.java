@@ -0,0 +1,73 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory registry of the known APs of bssids table. It is loaded once by
+ * IndoorTrackerDatabaseHandler and kept until bssids table changes, so that filtering a scan
+ * and getting AP positions do not need any SQLite query.
+ *
+ * APs are indexed by their normalized BSSID, i.e. the BSSID without its last digit: TUT WLAN
+ * provides one BSSID per SSID for each AP, and they only differ in that digit.
+ *
+ * The registry is immutable, hence it can be shared by several threads.
+ */
+public class APRegistry {
+
+    private final Map<String, KnownAP> mAPsByName;
+    private final List<KnownAP> mAPs;
+
+    /**
+     * @param knownAPs APs in bssids table order. If two rows share the same name, the first one
+     *                 is kept, as getAPPositionDB() did.
+     */
+    public APRegistry(List<KnownAP> knownAPs){
+        Map<String, KnownAP> apsByName = new HashMap<String, KnownAP>(knownAPs.size() * 2);
+        List<KnownAP> aps = new ArrayList<KnownAP>(knownAPs.size());
+        for (KnownAP ap : knownAPs) {
+            if (!apsByName.containsKey(ap.name)) {
+                apsByName.put(ap.name, ap);
+                aps.add(ap);
+            }
+        }
+        mAPsByName = Collections.unmodifiableMap(apsByName);
+        mAPs = Collections.unmodifiableList(aps);
+    }
+
+    /**
+     * @param name common BSSID name (BSSID without last digit)
+     * @return known AP or null if it is not in bssids table
+     */
+    public KnownAP getAP(String name){
+        return mAPsByName.get(name);
+    }
+
+    /**
+     * @param scannedBssid full BSSID as given by WiFi scan results
+     * @return known AP or null if it is not in bssids table
+     */
+    public KnownAP findScannedAP(String scannedBssid){
+        return mAPsByName.get(normalizeBssid(scannedBssid));
+    }
+
+    /** @return known APs in bssids table order */
+    public List<KnownAP> getAPs(){
+        return mAPs;
+    }
+
+    public int size(){
+        return mAPsByName.size();
+    }
+
+    /** Removes last digit of BSSID */
+    public static String normalizeBssid(String bssid){
+        if (bssid.length() > 0) {
+            bssid = bssid.substring(0, bssid.length()-1);
+        }
+        return bssid;
+    }
+}
@@ -0,0 +1,28 @@
+package com.raulprojects.ekfindoortracker.core;
+
+/**
+ * One WiFi scan of one device, already translated to distances: AP coordinates and estimated
+ * distance to each AP. Used as input of ShardedTracker.
+ */
+public class DeviceScan {
+    public int deviceId;
+    public long timestamp;
+    public double[] apX, apY, distance;
+
+    public DeviceScan(int deviceId, long timestamp, double[] apX, double[] apY,
+                      double[] distance){
+        if (apX.length != apY.length || apX.length != distance.length)
+            throw new IllegalArgumentException("AP coordinates and distances differ in length");
+        if (distance.length == 0)
+            throw new IllegalArgumentException("At least one measurement is needed");
+        this.deviceId = deviceId;
+        this.timestamp = timestamp;
+        this.apX = apX;
+        this.apY = apY;
+        this.distance = distance;
+    }
+
+    public int getNumberMeasurements(){
+        return distance.length;
+    }
+}
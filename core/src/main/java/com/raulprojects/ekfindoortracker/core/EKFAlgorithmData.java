@@ -0,0 +1,396 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.LinearSolverFactory;
+import org.ejml.interfaces.linsol.LinearSolver;
+import org.ejml.ops.CommonOps;
+
+import java.util.List;
+
+import static org.ejml.ops.CommonOps.addEquals;
+import static org.ejml.ops.CommonOps.mult;
+import static org.ejml.ops.CommonOps.multTransA;
+import static org.ejml.ops.CommonOps.multTransB;
+import static org.ejml.ops.CommonOps.subtract;
+import static org.ejml.ops.CommonOps.subtractEquals;
+
+/**
+ * Algorithm class which estimates user position by applying Extended Kalman Filter with static
+ * mobile case.
+ *
+ *  For a more detailed explanation on how this algorithm has been derived and deployed,
+ *  please refer to MSc Thesis.
+ *
+ *  NOTE: A Java matrix library will be used to handle matrix operations in an efficient way.
+ *  EJML has been chosen because its good performance showed at Java Matrix Benchmark
+ *  (https://code.google.com/p/java-matrix-benchmark/)
+ *
+ *  Any number of measurements (1..N) can be used in each step. Workspaces grow to the largest
+ *  number of measurements seen so far and are reused afterwards.
+ *
+ *  Two kernels are available and selected at construction time:
+ *      + KERNEL_EJML: generic EJML matrix operations. It is the reference implementation.
+ *      + KERNEL_CLOSED_FORM: hand-unrolled 2-state kernel working on primitive doubles. The 4x4
+ *      S inversion is replaced by scalar sequential measurement updates, which give the same
+ *      result because R is diagonal and H is linearised once around the predicted state.
+ *
+ */
+public class EKFAlgorithmData {
+
+    public static final int KERNEL_EJML = 0;
+    public static final int KERNEL_CLOSED_FORM = 1;
+
+    // default process and measurement noise variances
+    public static final double DEFAULT_SIGMA_XY = 0.001;
+    public static final double DEFAULT_SIGMA_MEAS = 0.1;
+    private final int kernel;
+    private double sigmaXY;
+
+    // system state estimate
+    public DenseMatrix64F x,P;
+    private int dimenX = 2;
+
+    // kinematics description
+    private DenseMatrix64F F,H,Q,R;
+    private int dimenZ = 4;
+    private double sigma_meas;
+
+    private double [] computed_dist;
+
+    // these are predeclared for efficiency reasons
+    private DenseMatrix64F a,b;
+    private DenseMatrix64F y,z,S,S_inv,c,d;
+    private DenseMatrix64F K;
+    private DenseMatrix64F h_x;
+
+    private LinearSolver<DenseMatrix64F> solver;
+
+    /** Constructors */
+
+    public EKFAlgorithmData(double [] x, double [][] P){
+        this(x, P, KERNEL_EJML);
+    }
+    public EKFAlgorithmData(double [] x, double [][] P, int kernel){
+        this(new DenseMatrix64F(x.length, 1, false, x), new DenseMatrix64F(P), kernel);
+    }
+    public EKFAlgorithmData(DenseMatrix64F x, DenseMatrix64F P){
+        this(x, P, KERNEL_EJML);
+    }
+
+    /**
+     * Creates a long-lived filter. Workspaces, solver, F, Q and R are allocated here once and
+     * reused by every call to applyEKFStep(), so that a filtering step produces no garbage.
+     * @param x initial state mean (2x1)
+     * @param P initial state covariance (2x2)
+     * @param kernel KERNEL_EJML or KERNEL_CLOSED_FORM
+     */
+    public EKFAlgorithmData(DenseMatrix64F x, DenseMatrix64F P, int kernel){
+        this(x, P, kernel, DEFAULT_SIGMA_XY, DEFAULT_SIGMA_MEAS);
+    }
+
+    /**
+     * @param x initial state mean (2x1)
+     * @param P initial state covariance (2x2)
+     * @param kernel KERNEL_EJML or KERNEL_CLOSED_FORM
+     * @param sigmaXY process noise variance of x and y, diagonal of Q
+     * @param sigmaMeas measurement noise variance of every distance, diagonal of R
+     */
+    public EKFAlgorithmData(DenseMatrix64F x, DenseMatrix64F P, int kernel, double sigmaXY,
+                            double sigmaMeas){
+        if (kernel != KERNEL_EJML && kernel != KERNEL_CLOSED_FORM)
+            throw new IllegalArgumentException("Unknown EKF kernel: " + kernel);
+        if (sigmaXY < 0 || sigmaMeas <= 0)
+            throw new IllegalArgumentException("Noise variances must be positive");
+        this.kernel = kernel;
+        this.sigmaXY = sigmaXY;
+        this.sigma_meas = sigmaMeas;
+        this.x = x;
+        this.P = P;
+
+        creationPredeclaredVariables();
+
+        creationTransitionMatrix();
+
+        creationNoiseCovarianceMatrices();
+    }
+
+    /**
+     * Main method which applies prediction and correction stages over x and P in place.
+     * No object is allocated during this call unless the number of measurements is larger than
+     * in any previous step.
+     * @param algorithmInputDataList List of APAlgorithmData objects with the N AP data  (BSSID -
+     *                               estimated distance - RSS), N >= 1
+     */
+    public void applyEKFStep (List<APAlgorithmData> algorithmInputDataList){
+        if (algorithmInputDataList.isEmpty())
+            throw new IllegalArgumentException("At least one measurement is needed");
+
+        if (kernel == KERNEL_CLOSED_FORM) {
+            applyClosedFormStep(algorithmInputDataList);
+            return;
+        }
+
+        /** Resizing of workspaces, H and R to the number of measurements */
+        resizeMeasurementVariables(algorithmInputDataList.size());
+
+        /** Creation of H and measurement vector y */
+        creationJacobianMatrices(algorithmInputDataList);
+
+        /** Prediction step */
+        predict();
+
+        /** Update step */
+        update();
+    }
+
+    public int getKernel() {
+        return kernel;
+    }
+
+    public double getSigmaXY() {
+        return sigmaXY;
+    }
+
+    public double getSigmaMeas() {
+        return sigma_meas;
+    }
+
+    /**
+     * Changes Q and R from the next step on. State mean and covariance are kept.
+     * @param sigmaXY process noise variance of x and y, diagonal of Q
+     * @param sigmaMeas measurement noise variance of every distance, diagonal of R
+     */
+    public void setNoiseVariances(double sigmaXY, double sigmaMeas) {
+        if (sigmaXY < 0 || sigmaMeas <= 0)
+            throw new IllegalArgumentException("Noise variances must be positive");
+        this.sigmaXY = sigmaXY;
+        this.sigma_meas = sigmaMeas;
+        Q.set(0, 0, sigmaXY);
+        Q.set(1, 1, sigmaXY);
+        for (int i = 0; i < dimenZ; i++)
+            R.set(i, i, sigmaMeas);
+    }
+
+    /**
+     * Loads initialEstimates into this filter and applies one EKF step.
+     * @param algorithmInputDataList List of APAlgorithmData objects with the N AP data  (BSSID -
+     *                               estimated distance - RSS)
+     * @param initialEstimates Vector x and matrix P corresponding to the initial estimates of
+     *                         state mean and covariance.
+     * @return this filter, holding state mean and covariance estimated after EKF
+     */
+
+    public EKFAlgorithmData applyEKFAlgorithm ( List<APAlgorithmData> algorithmInputDataList,
+                                                EKFAlgorithmData initialEstimates){
+
+        /** A priori estimates x and P */
+        creationAPrioriEstimates(initialEstimates);
+
+        applyEKFStep(algorithmInputDataList);
+
+        return this;
+    }
+    private void creationAPrioriEstimates(EKFAlgorithmData initialEstimates) {
+        if (initialEstimates == this)
+            return;
+
+        // Initial mean x
+        x.set(initialEstimates.x);
+
+        // Initial covariance matrix P
+        P.set(initialEstimates.P);
+
+    }
+
+    private void creationPredeclaredVariables() {
+        a = new DenseMatrix64F(dimenX,1);
+        b = new DenseMatrix64F(dimenX,dimenX);
+        y = new DenseMatrix64F(dimenZ,1);
+        z = new DenseMatrix64F(dimenZ,1);
+
+        S = new DenseMatrix64F(dimenZ,dimenZ);
+        S_inv = new DenseMatrix64F(dimenZ,dimenZ);
+        c = new DenseMatrix64F(dimenZ,dimenX);
+        d = new DenseMatrix64F(dimenX,dimenZ);
+        K = new DenseMatrix64F(dimenX,dimenZ);
+
+        /* H, Jacobian of h */
+        H = new DenseMatrix64F(dimenZ, dimenX);
+
+        // covariance matrices are symmetric positive semi-definite
+        solver = LinearSolverFactory.symmPosDef(dimenZ);
+
+        // Computed distance between nominal point x and AP coordinates, h_x shares its storage
+        computed_dist = new double [dimenZ];
+        h_x = DenseMatrix64F.wrap(dimenZ, 1, computed_dist);
+    }
+
+    /**
+     * Reshapes every measurement-sized variable to numberMeasurements. Storage is only
+     * reallocated when numberMeasurements is larger than any previous one.
+     */
+    private void resizeMeasurementVariables(int numberMeasurements) {
+        if (numberMeasurements == dimenZ)
+            return;
+        dimenZ = numberMeasurements;
+
+        y.reshape(dimenZ, 1, false);
+        z.reshape(dimenZ, 1, false);
+        S.reshape(dimenZ, dimenZ, false);
+        S_inv.reshape(dimenZ, dimenZ, false);
+        c.reshape(dimenZ, dimenX, false);
+        d.reshape(dimenX, dimenZ, false);
+        K.reshape(dimenX, dimenZ, false);
+        H.reshape(dimenZ, dimenX, false);
+
+        if (computed_dist.length < dimenZ) {
+            computed_dist = new double [dimenZ];
+            h_x = DenseMatrix64F.wrap(dimenZ, 1, computed_dist);
+        } else {
+            h_x.reshape(dimenZ, 1, false);
+        }
+
+        R.reshape(dimenZ, dimenZ, false);
+        R.zero();
+        for (int i = 0; i < dimenZ; i++)
+            R.set(i, i, sigma_meas);
+    }
+
+    private void creationTransitionMatrix() {
+        /* F, Jacobian of f */
+        F = CommonOps.identity(dimenX);
+    }
+
+    private void creationJacobianMatrices(List<APAlgorithmData> algorithmInputDataList) {
+        int i;
+        double dx, dy;
+        APAlgorithmData apData;
+
+        // Filling computed distance vector, matrix H and measured distance vector y
+        for (i = 0; i < dimenZ; i++){
+            apData = algorithmInputDataList.get(i);
+            dx = x.get(0) - apData.apX;
+            dy = x.get(1) - apData.apY;
+            computed_dist[i] = Math.sqrt(dx*dx + dy*dy);
+
+            H.set(i, 0, dx/computed_dist[i]);
+            H.set(i, 1, dy/computed_dist[i]);
+
+            y.set(i, 0, apData.distance);
+        }
+    }
+
+    private void creationNoiseCovarianceMatrices() {
+        // Q, process noise covariance matrix
+        double[] sigma_xy = new double[]{sigmaXY, sigmaXY};
+        Q = CommonOps.diag(sigma_xy);
+
+        // R, measurement noise covariance matrix, same variance for every measurement
+        // R0 = 0.1 seems fine, = 1, not that good, try lower
+        R = new DenseMatrix64F(dimenZ, dimenZ);
+        for (int i = 0; i < dimenZ; i++)
+            R.set(i, i, sigma_meas);
+    }
+
+    /**
+     * Closed-form kernel for the 2D static mobile model. F = I, so prediction only adds Q to the
+     * diagonal of P. Each measurement is then applied as a scalar update, so cost grows linearly
+     * with the number of measurements and no inversion is needed. H and h(x) are
+     * linearised around the predicted state:
+     *
+     *      z_i = y_i - h_i(x-) - H_i (x - x-)
+     *      s_i = H_i P H_i' + R_ii
+     *      k_i = P H_i' / s_i
+     *      x = x + k_i z_i
+     *      P = P - k_i (H_i P)
+     */
+    private void applyClosedFormStep(List<APAlgorithmData> algorithmInputDataList){
+        double[] xd = x.data;
+        double[] Pd = P.data;
+
+        /** Prediction step */
+        double x0 = xd[0];
+        double x1 = xd[1];
+        double p00 = Pd[0] + Q.data[0];
+        double p01 = Pd[1];
+        double p11 = Pd[3] + Q.data[3];
+
+        /** Update step */
+        double xe0 = x0, xe1 = x1;
+        double dx, dy, dist, hx, hy, ph0, ph1, s, k0, k1, innovation;
+        APAlgorithmData apData;
+        int numberMeasurements = algorithmInputDataList.size();
+        for (int i = 0; i < numberMeasurements; i++){
+            apData = algorithmInputDataList.get(i);
+            dx = x0 - apData.apX;
+            dy = x1 - apData.apY;
+            dist = Math.sqrt(dx*dx + dy*dy);
+            hx = dx/dist;
+            hy = dy/dist;
+
+            // P H_i'
+            ph0 = p00*hx + p01*hy;
+            ph1 = p01*hx + p11*hy;
+            s = hx*ph0 + hy*ph1 + sigma_meas;
+            k0 = ph0/s;
+            k1 = ph1/s;
+
+            innovation = apData.distance - dist - (hx*(xe0 - x0) + hy*(xe1 - x1));
+            xe0 += k0*innovation;
+            xe1 += k1*innovation;
+
+            p00 -= k0*ph0;
+            p01 -= k0*ph1;
+            p11 -= k1*ph1;
+        }
+
+        xd[0] = xe0;
+        xd[1] = xe1;
+        Pd[0] = p00;
+        Pd[1] = p01;
+        Pd[2] = p01;
+        Pd[3] = p11;
+    }
+
+    private void predict(){
+        // x = F x
+        mult(F,x,a);
+        x.set(a);
+
+        // P = F P F' + Q
+        mult(F,P,b);
+        multTransB(b,F, P);
+        addEquals(P,Q);
+    }
+
+    private void update(){
+        // S = H P H' + R
+        mult(H,P,c);
+        multTransB(c,H,S);
+        addEquals(S,R);
+
+
+        // K = PH'S^(-1)
+        if( !solver.setA(S) ) throw new RuntimeException("Invert failed");
+        solver.invert(S_inv);
+        multTransA(H,S_inv,d);
+        mult(P,d,K);
+
+        /*
+         *  z = y - h_x
+         *      with y being a vector with measured distances using sensor between APs and MS
+         *      h_x being a vector with computed distances using nominal point between APs and MS
+         */
+        subtract(y, h_x, z);
+
+        // x = x + Kz
+        mult(K,z,a);
+        addEquals(x,a);
+
+        // P = (I-kH)P = P - (KH)P = P-K(HP)
+        mult(H,P,c);
+        mult(K,c,b);
+        subtractEquals(P, b);
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.Arrays;
+
+/**
+ * Batch of scan updates consumed by EKFBatchEngine. Each record holds one device ID and its
+ * measurements (AP coordinates and estimated distance). Records and measurements are stored in
+ * contiguous primitive arrays, so a batch can be refilled over and over without allocating.
+ *
+ * Updated estimates are written back by EKFBatchEngine into the estimate arrays, one entry per
+ * record.
+ *
+ *      batch.clear();
+ *      batch.beginRecord(deviceId);
+ *      batch.addMeasurement(apX, apY, distance);
+ *      ...
+ *      engine.applyBatch(batch);
+ *      batch.estimateX[record], batch.estimateY[record]
+ */
+public class EKFBatch {
+
+    // records
+    public int numberRecords;
+    public int[] deviceIds;
+    // measurements of record r are in [measurementStart[r], measurementStart[r+1])
+    public int[] measurementStart;
+
+    // measurements
+    public int numberMeasurements;
+    public double[] apX, apY, distance;
+
+    // updated estimates, written by EKFBatchEngine
+    public double[] estimateX, estimateY;
+    public double[] covarianceXX, covarianceXY, covarianceYY;
+
+    public EKFBatch(int expectedRecords, int expectedMeasurementsPerRecord){
+        int recordCapacity = Math.max(1, expectedRecords);
+        int measurementCapacity = Math.max(1, expectedRecords * expectedMeasurementsPerRecord);
+
+        deviceIds = new int[recordCapacity];
+        measurementStart = new int[recordCapacity + 1];
+        estimateX = new double[recordCapacity];
+        estimateY = new double[recordCapacity];
+        covarianceXX = new double[recordCapacity];
+        covarianceXY = new double[recordCapacity];
+        covarianceYY = new double[recordCapacity];
+
+        apX = new double[measurementCapacity];
+        apY = new double[measurementCapacity];
+        distance = new double[measurementCapacity];
+    }
+
+    /** Empties the batch keeping its storage */
+    public void clear(){
+        numberRecords = 0;
+        numberMeasurements = 0;
+        measurementStart[0] = 0;
+    }
+
+    /**
+     * Starts a new record. Measurements added afterwards belong to this device until the next
+     * call to beginRecord().
+     * @param deviceId device identification number
+     */
+    public void beginRecord(int deviceId){
+        if (numberRecords == deviceIds.length)
+            growRecords();
+        deviceIds[numberRecords] = deviceId;
+        numberRecords++;
+        measurementStart[numberRecords] = numberMeasurements;
+    }
+
+    /**
+     * Adds one measurement to the current record.
+     * @param x AP x coordinate
+     * @param y AP y coordinate
+     * @param estimatedDistance distance estimated from RSS by using pathloss model
+     */
+    public void addMeasurement(double x, double y, double estimatedDistance){
+        if (numberRecords == 0)
+            throw new IllegalStateException("beginRecord() must be called first");
+        if (numberMeasurements == apX.length)
+            growMeasurements();
+        apX[numberMeasurements] = x;
+        apY[numberMeasurements] = y;
+        distance[numberMeasurements] = estimatedDistance;
+        numberMeasurements++;
+        measurementStart[numberRecords] = numberMeasurements;
+    }
+
+    private void growRecords(){
+        int capacity = deviceIds.length * 2;
+        deviceIds = Arrays.copyOf(deviceIds, capacity);
+        measurementStart = Arrays.copyOf(measurementStart, capacity + 1);
+        estimateX = Arrays.copyOf(estimateX, capacity);
+        estimateY = Arrays.copyOf(estimateY, capacity);
+        covarianceXX = Arrays.copyOf(covarianceXX, capacity);
+        covarianceXY = Arrays.copyOf(covarianceXY, capacity);
+        covarianceYY = Arrays.copyOf(covarianceYY, capacity);
+    }
+
+    private void growMeasurements(){
+        int capacity = apX.length * 2;
+        apX = Arrays.copyOf(apX, capacity);
+        apY = Arrays.copyOf(apY, capacity);
+        distance = Arrays.copyOf(distance, capacity);
+    }
+}
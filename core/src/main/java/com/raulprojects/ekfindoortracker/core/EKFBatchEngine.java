@@ -0,0 +1,259 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.Arrays;
+
+/**
+ * Batch Extended Kalman Filter engine which tracks many static mobiles at once, e.g. every
+ * device of a building on a server.
+ *
+ * Instead of one EKFAlgorithmData object graph per device, every device state is stored in
+ * primitive structure-of-arrays buffers indexed by device slot:
+ *
+ *      x = [stateX[slot]; stateY[slot]]
+ *      P = [covXX[slot] covXY[slot];
+ *           covXY[slot] covYY[slot]]
+ *
+ * applyBatch() advances a whole EKFBatch in one loop over contiguous memory. The math is the
+ * same as EKFAlgorithmData.KERNEL_CLOSED_FORM: F = I, diagonal Q and R, and scalar sequential
+ * measurement updates linearised around the predicted state.
+ *
+ * This class is not thread-safe: a single thread must own an engine.
+ */
+public class EKFBatchEngine {
+
+    private static final int EMPTY_SLOT = -1;
+
+    // device states, indexed by slot
+    private int numberDevices;
+    private int[] slotDeviceIds;
+    private double[] stateX, stateY;
+    private double[] covXX, covXY, covYY;
+
+    // open addressing hash table: deviceId -> slot
+    private int[] tableKeys;
+    private int[] tableSlots;
+    private int tableMask;
+
+    // slots resolved for the batch being applied
+    private int[] batchSlots;
+
+    // process and measurement noise variances
+    private final double sigma_xy;
+    private final double sigma_meas;
+
+    public EKFBatchEngine(int expectedDevices){
+        this(expectedDevices, EKFAlgorithmData.DEFAULT_SIGMA_XY,
+                EKFAlgorithmData.DEFAULT_SIGMA_MEAS);
+    }
+
+    public EKFBatchEngine(int expectedDevices, double sigma_xy, double sigma_meas){
+        this.sigma_xy = sigma_xy;
+        this.sigma_meas = sigma_meas;
+
+        int capacity = Math.max(1, expectedDevices);
+        slotDeviceIds = new int[capacity];
+        stateX = new double[capacity];
+        stateY = new double[capacity];
+        covXX = new double[capacity];
+        covXY = new double[capacity];
+        covYY = new double[capacity];
+        batchSlots = new int[capacity];
+
+        createTable(tableCapacityFor(capacity));
+    }
+
+    /**
+     * Registers a device with its initial estimates (e.g. from WCLS algorithm). If the device is
+     * already tracked, its state is reset.
+     * @param deviceId device identification number
+     * @param x initial state mean [x; y]
+     * @param P initial state covariance (2x2, symmetric)
+     */
+    public void addDevice(int deviceId, double[] x, double[][] P){
+        int slot = findSlot(deviceId);
+        if (slot == EMPTY_SLOT) {
+            if (numberDevices == slotDeviceIds.length)
+                growDevices();
+            slot = numberDevices++;
+            slotDeviceIds[slot] = deviceId;
+            insertInTable(deviceId, slot);
+        }
+        stateX[slot] = x[0];
+        stateY[slot] = x[1];
+        covXX[slot] = P[0][0];
+        covXY[slot] = P[0][1];
+        covYY[slot] = P[1][1];
+    }
+
+    public boolean containsDevice(int deviceId){
+        return findSlot(deviceId) != EMPTY_SLOT;
+    }
+
+    public int getNumberDevices(){
+        return numberDevices;
+    }
+
+    /**
+     * Copies the current estimates of a device.
+     * @param deviceId device identification number
+     * @param estimate output array [x, y, Pxx, Pxy, Pyy]
+     */
+    public void getEstimate(int deviceId, double[] estimate){
+        int slot = findSlot(deviceId);
+        if (slot == EMPTY_SLOT)
+            throw new IllegalArgumentException("Unknown device: " + deviceId);
+        estimate[0] = stateX[slot];
+        estimate[1] = stateY[slot];
+        estimate[2] = covXX[slot];
+        estimate[3] = covXY[slot];
+        estimate[4] = covYY[slot];
+    }
+
+    /**
+     * Applies prediction and correction stages to every record of the batch and writes the
+     * updated estimates into its estimate arrays. Every device in the batch must have been
+     * registered with addDevice(). No object is allocated unless the batch is larger than any
+     * previous one.
+     * @param batch records (deviceId, measurements)
+     */
+    public void applyBatch(EKFBatch batch){
+        int numberRecords = batch.numberRecords;
+        if (batchSlots.length < numberRecords)
+            batchSlots = new int[batch.deviceIds.length];
+
+        /* Resolves device slots first, so the filtering loop only touches primitive arrays */
+        int slot;
+        for (int r = 0; r < numberRecords; r++) {
+            slot = findSlot(batch.deviceIds[r]);
+            if (slot == EMPTY_SLOT)
+                throw new IllegalArgumentException("Unknown device: " + batch.deviceIds[r]);
+            batchSlots[r] = slot;
+        }
+
+        final int[] measurementStart = batch.measurementStart;
+        final double[] apX = batch.apX, apY = batch.apY, distance = batch.distance;
+        final double q = sigma_xy, rMeas = sigma_meas;
+
+        double x0, x1, xe0, xe1, p00, p01, p11;
+        double dx, dy, dist, hx, hy, ph0, ph1, s, k0, k1, innovation;
+        for (int r = 0; r < numberRecords; r++) {
+            slot = batchSlots[r];
+
+            /** Prediction step: x = x, P = P + Q */
+            x0 = stateX[slot];
+            x1 = stateY[slot];
+            p00 = covXX[slot] + q;
+            p01 = covXY[slot];
+            p11 = covYY[slot] + q;
+
+            /** Update step: one scalar update per measurement */
+            xe0 = x0;
+            xe1 = x1;
+            for (int m = measurementStart[r]; m < measurementStart[r + 1]; m++) {
+                dx = x0 - apX[m];
+                dy = x1 - apY[m];
+                dist = Math.sqrt(dx*dx + dy*dy);
+                hx = dx/dist;
+                hy = dy/dist;
+
+                ph0 = p00*hx + p01*hy;
+                ph1 = p01*hx + p11*hy;
+                s = hx*ph0 + hy*ph1 + rMeas;
+                k0 = ph0/s;
+                k1 = ph1/s;
+
+                innovation = distance[m] - dist - (hx*(xe0 - x0) + hy*(xe1 - x1));
+                xe0 += k0*innovation;
+                xe1 += k1*innovation;
+
+                p00 -= k0*ph0;
+                p01 -= k0*ph1;
+                p11 -= k1*ph1;
+            }
+
+            stateX[slot] = xe0;
+            stateY[slot] = xe1;
+            covXX[slot] = p00;
+            covXY[slot] = p01;
+            covYY[slot] = p11;
+
+            batch.estimateX[r] = xe0;
+            batch.estimateY[r] = xe1;
+            batch.covarianceXX[r] = p00;
+            batch.covarianceXY[r] = p01;
+            batch.covarianceYY[r] = p11;
+        }
+    }
+
+    /** HASH TABLE: deviceId -> slot, linear probing */
+
+    private int findSlot(int deviceId){
+        int i = hash(deviceId) & tableMask;
+        while (tableSlots[i] != EMPTY_SLOT) {
+            if (tableKeys[i] == deviceId)
+                return tableSlots[i];
+            i = (i + 1) & tableMask;
+        }
+        return EMPTY_SLOT;
+    }
+
+    private void insertInTable(int deviceId, int slot){
+        if (numberDevices * 2 > tableSlots.length) {
+            // rehash() also inserts this device, since it is already stored in its slot
+            rehash(tableSlots.length * 2);
+            return;
+        }
+        int i = hash(deviceId) & tableMask;
+        while (tableSlots[i] != EMPTY_SLOT)
+            i = (i + 1) & tableMask;
+        tableKeys[i] = deviceId;
+        tableSlots[i] = slot;
+    }
+
+    private void rehash(int capacity){
+        createTable(capacity);
+        int i;
+        for (int slot = 0; slot < numberDevices; slot++) {
+            i = hash(slotDeviceIds[slot]) & tableMask;
+            while (tableSlots[i] != EMPTY_SLOT)
+                i = (i + 1) & tableMask;
+            tableKeys[i] = slotDeviceIds[slot];
+            tableSlots[i] = slot;
+        }
+    }
+
+    private void createTable(int capacity){
+        tableKeys = new int[capacity];
+        tableSlots = new int[capacity];
+        Arrays.fill(tableSlots, EMPTY_SLOT);
+        tableMask = capacity - 1;
+    }
+
+    private static int tableCapacityFor(int numberDevices){
+        int capacity = 2;
+        while (capacity < numberDevices * 2)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static int hash(int deviceId){
+        // Spreads consecutive IDs over the table (murmur3 finalizer)
+        int h = deviceId;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private void growDevices(){
+        int capacity = slotDeviceIds.length * 2;
+        slotDeviceIds = Arrays.copyOf(slotDeviceIds, capacity);
+        stateX = Arrays.copyOf(stateX, capacity);
+        stateY = Arrays.copyOf(stateY, capacity);
+        covXX = Arrays.copyOf(covXX, capacity);
+        covXY = Arrays.copyOf(covXY, capacity);
+        covYY = Arrays.copyOf(covYY, capacity);
+    }
+}
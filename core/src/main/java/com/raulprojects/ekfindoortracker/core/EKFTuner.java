@@ -0,0 +1,207 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunes the EKF noise parameters over labeled scan traces: process noise Q (sigmaXY),
+ * measurement noise R (sigmaMeas) and initial covariance P0/0 (initialVariance).
+ *
+ * The search runs in log10 space, since sensible values span several orders of magnitude:
+ *      1. Coarse grid: GRID_POINTS values of each parameter over its range, every combination.
+ *      2. Local refinement: pattern search from the best grid point. The 6 neighbours at
+ *      +-step along each parameter, within the ranges, are evaluated; the best one is taken
+ *      if it improves, otherwise the steps are halved, until every one is below MIN_STEP.
+ *      Each parameter starts at half its own grid spacing, since ranges differ.
+ *
+ * The score of a configuration is its RMSE over every trace, and every batch of candidates is
+ * evaluated with EstimatorEvaluation, i.e. in parallel over every core. The best configuration
+ * is written as a properties file, which is also a valid TrackerConfiguration: the tracker
+ * loads it at startup, or when it changes, from its configuration file.
+ *
+ *      EKFTuner <output file> [scans] [devices] [seed]
+ *
+ * tunes over ScenarioGenerator traces, and
+ *
+ *      EKFTuner <output file> -log <scan log> <ground truth> [a b c d]
+ *
+ * over a recorded trace, with the seeded Tietotalo APs as ScanReplay does: one trace per
+ * session of the log, labeled by its ground truth file, see
+ * EstimatorEvaluation.readLabeledTraces(). a b c d is the pathloss model of AP 3, the default
+ * model of every AP.
+ */
+public class EKFTuner {
+
+    public static final int GRID_POINTS = 5;
+    public static final double MIN_STEP = 0.05; // in decades
+    public static final int MAX_REFINEMENTS = 50;
+
+    // Search ranges in decades: [10^min, 10^max]
+    private static final double[] MIN_LOG = {-4, -2, 0};   // sigmaXY, sigmaMeas, initialVariance
+    private static final double[] MAX_LOG = {1, 2, 3};
+
+    private final EstimatorEvaluation mEvaluation;
+    private final List<List<LabeledScan>> mTraces;
+    private final int mKernel;
+    private int mEvaluations;
+
+    /**
+     * @param evaluation evaluation the candidates are run with
+     * @param traces labeled scans of one device each, in time order
+     * @param kernel EKF kernel of every candidate
+     */
+    public EKFTuner(EstimatorEvaluation evaluation, List<List<LabeledScan>> traces, int kernel){
+        mEvaluation = evaluation;
+        mTraces = traces;
+        mKernel = kernel;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean isRecorded = args.length > 1 && "-log".equals(args[1]);
+        if (args.length < 1 || (isRecorded && args.length < 4)) {
+            System.err.println("Usage: EKFTuner <output file> [scans] [devices] [seed]");
+            System.err.println("       EKFTuner <output file> -log <scan log> <ground truth>"
+                    + " [a b c d]");
+            System.exit(1);
+        }
+
+        List<List<LabeledScan>> traces;
+        APDataSource apDataSource;
+        int idBssidApSelected;
+        if (isRecorded) {
+            traces = EstimatorEvaluation.readLabeledTraces(new File(args[2]),
+                    new File(args[3]));
+            Map<Integer, PathLossModel> models = new HashMap<Integer, PathLossModel>();
+            if (args.length > 7) {
+                double[] coefficients = new double[4];
+                for (int i = 0; i < 4; i++)
+                    coefficients[i] = Double.parseDouble(args[4 + i]);
+                models.put(ScanReplay.DEFAULT_ID_BSSID_AP_SELECTED,
+                        new PathLossModel(coefficients));
+            }
+            apDataSource = TietotaloFloorPlan.createDataSource(models);
+            idBssidApSelected = ScanReplay.DEFAULT_ID_BSSID_AP_SELECTED;
+        } else {
+            long numberScans = args.length > 1 ? Long.parseLong(args[1]) : 10000;
+            int numberDevices = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+            ScenarioGenerator generator = ScenarioGenerator.createTietotalo(seed);
+            generator.setNumberDevices(numberDevices);
+            traces = EstimatorEvaluation.splitByDevice(generator.scans(numberScans));
+            apDataSource = ScenarioGenerator.createTietotaloDataSource();
+            idBssidApSelected = ScenarioGenerator.DEFAULT_ID_BSSID_AP_SELECTED;
+        }
+        if (traces.isEmpty()) {
+            System.err.println("No labeled scans");
+            System.exit(1);
+        }
+
+        EstimatorEvaluation evaluation = new EstimatorEvaluation(apDataSource,
+                idBssidApSelected, Runtime.getRuntime().availableProcessors());
+        try {
+            EKFTuner tuner = new EKFTuner(evaluation, traces,
+                    EKFAlgorithmData.KERNEL_CLOSED_FORM);
+            EstimatorEvaluation.Result best = tuner.tune();
+            String summary = String.format("rmse=%.3f cep50=%.3f cep95=%.3f over %d fixes, "
+                            + "%d evaluations", best.getRMSE(), best.getCEP(50), best.getCEP(95),
+                    best.getFixes(), tuner.getEvaluations());
+            best.configuration.store(new File(args[0]), "EKFTuner: " + summary);
+            System.out.println(best.configuration.name + ": " + summary);
+        } finally {
+            evaluation.shutdown();
+        }
+    }
+
+    /** @return best configuration found and its evaluation */
+    public EstimatorEvaluation.Result tune(){
+        /* Coarse grid */
+        List<EstimatorConfiguration> candidates = new ArrayList<EstimatorConfiguration>();
+        double[] point = new double[3];
+        for (int i = 0; i < GRID_POINTS; i++) {
+            for (int j = 0; j < GRID_POINTS; j++) {
+                for (int k = 0; k < GRID_POINTS; k++) {
+                    point[0] = gridValue(0, i);
+                    point[1] = gridValue(1, j);
+                    point[2] = gridValue(2, k);
+                    candidates.add(createConfiguration(point));
+                }
+            }
+        }
+        EstimatorEvaluation.Result best = evaluateBest(candidates, null);
+
+        /* Local refinement around the best grid point */
+        double[] bestPoint = toLogPoint(best.configuration);
+        double[] step = new double[3];
+        for (int p = 0; p < 3; p++)
+            step[p] = (MAX_LOG[p] - MIN_LOG[p]) / (GRID_POINTS - 1) / 2;
+        for (int r = 0; r < MAX_REFINEMENTS && isAboveMinStep(step); r++) {
+            candidates.clear();
+            for (int p = 0; p < 3; p++) {
+                for (int sign = -1; sign <= 1; sign += 2) {
+                    point = bestPoint.clone();
+                    // Neighbours stay within the search range
+                    point[p] = Math.max(MIN_LOG[p], Math.min(MAX_LOG[p],
+                            point[p] + sign * step[p]));
+                    if (point[p] != bestPoint[p])
+                        candidates.add(createConfiguration(point));
+                }
+            }
+            EstimatorEvaluation.Result candidate = evaluateBest(candidates, best);
+            if (candidate != best) {
+                best = candidate;
+                bestPoint = toLogPoint(best.configuration);
+            } else {
+                for (int p = 0; p < 3; p++)
+                    step[p] /= 2;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isAboveMinStep(double[] step){
+        for (double s : step) {
+            if (s >= MIN_STEP)
+                return true;
+        }
+        return false;
+    }
+
+    /** @return number of configurations evaluated by tune() so far */
+    public int getEvaluations(){
+        return mEvaluations;
+    }
+
+    /* Best of the candidates and the current best, which is not evaluated again */
+    private EstimatorEvaluation.Result evaluateBest(List<EstimatorConfiguration> candidates,
+                                                    EstimatorEvaluation.Result best){
+        mEvaluations += candidates.size();
+        for (EstimatorEvaluation.Result result : mEvaluation.evaluate(candidates, mTraces)) {
+            if (result.getFixes() == 0)
+                continue;
+            if (best == null || result.getRMSE() < best.getRMSE())
+                best = result;
+        }
+        if (best == null)
+            throw new IllegalStateException("No configuration gives any fix");
+        return best;
+    }
+
+    private static double gridValue(int parameter, int index){
+        return MIN_LOG[parameter] + index * (MAX_LOG[parameter] - MIN_LOG[parameter])
+                / (GRID_POINTS - 1);
+    }
+
+    private EstimatorConfiguration createConfiguration(double[] logPoint){
+        return EstimatorConfiguration.ekf(mKernel, Math.pow(10, logPoint[0]),
+                Math.pow(10, logPoint[1]), Math.pow(10, logPoint[2]));
+    }
+
+    private static double[] toLogPoint(EstimatorConfiguration configuration){
+        return new double[]{Math.log10(configuration.sigmaXY),
+                Math.log10(configuration.sigmaMeas), Math.log10(configuration.initialVariance)};
+    }
+}
@@ -0,0 +1,260 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Estimator run by FixPipeline on each scan, and its parameters:
+ *      + MODE_WCLS: WCLS with the K strongest APs on every scan, no filtering.
+ *      + MODE_WCLS_EKF: WCLS initial guess on the first scan, then one EKF step per scan with
+ *      every known AP. It is what the tracker runs.
+ *      + MODE_NLS: WCLS initial guess on the first scan, then Levenberg-Marquardt nonlinear
+ *      least squares with every known AP, started from the last fix, on every scan.
+ *      + MODE_RANSAC: RANSAC over subsets of every known AP on every scan, refined with its
+ *      inliers. It is robust to wrong ranges, and needs no previous fix.
+ *
+ * The WCLS estimate uses either the K strongest APs with LSAlgorithm, or WCLSSolver if K > 4
+ * (WCLS_STRONGEST), every known AP with WCLSSolver (WCLS_ALL_APS), or the 4 APs of lowest GDOP
+ * around the last fix among the K + 2 strongest ones with LSAlgorithm (WCLS_GDOP).
+ *
+ * EKF parameters are the kernel, the diagonals of Q (sigmaXY) and R (sigmaMeas) and the
+ * diagonal of the initial covariance P0/0 (initialVariance). Only MODE_WCLS_EKF uses them.
+ *
+ * Configurations are immutable. They can be stored to and loaded from a properties file, e.g.
+ * the one written by EKFTuner, which is also a valid TrackerConfiguration file:
+ *
+ *      name=ekf Q=0.1 R=1.0 P0=10.0
+ *      mode=1
+ *      wcls=0
+ *      kernel=1
+ *      sigma_xy=0.1
+ *      sigma_meas=1.0
+ *      initial_variance=10.0
+ *
+ * Missing keys take the value of DEFAULT.
+ */
+public class EstimatorConfiguration {
+
+    public static final int MODE_WCLS = 0;
+    public static final int MODE_WCLS_EKF = 1;
+    public static final int MODE_NLS = 2;
+    public static final int MODE_RANSAC = 3;
+
+    public static final int WCLS_STRONGEST = 0;
+    public static final int WCLS_ALL_APS = 1;
+    public static final int WCLS_GDOP = 2;
+
+    public static final String KEY_NAME = "name";
+    public static final String KEY_MODE = "mode";
+    public static final String KEY_WCLS = "wcls";
+    public static final String KEY_KERNEL = "kernel";
+    public static final String KEY_SIGMA_XY = "sigma_xy";
+    public static final String KEY_SIGMA_MEAS = "sigma_meas";
+    public static final String KEY_INITIAL_VARIANCE = "initial_variance";
+
+    /** Configuration of the tracker */
+    public static final EstimatorConfiguration DEFAULT = new EstimatorConfiguration("wcls+ekf",
+            MODE_WCLS_EKF, EKFAlgorithmData.KERNEL_CLOSED_FORM,
+            EKFAlgorithmData.DEFAULT_SIGMA_XY, EKFAlgorithmData.DEFAULT_SIGMA_MEAS,
+            FixPipeline.INITIAL_VARIANCE);
+
+    public final String name;
+    public final int mode;
+    public final int wcls;
+    public final int kernel;
+    public final double sigmaXY;
+    public final double sigmaMeas;
+    public final double initialVariance;
+
+    public EstimatorConfiguration(String name, int mode, int kernel, double sigmaXY,
+                                  double sigmaMeas, double initialVariance){
+        this(name, mode, WCLS_STRONGEST, kernel, sigmaXY, sigmaMeas, initialVariance);
+    }
+
+    public EstimatorConfiguration(String name, int mode, int wcls, int kernel, double sigmaXY,
+                                  double sigmaMeas, double initialVariance){
+        if (mode < MODE_WCLS || mode > MODE_RANSAC)
+            throw new IllegalArgumentException("Unknown estimator mode: " + mode);
+        if (wcls < WCLS_STRONGEST || wcls > WCLS_GDOP)
+            throw new IllegalArgumentException("Unknown WCLS solver: " + wcls);
+        if (kernel != EKFAlgorithmData.KERNEL_EJML
+                && kernel != EKFAlgorithmData.KERNEL_CLOSED_FORM)
+            throw new IllegalArgumentException("Unknown EKF kernel: " + kernel);
+        if (sigmaXY < 0 || sigmaMeas <= 0 || initialVariance <= 0)
+            throw new IllegalArgumentException("Noise variances must be positive");
+        this.name = name;
+        this.mode = mode;
+        this.wcls = wcls;
+        this.kernel = kernel;
+        this.sigmaXY = sigmaXY;
+        this.sigmaMeas = sigmaMeas;
+        this.initialVariance = initialVariance;
+    }
+
+    /** @return WCLS on every scan */
+    public static EstimatorConfiguration wcls(){
+        return new EstimatorConfiguration("wcls", MODE_WCLS, EKFAlgorithmData.KERNEL_CLOSED_FORM,
+                EKFAlgorithmData.DEFAULT_SIGMA_XY, EKFAlgorithmData.DEFAULT_SIGMA_MEAS,
+                FixPipeline.INITIAL_VARIANCE);
+    }
+
+    /** @return WCLS with every known AP on every scan */
+    public static EstimatorConfiguration wclsAllAPs(){
+        return new EstimatorConfiguration("wcls all", MODE_WCLS, WCLS_ALL_APS,
+                EKFAlgorithmData.KERNEL_CLOSED_FORM, EKFAlgorithmData.DEFAULT_SIGMA_XY,
+                EKFAlgorithmData.DEFAULT_SIGMA_MEAS, FixPipeline.INITIAL_VARIANCE);
+    }
+
+    /** @return WCLS with the APs of lowest GDOP on every scan */
+    public static EstimatorConfiguration wclsGDOP(){
+        return new EstimatorConfiguration("wcls gdop", MODE_WCLS, WCLS_GDOP,
+                EKFAlgorithmData.KERNEL_CLOSED_FORM, EKFAlgorithmData.DEFAULT_SIGMA_XY,
+                EKFAlgorithmData.DEFAULT_SIGMA_MEAS, FixPipeline.INITIAL_VARIANCE);
+    }
+
+    /** @return WCLS initial guess, then nonlinear least squares from the last fix */
+    public static EstimatorConfiguration nls(){
+        return new EstimatorConfiguration("nls", MODE_NLS, EKFAlgorithmData.KERNEL_CLOSED_FORM,
+                EKFAlgorithmData.DEFAULT_SIGMA_XY, EKFAlgorithmData.DEFAULT_SIGMA_MEAS,
+                FixPipeline.INITIAL_VARIANCE);
+    }
+
+    /** @return RANSAC over AP subsets on every scan */
+    public static EstimatorConfiguration ransac(){
+        return new EstimatorConfiguration("ransac", MODE_RANSAC,
+                EKFAlgorithmData.KERNEL_CLOSED_FORM, EKFAlgorithmData.DEFAULT_SIGMA_XY,
+                EKFAlgorithmData.DEFAULT_SIGMA_MEAS, FixPipeline.INITIAL_VARIANCE);
+    }
+
+    /** @return WCLS initial guess and EKF with the closed-form kernel */
+    public static EstimatorConfiguration ekf(double sigmaXY, double sigmaMeas,
+                                             double initialVariance){
+        return ekf(EKFAlgorithmData.KERNEL_CLOSED_FORM, sigmaXY, sigmaMeas, initialVariance);
+    }
+
+    /** @return WCLS initial guess and EKF with the given kernel */
+    public static EstimatorConfiguration ekf(int kernel, double sigmaXY, double sigmaMeas,
+                                             double initialVariance){
+        String kernelName = kernel == EKFAlgorithmData.KERNEL_EJML ? "ekf ejml" : "ekf";
+        return new EstimatorConfiguration(kernelName + " Q=" + sigmaXY + " R=" + sigmaMeas
+                + " P0=" + initialVariance, MODE_WCLS_EKF, kernel, sigmaXY, sigmaMeas,
+                initialVariance);
+    }
+
+    /**
+     * @return every estimator: WCLS only with every AP selection, nonlinear least squares,
+     * RANSAC, the tracker default with both WCLS solvers and both EKF kernels, and the
+     * closed-form EKF over a grid of Q and R around the default
+     */
+    public static List<EstimatorConfiguration> createStandardSet(){
+        List<EstimatorConfiguration> configurations = new ArrayList<EstimatorConfiguration>();
+        configurations.add(wcls());
+        configurations.add(wclsAllAPs());
+        configurations.add(wclsGDOP());
+        configurations.add(nls());
+        configurations.add(ransac());
+        configurations.add(DEFAULT);
+        configurations.add(new EstimatorConfiguration("wcls all+ekf", MODE_WCLS_EKF,
+                WCLS_ALL_APS, EKFAlgorithmData.KERNEL_CLOSED_FORM,
+                EKFAlgorithmData.DEFAULT_SIGMA_XY, EKFAlgorithmData.DEFAULT_SIGMA_MEAS,
+                FixPipeline.INITIAL_VARIANCE));
+        configurations.add(new EstimatorConfiguration("wcls+ekf ejml", MODE_WCLS_EKF,
+                EKFAlgorithmData.KERNEL_EJML, EKFAlgorithmData.DEFAULT_SIGMA_XY,
+                EKFAlgorithmData.DEFAULT_SIGMA_MEAS, FixPipeline.INITIAL_VARIANCE));
+        double[] sigmasXY = {0.001, 0.1, 1};
+        double[] sigmasMeas = {0.1, 1, 10};
+        for (double sigmaXY : sigmasXY) {
+            for (double sigmaMeas : sigmasMeas) {
+                if (sigmaXY == EKFAlgorithmData.DEFAULT_SIGMA_XY
+                        && sigmaMeas == EKFAlgorithmData.DEFAULT_SIGMA_MEAS)
+                    continue; // same as DEFAULT
+                configurations.add(ekf(sigmaXY, sigmaMeas, FixPipeline.INITIAL_VARIANCE));
+            }
+        }
+        return configurations;
+    }
+
+    /**
+     * Writes this configuration as a properties file.
+     * @param file output file, overwritten
+     * @param comment comment written at the top of the file, may be null
+     */
+    public void store(File file, String comment) throws IOException {
+        Properties properties = toProperties();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, comment);
+        } finally {
+            output.close();
+        }
+    }
+
+    /** @return configuration keys, as read by fromProperties() */
+    public Properties toProperties(){
+        Properties properties = new Properties();
+        properties.setProperty(KEY_NAME, name);
+        properties.setProperty(KEY_MODE, Integer.toString(mode));
+        properties.setProperty(KEY_WCLS, Integer.toString(wcls));
+        properties.setProperty(KEY_KERNEL, Integer.toString(kernel));
+        properties.setProperty(KEY_SIGMA_XY, Double.toString(sigmaXY));
+        properties.setProperty(KEY_SIGMA_MEAS, Double.toString(sigmaMeas));
+        properties.setProperty(KEY_INITIAL_VARIANCE, Double.toString(initialVariance));
+        return properties;
+    }
+
+    /**
+     * Reads a configuration written by store().
+     * @param file properties file
+     * @return configuration, missing keys take the value of DEFAULT
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    public static EstimatorConfiguration load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        return fromProperties(properties);
+    }
+
+    /**
+     * @param properties configuration keys, others are ignored
+     * @return configuration, missing keys take the value of DEFAULT
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    public static EstimatorConfiguration fromProperties(Properties properties){
+        try {
+            return new EstimatorConfiguration(
+                    properties.getProperty(KEY_NAME, DEFAULT.name),
+                    Integer.parseInt(properties.getProperty(KEY_MODE,
+                            Integer.toString(DEFAULT.mode)).trim()),
+                    Integer.parseInt(properties.getProperty(KEY_WCLS,
+                            Integer.toString(DEFAULT.wcls)).trim()),
+                    Integer.parseInt(properties.getProperty(KEY_KERNEL,
+                            Integer.toString(DEFAULT.kernel)).trim()),
+                    Double.parseDouble(properties.getProperty(KEY_SIGMA_XY,
+                            Double.toString(DEFAULT.sigmaXY))),
+                    Double.parseDouble(properties.getProperty(KEY_SIGMA_MEAS,
+                            Double.toString(DEFAULT.sigmaMeas))),
+                    Double.parseDouble(properties.getProperty(KEY_INITIAL_VARIANCE,
+                            Double.toString(DEFAULT.initialVariance))));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid estimator configuration: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
@@ -0,0 +1,385 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Accuracy versus cost of estimator configurations over labeled scan traces, i.e. scans with
+ * the true position of the device.
+ *
+ * Every configuration runs through FixPipeline over every trace, one pipeline per
+ * (configuration, trace), so each trace keeps its own filter state. These runs are independent
+ * and are split over a ForkJoinPool. Each run first goes over its trace untimed with a
+ * throwaway pipeline, so that measured fixes do not pay for class loading and JIT compilation
+ * of its estimator. RANSAC hypotheses run on the thread of the run rather than on the shared
+ * RANSACSolver pool, which would compete with the evaluation pool for the same cores, and
+ * without time budget, so that its errors do not depend on the load of the machine.
+ * For each configuration it reports:
+ *
+ *      rmse, cep50, cep95      position error in meters: root mean square, median and 95th
+ *                              percentile of the distance between fix and true position
+ *      p50, mean, p95, p99     compute time per fix of FixPipeline.estimate(), in ns
+ *
+ * and marks with '*' the configurations on the Pareto frontier of rmse versus median time, i.e.
+ * those that no other configuration beats in both. The median is used rather than the mean,
+ * which a few GC pauses or preemptions can push above p95. Runs share the cores, so compute
+ * times are only comparable within the same run; parallelism 1 gives the cleanest times.
+ *
+ *      EstimatorEvaluation [scans] [devices] [seed] [parallelism]
+ *
+ * evaluates the standard set of configurations over ScenarioGenerator traces.
+ */
+public class EstimatorEvaluation {
+
+    private final APDataSource mAPDataSource;
+    private final int mIdBssidApSelected;
+    private final ForkJoinPool mPool;
+
+    /**
+     * @param apDataSource known APs and pathloss models
+     * @param idBssidApSelected AP whose pathloss model is the default one
+     * @param parallelism number of worker threads
+     */
+    public EstimatorEvaluation(APDataSource apDataSource, int idBssidApSelected,
+                               int parallelism){
+        mAPDataSource = apDataSource;
+        mIdBssidApSelected = idBssidApSelected;
+        mPool = new ForkJoinPool(parallelism);
+    }
+
+    public static void main(String[] args){
+        long numberScans = args.length > 0 ? Long.parseLong(args[0]) : 20000;
+        int numberDevices = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+
+        ScenarioGenerator generator = ScenarioGenerator.createTietotalo(seed);
+        generator.setNumberDevices(numberDevices);
+        List<List<LabeledScan>> traces = splitByDevice(generator.scans(numberScans));
+
+        EstimatorEvaluation evaluation = new EstimatorEvaluation(
+                ScenarioGenerator.createTietotaloDataSource(),
+                ScenarioGenerator.DEFAULT_ID_BSSID_AP_SELECTED, parallelism);
+        try {
+            List<Result> results = evaluation.evaluate(
+                    EstimatorConfiguration.createStandardSet(), traces);
+            System.out.print(getReport(results));
+        } finally {
+            evaluation.shutdown();
+        }
+    }
+
+    /**
+     * @param scans labeled scans of any number of devices
+     * @return one trace per device, in order of first appearance, with scans in input order
+     */
+    public static List<List<LabeledScan>> splitByDevice(Iterator<LabeledScan> scans){
+        Map<Integer, List<LabeledScan>> tracesByDevice = new HashMap<Integer, List<LabeledScan>>();
+        List<List<LabeledScan>> traces = new ArrayList<List<LabeledScan>>();
+        while (scans.hasNext()) {
+            LabeledScan scan = scans.next();
+            List<LabeledScan> trace = tracesByDevice.get(scan.deviceId);
+            if (trace == null) {
+                trace = new ArrayList<LabeledScan>();
+                tracesByDevice.put(scan.deviceId, trace);
+                traces.add(trace);
+            }
+            trace.add(scan);
+        }
+        return traces;
+    }
+
+    /**
+     * Reads a recorded trace: a scan log and its ground truth, a text file with one "scan,x,y"
+     * line per surveyed scan. scan is the index of the scan in the log from 0, as printed by
+     * ScanReplay, and x, y its true position in map coordinates. Empty lines and lines starting
+     * with '#' are skipped. Scans without ground truth are left out of the traces.
+     * @param log scan log written by ScanLogWriter
+     * @param groundTruth ground truth file
+     * @return one trace per session of the log with labeled scans, the session as device ID
+     * @throws IOException if a file cannot be read, a ground truth line is invalid or refers
+     * to a scan which is not in the log
+     */
+    public static List<List<LabeledScan>> readLabeledTraces(File log, File groundTruth)
+            throws IOException {
+        Map<Long, double[]> positions = new HashMap<Long, double[]>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(groundTruth), "UTF-8"));
+        try {
+            String line;
+            String[] fields;
+            for (int lineNumber = 1; (line = in.readLine()) != null; lineNumber++) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                fields = line.split(",");
+                try {
+                    if (fields.length != 3)
+                        throw new NumberFormatException();
+                    positions.put(Long.parseLong(fields[0].trim()), new double[]{
+                            Double.parseDouble(fields[1].trim()),
+                            Double.parseDouble(fields[2].trim())});
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid ground truth line " + lineNumber + ": "
+                            + line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        List<LabeledScan> scans = new ArrayList<LabeledScan>(positions.size());
+        ScanLogReader reader = new ScanLogReader(log);
+        try {
+            RecordedScan scan;
+            double[] position;
+            for (long index = 0; (scan = reader.next()) != null; index++) {
+                position = positions.get(index);
+                if (position != null)
+                    scans.add(new LabeledScan(reader.getSession(), scan, position[0],
+                            position[1]));
+            }
+        } finally {
+            reader.close();
+        }
+        if (scans.size() != positions.size())
+            throw new IOException((positions.size() - scans.size())
+                    + " ground truth lines refer to scans which are not in the log");
+        return splitByDevice(scans.iterator());
+    }
+
+    /**
+     * Runs every configuration over every trace. Traces are not modified.
+     * @param configurations estimators to evaluate
+     * @param traces scans of one device each, in time order
+     * @return one result per configuration, in the same order
+     */
+    public List<Result> evaluate(List<EstimatorConfiguration> configurations,
+                                 List<List<LabeledScan>> traces){
+        int numberTraces = traces.size();
+        TraceRun[] runs = new TraceRun[configurations.size() * numberTraces];
+        List<Result> results = new ArrayList<Result>(configurations.size());
+        for (int c = 0; c < configurations.size(); c++) {
+            Result result = new Result(configurations.get(c));
+            results.add(result);
+            for (int t = 0; t < numberTraces; t++)
+                runs[c * numberTraces + t] = new TraceRun(result, traces.get(t));
+        }
+
+        mPool.invoke(new RunTask(runs, 0, runs.length));
+
+        for (int c = 0; c < results.size(); c++)
+            results.get(c).merge(runs, c * numberTraces, numberTraces);
+        markParetoFrontier(results);
+        return results;
+    }
+
+    public void shutdown(){
+        mPool.shutdown();
+    }
+
+    /** A configuration on the frontier has no other one with lower-or-equal rmse and median
+     * time, one of them strictly lower */
+    private static void markParetoFrontier(List<Result> results){
+        for (Result result : results) {
+            result.isParetoOptimal = result.getFixes() > 0;
+            for (Result other : results) {
+                if (other == result || other.getFixes() == 0)
+                    continue;
+                double rmse = result.getRMSE(), otherRmse = other.getRMSE();
+                long time = result.getComputeTime().getPercentile(50);
+                long otherTime = other.getComputeTime().getPercentile(50);
+                if (otherRmse <= rmse && otherTime <= time
+                        && (otherRmse < rmse || otherTime < time)) {
+                    result.isParetoOptimal = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /** @return one line per configuration */
+    public static String getReport(List<Result> results){
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("  %-34s %8s %7s %8s %8s %8s %9s %9s %9s %9s%n",
+                "configuration", "fixes", "failed", "rmse", "cep50", "cep95", "p50 ns",
+                "mean ns", "p95 ns", "p99 ns"));
+        for (Result result : results) {
+            LatencyHistogram time = result.getComputeTime();
+            sb.append(String.format("%s %-34s %8d %7d %8.2f %8.2f %8.2f %9d %9d %9d %9d%n",
+                    result.isParetoOptimal ? "*" : " ", result.configuration.name,
+                    result.getFixes(), result.getFailed(), result.getRMSE(),
+                    result.getCEP(50), result.getCEP(95), time.getPercentile(50),
+                    time.getMean(), time.getPercentile(95), time.getPercentile(99)));
+        }
+        return sb.toString();
+    }
+
+    /** Accuracy and compute time of one configuration over every trace */
+    public static class Result {
+        public final EstimatorConfiguration configuration;
+        private final LatencyHistogram mComputeTime = new LatencyHistogram();
+        private double[] mErrors = new double[0];
+        private long mFailed;
+        private double mSumSquaredErrors;
+        boolean isParetoOptimal;
+
+        Result(EstimatorConfiguration configuration){
+            this.configuration = configuration;
+        }
+
+        /* Gathers the errors of its runs, once every run is finished */
+        void merge(TraceRun[] runs, int from, int numberRuns){
+            int numberErrors = 0;
+            for (int i = from; i < from + numberRuns; i++)
+                numberErrors += runs[i].numberErrors;
+            mErrors = new double[numberErrors];
+            int offset = 0;
+            for (int i = from; i < from + numberRuns; i++) {
+                System.arraycopy(runs[i].errors, 0, mErrors, offset, runs[i].numberErrors);
+                offset += runs[i].numberErrors;
+                mFailed += runs[i].failed;
+            }
+            for (double error : mErrors)
+                mSumSquaredErrors += error * error;
+            Arrays.sort(mErrors);
+        }
+
+        public long getFixes(){
+            return mErrors.length;
+        }
+
+        /** @return scans without fix: not enough known APs or estimator failure */
+        public long getFailed(){
+            return mFailed;
+        }
+
+        public double getRMSE(){
+            return mErrors.length == 0 ? Double.NaN
+                    : Math.sqrt(mSumSquaredErrors / mErrors.length);
+        }
+
+        /**
+         * @param percentile percentile in [0, 100]
+         * @return radius in meters within which that percentage of fixes fall
+         */
+        public double getCEP(double percentile){
+            if (mErrors.length == 0)
+                return Double.NaN;
+            int rank = (int) Math.ceil(percentile / 100.0 * mErrors.length);
+            return mErrors[Math.max(rank, 1) - 1];
+        }
+
+        /** @return compute time per fix, in nanoseconds */
+        public LatencyHistogram getComputeTime(){
+            return mComputeTime;
+        }
+
+        public boolean isParetoOptimal(){
+            return isParetoOptimal;
+        }
+    }
+
+    /** One configuration over one trace, with its own pipeline */
+    private class TraceRun {
+        final Result result;
+        final List<LabeledScan> trace;
+        double[] errors;
+        int numberErrors;
+        long failed;
+
+        TraceRun(Result result, List<LabeledScan> trace){
+            this.result = result;
+            this.trace = trace;
+        }
+
+        void run(){
+            replay(createPipeline(), false);
+            errors = new double[trace.size()];
+            replay(createPipeline(), true);
+        }
+
+        private FixPipeline createPipeline(){
+            FixPipeline pipeline = new FixPipeline(mAPDataSource, mIdBssidApSelected,
+                    new PipelineLatency(), result.configuration);
+            pipeline.setRANSACSolver(new RANSACSolver(null, FixPipeline.RANSAC_SEED,
+                    RANSACSolver.DEFAULT_MAX_HYPOTHESES, RANSACSolver.DEFAULT_INLIER_RATIO,
+                    RANSACSolver.NO_TIME_BUDGET));
+            return pipeline;
+        }
+
+        /* Runs the trace through the pipeline, keeping times and errors if measured */
+        private void replay(FixPipeline pipeline, boolean isMeasured){
+            List<WifiReading> readings;
+            boolean isFix;
+            long start, elapsed;
+            for (LabeledScan labeledScan : trace) {
+                // Prefilter modifies readings in place, and traces are shared between runs
+                readings = copy(labeledScan.scan.readings);
+                start = System.nanoTime();
+                try {
+                    isFix = pipeline.estimate(new RecordedScan(labeledScan.scan.timestamp,
+                            readings));
+                } catch (RuntimeException e) {
+                    // e.g. nearly singular WCLS geometry
+                    isFix = false;
+                }
+                elapsed = System.nanoTime() - start;
+                if (!isMeasured)
+                    continue;
+                if (!isFix) {
+                    failed++;
+                    continue;
+                }
+                result.mComputeTime.record(elapsed);
+                errors[numberErrors++] = Math.hypot(pipeline.getX() - labeledScan.trueX,
+                        pipeline.getY() - labeledScan.trueY);
+            }
+        }
+
+        private List<WifiReading> copy(List<WifiReading> readings){
+            List<WifiReading> copy = new ArrayList<WifiReading>(readings.size());
+            for (int i = 0; i < readings.size(); i++) {
+                WifiReading reading = readings.get(i);
+                copy.add(new WifiReading(reading.BSSID, reading.level, reading.frequency));
+            }
+            return copy;
+        }
+    }
+
+    /** Splits runs in halves until a single run is left */
+    private static class RunTask extends RecursiveAction {
+        private final TraceRun[] runs;
+        private final int from, to;
+
+        RunTask(TraceRun[] runs, int from, int to){
+            this.runs = runs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                runs[from].run();
+                return;
+            }
+            if (to - from < 1)
+                return;
+            int middle = (from + to) >>> 1;
+            invokeAll(new RunTask(runs, from, middle), new RunTask(runs, middle, to));
+        }
+    }
+}
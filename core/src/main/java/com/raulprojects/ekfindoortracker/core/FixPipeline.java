@@ -0,0 +1,407 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.ejml.data.DenseMatrix64F;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan-to-fix pipeline of the tracker, shared by MapViewActivity and ScanReplay so that a
+ * replayed scan goes through exactly the same stages as a live one:
+ *
+ *      Prefilter.filterEverythingOut       known APs, without duplicate BSSIDs
+ *      first scan only:
+ *          top-K strongest APs             K = strongestAPs of the configuration
+ *          Prefilter.translatesRSStoDistance
+ *          LSAlgorithm.applyWCLSAlgorithm  initial guess x0/0, P0/0 = initialVariance * I,
+ *                                          or WCLSSolver.solve if K > 4
+ *          or, with WCLS_ALL_APS:
+ *          Prefilter.translatesRSStoDistance   every known AP
+ *          WCLSSolver.solve                    initial guess with every known AP
+ *          or, with WCLS_GDOP:
+ *          top-(K+2) strongest APs
+ *          Prefilter.translatesRSStoDistance
+ *          GDOPSelector.select                 4 APs of lowest GDOP around the last fix
+ *          LSAlgorithm.applyWCLSAlgorithm
+ *      Prefilter.translatesRSStoDistance   every known AP
+ *      EKFAlgorithmData.applyEKFStep
+ *
+ * The estimator and its EKF parameters are set by an EstimatorConfiguration. In MODE_WCLS,
+ * the first-scan stages run on every scan and the EKF is skipped. In MODE_NLS, LMSolver.solve
+ * replaces the EKF step: every scan is solved with every known AP, started from the last fix
+ * or, on the first scan, from the WCLS initial guess. In MODE_RANSAC, RANSACSolver.solve runs
+ * on every scan with every known AP instead of every other stage.
+ *
+ * Each stage records its latency in a PipelineLatency. The filter keeps its state across scans,
+ * and the pipeline has no platform dependency, hence it is deterministic for a given sequence
+ * of scans. The only exception is a RANSAC solve which overruns the time budget of its
+ * fail-safe; replays set a RANSACSolver without budget, see setRANSACSolver().
+ * This class is not thread-safe: one thread must run estimate(). Only
+ * setConfiguration() and setIdBssidApSelected() can be called from other threads; a new
+ * configuration is applied as a whole before the next scan, and the filter state is kept.
+ */
+public class FixPipeline {
+
+    public static final int MIN_APS_WCLS = 4; // WCLS initial guess needs 4 APs
+    public static final int MIN_APS_EKF = 1; // EKF accepts any number of APs
+    public static final int STRONGEST_APS = MIN_APS_WCLS; // default K strongest APs
+    public static final double INITIAL_VARIANCE = 10;
+    public static final long RANSAC_SEED = 1; // same subsets on every run, as replays need
+
+    private final APDataSource mAPDataSource;
+    private final Prefilter mFilter;
+    private final LSAlgorithm mLSAlgorithm;
+    private final WCLSSolver mWCLSSolver;
+    private final LMSolver mLMSolver;
+    private RANSACSolver mRANSACSolver; // created on first use, it needs a thread pool
+    private GDOPSelector mGDOPSelector;
+    private final List<APAlgorithmData> mGDOPResults;
+    private StrongestAPSelector mStrongestAPSelector;
+    private final List<WifiReading> mStrongestResults;
+    private final PipelineLatency mLatency;
+    private volatile int mIdBssidApSelected;
+
+    // Configuration in use, only read by the estimation thread, and the one set by other threads
+    private TrackerConfiguration mConfiguration;
+    private EstimatorConfiguration mEstimator;
+    private volatile TrackerConfiguration mPendingConfiguration;
+
+    private EKFAlgorithmData mEKFData;
+    private int mIterationK;
+    private int mNumberKnownAPs;
+
+    /**
+     * @param apDataSource known APs and pathloss models
+     * @param idBssidApSelected AP whose pathloss model is the default one
+     * @param latency stage latencies are recorded in it
+     */
+    public FixPipeline(APDataSource apDataSource, int idBssidApSelected,
+                       PipelineLatency latency){
+        this(apDataSource, idBssidApSelected, latency, EstimatorConfiguration.DEFAULT);
+    }
+
+    /**
+     * @param apDataSource known APs and pathloss models
+     * @param idBssidApSelected AP whose pathloss model is the default one
+     * @param latency stage latencies are recorded in it
+     * @param configuration estimator and EKF parameters
+     */
+    public FixPipeline(APDataSource apDataSource, int idBssidApSelected,
+                       PipelineLatency latency, EstimatorConfiguration configuration){
+        this(apDataSource, latency, TrackerConfiguration.DEFAULT
+                .withIdBssidApSelected(idBssidApSelected).withEstimator(configuration));
+    }
+
+    /**
+     * @param apDataSource known APs and pathloss models
+     * @param latency stage latencies are recorded in it
+     * @param configuration K strongest APs, default pathloss model and estimator. With
+     *                      WCLS_GDOP, the GDOP tables of the known APs are filled here, which
+     *                      takes a fraction of a second.
+     */
+    public FixPipeline(APDataSource apDataSource, PipelineLatency latency,
+                       TrackerConfiguration configuration){
+        mConfiguration = configuration;
+        mPendingConfiguration = configuration;
+        mEstimator = configuration.estimator;
+        mAPDataSource = apDataSource;
+        mFilter = new Prefilter(apDataSource);
+        mLSAlgorithm = new LSAlgorithm();
+        mWCLSSolver = new WCLSSolver();
+        mLMSolver = new LMSolver();
+        mStrongestAPSelector = new StrongestAPSelector(configuration.strongestAPs
+                + GDOPSelector.EXTRA_CANDIDATES);
+        mStrongestResults = new ArrayList<WifiReading>(configuration.strongestAPs
+                + GDOPSelector.EXTRA_CANDIDATES);
+        mGDOPSelector = new GDOPSelector(configuration.mapWidth, configuration.mapHeight);
+        mGDOPResults = new ArrayList<APAlgorithmData>(LSAlgorithm.NUMBER_APS);
+        mLatency = latency;
+        mIdBssidApSelected = configuration.idBssidApSelected;
+        mIterationK = 1;
+        if (mEstimator.wcls == EstimatorConfiguration.WCLS_GDOP)
+            precomputeGDOP(configuration);
+    }
+
+    /**
+     * Applies the pipeline to a scan.
+     * @param scan WiFi scan, its readings list is filtered in place
+     * @return true if the fix has been updated, false if there were not enough known APs
+     */
+    public boolean estimate(RecordedScan scan){
+        TrackerConfiguration configuration = mPendingConfiguration;
+        if (configuration != mConfiguration)
+            applyConfiguration(configuration);
+
+        long stageStart = System.nanoTime();
+        List<WifiReading> filteredResults = mFilter.filterEverythingOut(scan.readings);
+        mLatency.recordSince(PipelineLatency.STAGE_PREFILTER, stageStart);
+        mNumberKnownAPs = filteredResults.size();
+        if (mEstimator.mode == EstimatorConfiguration.MODE_RANSAC)
+            return estimateRANSAC(filteredResults);
+
+        // First iteration needs enough APs for WCLS, next ones only one AP, or 3 for NLS
+        boolean isWCLS = mIterationK == 1
+                || mEstimator.mode == EstimatorConfiguration.MODE_WCLS;
+        boolean isNLS = mEstimator.mode == EstimatorConfiguration.MODE_NLS;
+        boolean isAllAPs = mEstimator.wcls == EstimatorConfiguration.WCLS_ALL_APS;
+        int minimumAPs = isWCLS ? (isAllAPs ? WCLSSolver.MIN_APS : MIN_APS_WCLS)
+                : isNLS ? LMSolver.MIN_APS : MIN_APS_EKF;
+        if (filteredResults.size() < minimumAPs)
+            return false;
+
+        List<APAlgorithmData> algorithmInputDataList = null;
+        if (isWCLS){ // First iteration uses WCLS algorithm
+            PositionEstimate initialGuess;
+            if (isAllAPs) {
+                /* Translates RSS of every known AP, which the EKF step reuses */
+                stageStart = System.nanoTime();
+                algorithmInputDataList = mFilter.translatesRSStoDistance(filteredResults,
+                        mIdBssidApSelected);
+                mLatency.recordSince(PipelineLatency.STAGE_TRANSLATE, stageStart);
+
+                /* Initial guess using N-AP Weighted Circular Least Square algorithm */
+                stageStart = System.nanoTime();
+                initialGuess = mWCLSSolver.solve(algorithmInputDataList);
+                mLatency.recordSince(PipelineLatency.STAGE_WCLS, stageStart);
+            } else {
+                /* Gets the K strongest RSS from K APs and translates them to distance; GDOP
+                selection has 2 more candidates */
+                boolean isGDOP = mEstimator.wcls == EstimatorConfiguration.WCLS_GDOP;
+                int k = mConfiguration.strongestAPs;
+                if (isGDOP)
+                    k += GDOPSelector.EXTRA_CANDIDATES;
+                stageStart = System.nanoTime();
+                List<WifiReading> strongestResults = mStrongestAPSelector.select(
+                        filteredResults, k, mStrongestResults);
+                mLatency.recordSince(PipelineLatency.STAGE_TOP_K, stageStart);
+
+                stageStart = System.nanoTime();
+                List<APAlgorithmData> wclsInputDataList = mFilter
+                        .translatesRSStoDistance(strongestResults, mIdBssidApSelected);
+                mLatency.recordSince(PipelineLatency.STAGE_TRANSLATE, stageStart);
+
+                if (isGDOP) {
+                    /* 4 APs of lowest GDOP around the last fix, or the strongest APs */
+                    stageStart = System.nanoTime();
+                    wclsInputDataList = mEKFData != null
+                            ? mGDOPSelector.select(wclsInputDataList, LSAlgorithm.NUMBER_APS,
+                                    getX(), getY(), mGDOPResults)
+                            : mGDOPSelector.select(wclsInputDataList, LSAlgorithm.NUMBER_APS,
+                                    mGDOPResults);
+                    mLatency.recordSince(PipelineLatency.STAGE_GDOP, stageStart);
+                }
+
+                /* Initial guess using Weighted Circular Least Square algorithm: LSAlgorithm
+                for 4 APs, WCLSSolver for more */
+                stageStart = System.nanoTime();
+                initialGuess = wclsInputDataList.size() > LSAlgorithm.NUMBER_APS
+                        ? mWCLSSolver.solve(wclsInputDataList)
+                        : mLSAlgorithm.applyWCLSAlgorithm(wclsInputDataList);
+                mLatency.recordSince(PipelineLatency.STAGE_WCLS, stageStart);
+            }
+            if (mEstimator.mode == EstimatorConfiguration.MODE_WCLS) {
+                /* The fix is the WCLS estimate with its own covariance */
+                setFix(initialGuess);
+                mIterationK++;
+                return true;
+            }
+            double[] x = new double[]{initialGuess.x, initialGuess.y};
+
+            /* Set covariance matrix P */
+            double[][] P = new double[][]{
+                    {mEstimator.initialVariance, 0},
+                    {0, mEstimator.initialVariance}
+            };
+
+            /* Filter is created once and keeps its state across scans */
+            mEKFData = createFilter(x, P);
+        }
+
+        /* Translates RSS to distance of every known AP by using estimated pathloss model */
+        if (algorithmInputDataList == null) {
+            stageStart = System.nanoTime();
+            algorithmInputDataList = mFilter.translatesRSStoDistance(filteredResults,
+                    mIdBssidApSelected);
+            mLatency.recordSince(PipelineLatency.STAGE_TRANSLATE, stageStart);
+        }
+
+        if (isNLS) {
+            /* Nonlinear least squares started from the last fix, or the WCLS initial guess */
+            stageStart = System.nanoTime();
+            PositionEstimate fix = mLMSolver.solve(algorithmInputDataList, getX(), getY());
+            mLatency.recordSince(PipelineLatency.STAGE_NLS, stageStart);
+            setFix(fix);
+            mIterationK++;
+            return true;
+        }
+
+        /* Apply EKF algorithm with algorithmInputDataList and initial guesses from WCLS
+        algorithm (first iteration) or estimates from previous iteration */
+        stageStart = System.nanoTime();
+        mEKFData.applyEKFStep(algorithmInputDataList);
+        mLatency.recordSince(PipelineLatency.STAGE_EKF, stageStart);
+        mIterationK++;
+        return true;
+    }
+
+    /* RANSAC over every known AP, no previous fix needed */
+    private boolean estimateRANSAC(List<WifiReading> filteredResults){
+        if (filteredResults.size() < RANSACSolver.MIN_APS)
+            return false;
+
+        long stageStart = System.nanoTime();
+        List<APAlgorithmData> algorithmInputDataList = mFilter.translatesRSStoDistance(
+                filteredResults, mIdBssidApSelected);
+        mLatency.recordSince(PipelineLatency.STAGE_TRANSLATE, stageStart);
+
+        if (mRANSACSolver == null)
+            mRANSACSolver = new RANSACSolver(RANSAC_SEED);
+        stageStart = System.nanoTime();
+        PositionEstimate fix = mRANSACSolver.solve(algorithmInputDataList);
+        mLatency.recordSince(PipelineLatency.STAGE_RANSAC, stageStart);
+        setFix(fix);
+        mIterationK++;
+        return true;
+    }
+
+    /* The fix is a given estimate with its own covariance, the filter only holds it */
+    private void setFix(PositionEstimate estimate){
+        if (mEKFData == null) {
+            mEKFData = createFilter(new double[]{estimate.x, estimate.y}, new double[][]{
+                    {estimate.pXX, estimate.pXY},
+                    {estimate.pXY, estimate.pYY}
+            });
+            return;
+        }
+        mEKFData.x.set(0, estimate.x);
+        mEKFData.x.set(1, estimate.y);
+        mEKFData.P.set(0, 0, estimate.pXX);
+        mEKFData.P.set(0, 1, estimate.pXY);
+        mEKFData.P.set(1, 0, estimate.pXY);
+        mEKFData.P.set(1, 1, estimate.pYY);
+    }
+
+    private EKFAlgorithmData createFilter(double[] x, double[][] P){
+        return new EKFAlgorithmData(new DenseMatrix64F(x.length, 1, false, x),
+                new DenseMatrix64F(P), mEstimator.kernel, mEstimator.sigmaXY,
+                mEstimator.sigmaMeas);
+    }
+
+    /**
+     * Switches to a new configuration between two scans. The filter keeps its state: a new
+     * kernel starts from the current x and P, and new Q and R apply from the next step. A new
+     * initial variance only applies to a new filter.
+     */
+    private void applyConfiguration(TrackerConfiguration configuration){
+        EstimatorConfiguration estimator = configuration.estimator;
+        if (mEKFData != null) {
+            if (estimator.kernel != mEstimator.kernel) {
+                mEKFData = new EKFAlgorithmData(mEKFData.x.copy(), mEKFData.P.copy(),
+                        estimator.kernel, estimator.sigmaXY, estimator.sigmaMeas);
+            } else if (estimator.sigmaXY != mEstimator.sigmaXY
+                    || estimator.sigmaMeas != mEstimator.sigmaMeas) {
+                mEKFData.setNoiseVariances(estimator.sigmaXY, estimator.sigmaMeas);
+            }
+        }
+        if (configuration.strongestAPs != mConfiguration.strongestAPs)
+            mStrongestAPSelector = new StrongestAPSelector(configuration.strongestAPs
+                    + GDOPSelector.EXTRA_CANDIDATES);
+        boolean isNewMap = configuration.mapWidth != mConfiguration.mapWidth
+                || configuration.mapHeight != mConfiguration.mapHeight;
+        if (isNewMap)
+            mGDOPSelector = new GDOPSelector(configuration.mapWidth, configuration.mapHeight);
+        if (estimator.wcls == EstimatorConfiguration.WCLS_GDOP
+                && (isNewMap || mEstimator.wcls != EstimatorConfiguration.WCLS_GDOP
+                || configuration.strongestAPs != mConfiguration.strongestAPs))
+            precomputeGDOP(configuration);
+        // A model chosen by the user is only overridden by a new one in the configuration
+        if (configuration.idBssidApSelected != mConfiguration.idBssidApSelected)
+            mIdBssidApSelected = configuration.idBssidApSelected;
+        mConfiguration = configuration;
+        mEstimator = estimator;
+    }
+
+    /**
+     * Fills the GDOP tables of the candidate sets expected over the map, i.e. the K+2 known
+     * APs nearest to each cell, so that GDOP selections are lookups.
+     */
+    private void precomputeGDOP(TrackerConfiguration configuration){
+        mGDOPSelector.precompute(mAPDataSource.getAPRegistry(),
+                configuration.strongestAPs + GDOPSelector.EXTRA_CANDIDATES,
+                LSAlgorithm.NUMBER_APS);
+    }
+
+    /**
+     * Sets the solver of MODE_RANSAC, e.g. one without pool when the pipeline already runs in
+     * a pool. By default, one over the shared pool is created on first use.
+     * @param solver RANSAC solver, only used by this pipeline
+     */
+    public void setRANSACSolver(RANSACSolver solver){
+        mRANSACSolver = solver;
+    }
+
+    /** @return last fix with its covariance, in map coordinates */
+    public PositionEstimate getEstimate(){
+        return new PositionEstimate(mEKFData.x.get(0), mEKFData.x.get(1), mEKFData.P.get(0,0),
+                mEKFData.P.get(0,1), mEKFData.P.get(1,1));
+    }
+
+    /** @return x of the last fix, in map coordinates */
+    public double getX(){
+        return mEKFData.x.get(0);
+    }
+
+    /** @return y of the last fix, in map coordinates */
+    public double getY(){
+        return mEKFData.x.get(1);
+    }
+
+    /** @return WCLS solves whose AP subset geometry was cached */
+    public long getWCLSCacheHits(){
+        return mLSAlgorithm.getCacheHits();
+    }
+
+    /** @return WCLS solves whose AP subset geometry had to be computed */
+    public long getWCLSCacheMisses(){
+        return mLSAlgorithm.getCacheMisses();
+    }
+
+    /** @return RANSAC solves stopped by the time budget, whose fix depends on timing */
+    public long getRANSACBudgetOverruns(){
+        return mRANSACSolver != null ? mRANSACSolver.getBudgetOverruns() : 0;
+    }
+
+    /** @return known APs of the last scan, after filtering */
+    public int getNumberKnownAPs(){
+        return mNumberKnownAPs;
+    }
+
+    /** @return number of fixes estimated so far */
+    public int getNumberFixes(){
+        return mIterationK - 1;
+    }
+
+    /** @param idBssidApSelected AP whose pathloss model is the default one, from next scan */
+    public void setIdBssidApSelected(int idBssidApSelected){
+        mIdBssidApSelected = idBssidApSelected;
+    }
+
+    public int getIdBssidApSelected(){
+        return mIdBssidApSelected;
+    }
+
+    /**
+     * Sets the configuration used from the next scan on. It can be called from any thread.
+     * @param configuration new configuration
+     */
+    public void setConfiguration(TrackerConfiguration configuration){
+        if (configuration == null)
+            throw new IllegalArgumentException("Configuration is needed");
+        mPendingConfiguration = configuration;
+    }
+
+    /** @return latest configuration set, which may not be applied yet */
+    public TrackerConfiguration getConfiguration(){
+        return mPendingConfiguration;
+    }
+}
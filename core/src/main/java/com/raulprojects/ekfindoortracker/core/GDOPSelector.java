@@ -0,0 +1,551 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the K APs with the best geometry around the user position, instead of the K
+ * strongest ones, among a few more candidates than K.
+ *
+ * Geometry is scored by the geometric dilution of precision of WCLS at position p:
+ *
+ *      GDOP(p) = sqrt(trace((A'*S^-1*A)^-1)),     S from Var(d_k²) = d_k^4, d_k = |p - AP_k|
+ *
+ * i.e. the position error in meters per unit of relative range error, with AP1 as reference
+ * as in LSAlgorithm (see WCLSSolver for A and S). Nearly collinear APs, e.g. along a
+ * corridor, have an infinite GDOP anywhere: they are the subsets which make LSAlgorithm
+ * throw "Nearly singular matrix".
+ *
+ * Since S holds the variance shared by every row, GDOP does not depend on which AP is the
+ * reference, hence on the order of the APs. Each unordered subset gets a grid over the map
+ * with the GDOP at the centre of every cell, and each unordered candidate set gets a table
+ * with the best subset of K candidates at every cell, both kept in LRU maps as LSAlgorithm
+ * does with its geometry. The best subset is the one with the lowest GDOP; ties, e.g. when
+ * every subset is degenerate, go to the first subset in BSSID order.
+ *
+ * Selection is then one table lookup. precompute() fills the tables of the candidate sets
+ * expected over the map, i.e. the APs nearest to each cell, which the strongest APs of a scan
+ * usually are. Other candidate sets, and candidate sets of 32 APs or more, are searched the
+ * first time a cell is looked up: the C(M, K) subsets of the M candidates are scored on their
+ * grids, which are filled lazily too.
+ *
+ * Memory is one float per cell for each cached subset and one int per cell for each cached
+ * candidate set, e.g. 9 KB for Tietotalo with 2 m cells, 4.6 MB with the default capacity.
+ * This class is not thread-safe.
+ */
+public class GDOPSelector {
+
+    public static final double DEFAULT_CELL_SIZE = 2; // meters
+    public static final int DEFAULT_CACHE_CAPACITY = 256;
+    public static final int EXTRA_CANDIDATES = 2; // candidates are the K + 2 strongest APs
+
+    // Best subsets are stored as a bit mask over the candidates in BSSID order
+    private static final int MAX_TABLE_CANDIDATES = Integer.SIZE - 1;
+
+    private final double mCellSize;
+    private final int mColumns, mRows;
+    private final int mCacheCapacity;
+
+    // GDOP grid of the latest AP subsets and best subsets of the latest candidate sets, in
+    // access order
+    private final Map<SubsetKey, Grid> mGridCache;
+    private final Map<SubsetKey, Table> mTableCache;
+    private final SubsetKey mProbeKey = new SubsetKey();
+    private long mCacheHits, mCacheMisses;
+
+    // candidates in BSSID order, subset being tried and best one so far as positions in it,
+    // and a subset as candidate indices
+    private int[] mSortedCandidates = new int[0];
+    private int[] mIndices = new int[0];
+    private int[] mBestIndices = new int[0];
+    private int[] mSubset = new int[0];
+
+    /**
+     * @param mapWidth map bounds in meters, X: [0 - width]
+     * @param mapHeight Y: [0 - height]
+     */
+    public GDOPSelector(double mapWidth, double mapHeight){
+        this(mapWidth, mapHeight, DEFAULT_CELL_SIZE, DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param mapWidth map bounds in meters, X: [0 - width]
+     * @param mapHeight Y: [0 - height]
+     * @param cellSize side of a grid cell, in meters
+     * @param cacheCapacity maximum number of AP subsets whose grid is cached, and of candidate
+     *                      sets whose table is cached
+     */
+    public GDOPSelector(double mapWidth, double mapHeight, double cellSize,
+                        final int cacheCapacity){
+        if (!(mapWidth > 0) || !(mapHeight > 0))
+            throw new IllegalArgumentException("Map bounds must be positive");
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("Cell size must be positive");
+        if (cacheCapacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        mCellSize = cellSize;
+        mColumns = (int) Math.ceil(mapWidth / cellSize);
+        mRows = (int) Math.ceil(mapHeight / cellSize);
+        mCacheCapacity = cacheCapacity;
+        mGridCache = new LinkedHashMap<SubsetKey, Grid>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SubsetKey, Grid> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+        mTableCache = new LinkedHashMap<SubsetKey, Table>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SubsetKey, Table> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Selects K APs around the centroid of the K strongest candidates, for when there is no
+     * previous fix.
+     * @see #select(List, int, double, double, List)
+     */
+    public List<APAlgorithmData> select(List<APAlgorithmData> candidates, int k,
+                                        List<APAlgorithmData> selected){
+        int numberAPs = Math.min(k, candidates.size());
+        double x = 0, y = 0;
+        for (int i = 0; i < numberAPs; i++) {
+            x += candidates.get(i).apX;
+            y += candidates.get(i).apY;
+        }
+        return select(candidates, k, x / numberAPs, y / numberAPs, selected);
+    }
+
+    /**
+     * Selects the K candidates with the lowest GDOP at the given position.
+     * @param candidates APs to select from, from the strongest to the weakest one
+     * @param k number of APs to select. If candidates list is shorter, every AP is selected.
+     * @param x x of the user position, e.g. the last fix
+     * @param y y of the user position
+     * @param selected output list, cleared and filled with the selected APs in candidate order
+     * @return selected
+     */
+    public List<APAlgorithmData> select(List<APAlgorithmData> candidates, int k, double x,
+                                        double y, List<APAlgorithmData> selected){
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        selected.clear();
+        int numberCandidates = candidates.size();
+        if (numberCandidates <= k) {
+            selected.addAll(candidates);
+            return selected;
+        }
+        setSubsetSize(k);
+        sortCandidates(candidates);
+        int cell = getCell(x, y);
+
+        Table table = numberCandidates <= MAX_TABLE_CANDIDATES ? getTable(candidates, k) : null;
+        if (table != null && table.best[cell] != 0) {
+            mCacheHits++;
+            fromMask(table.best[cell], mBestIndices);
+        } else {
+            mCacheMisses++;
+            search(candidates, cell);
+            if (table != null)
+                table.best[cell] = toMask(mBestIndices);
+        }
+
+        /* Best subset back in candidate order */
+        for (int i = 0; i < k; i++)
+            mSubset[i] = mSortedCandidates[mBestIndices[i]];
+        Arrays.sort(mSubset);
+        for (int i = 0; i < k; i++)
+            selected.add(candidates.get(mSubset[i]));
+        return selected;
+    }
+
+    /**
+     * Fills the table of a candidate set at every cell, e.g. of a common candidate set at
+     * startup, so that its selections are lookups.
+     * @param candidates APs to select from, in any order
+     * @param k number of APs to select
+     */
+    public void precompute(List<APAlgorithmData> candidates, int k){
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        int numberCandidates = candidates.size();
+        if (numberCandidates <= k || numberCandidates > MAX_TABLE_CANDIDATES)
+            return;
+        setSubsetSize(k);
+        sortCandidates(candidates);
+        Table table = getTable(candidates, k);
+
+        /* Same search as select(), subset by subset over every cell not filled yet */
+        int numberCells = mColumns * mRows;
+        float[] bestGDOP = new float[numberCells];
+        Arrays.fill(bestGDOP, Float.NaN);
+        int[] best = new int[numberCells];
+        for (int i = 0; i < k; i++)
+            mIndices[i] = i;
+        Grid grid;
+        int mask;
+        float gdop;
+        do {
+            grid = getGrid(candidates, mIndices);
+            mask = toMask(mIndices);
+            for (int cell = 0; cell < numberCells; cell++) {
+                if (table.best[cell] != 0)
+                    continue;
+                gdop = grid.getGDOP(cell);
+                if (Float.isNaN(bestGDOP[cell]) || gdop < bestGDOP[cell]) {
+                    bestGDOP[cell] = gdop;
+                    best[cell] = mask;
+                }
+            }
+        } while (nextSubset(mIndices, numberCandidates));
+        for (int cell = 0; cell < numberCells; cell++) {
+            if (table.best[cell] == 0)
+                table.best[cell] = best[cell];
+        }
+    }
+
+    /**
+     * Fills the tables of the candidate sets expected over the map: the M known APs nearest to
+     * the centre of each cell. Nothing is filled once the table cache is full.
+     * @param registry known APs
+     * @param numberCandidates M, number of candidates of a selection
+     * @param k number of APs to select
+     */
+    public void precompute(APRegistry registry, int numberCandidates, int k){
+        List<KnownAP> knownAPs = registry.getAPs();
+        int numberAPs = knownAPs.size();
+        if (numberAPs <= k || numberCandidates <= k)
+            return;
+        numberCandidates = Math.min(numberCandidates, numberAPs);
+        List<APAlgorithmData> aps = new ArrayList<APAlgorithmData>(numberAPs);
+        for (KnownAP knownAP : knownAPs)
+            aps.add(new APAlgorithmData(knownAP.name, 0, 0, knownAP.x, knownAP.y));
+
+        double[] distance2 = new double[numberAPs];
+        List<APAlgorithmData> candidates = new ArrayList<APAlgorithmData>(numberCandidates);
+        double x, y, dx, dy;
+        int nearest;
+        for (int cell = 0; cell < mColumns * mRows; cell++) {
+            if (mTableCache.size() >= mCacheCapacity)
+                return;
+            x = (cell % mColumns + 0.5) * mCellSize;
+            y = (cell / mColumns + 0.5) * mCellSize;
+            for (int i = 0; i < numberAPs; i++) {
+                dx = x - aps.get(i).apX;
+                dy = y - aps.get(i).apY;
+                distance2[i] = dx*dx + dy*dy;
+            }
+            /* M nearest APs, by selection since M is small */
+            candidates.clear();
+            for (int j = 0; j < numberCandidates; j++) {
+                nearest = -1;
+                for (int i = 0; i < numberAPs; i++) {
+                    if (!Double.isNaN(distance2[i])
+                            && (nearest < 0 || distance2[i] < distance2[nearest]))
+                        nearest = i;
+                }
+                candidates.add(aps.get(nearest));
+                distance2[nearest] = Double.NaN;
+            }
+            precompute(candidates, k);
+        }
+    }
+
+    /**
+     * @param subset APs of the subset, AP1 first as in LSAlgorithm
+     * @param x x of the user position
+     * @param y y of the user position
+     * @return GDOP of the subset at the cell of the position, infinite if the geometry is
+     * degenerate
+     */
+    public double getGDOP(List<APAlgorithmData> subset, double x, double y){
+        int k = subset.size();
+        setSubsetSize(k);
+        sortCandidates(subset);
+        for (int i = 0; i < k; i++)
+            mIndices[i] = i;
+        return getGrid(subset, mIndices).getGDOP(getCell(x, y));
+    }
+
+    /** @return selections whose best subset was in a table, e.g. a precomputed one */
+    public long getCacheHits() {
+        return mCacheHits;
+    }
+
+    /** @return selections whose best subset had to be searched */
+    public long getCacheMisses() {
+        return mCacheMisses;
+    }
+
+    /** @return number of candidate sets whose table is cached */
+    public int getCacheSize() {
+        return mTableCache.size();
+    }
+
+    private void setSubsetSize(int k){
+        if (mIndices.length == k)
+            return;
+        mIndices = new int[k];
+        mBestIndices = new int[k];
+        mSubset = new int[k];
+    }
+
+    /** Candidate indices in BSSID order, by insertion sort since there are few candidates */
+    private void sortCandidates(List<APAlgorithmData> candidates){
+        int numberCandidates = candidates.size();
+        if (mSortedCandidates.length != numberCandidates)
+            mSortedCandidates = new int[numberCandidates];
+        int j;
+        for (int i = 0; i < numberCandidates; i++) {
+            j = i;
+            while (j > 0 && candidates.get(mSortedCandidates[j - 1]).bssid
+                    .compareTo(candidates.get(i).bssid) > 0) {
+                mSortedCandidates[j] = mSortedCandidates[j - 1];
+                j--;
+            }
+            mSortedCandidates[j] = i;
+        }
+    }
+
+    /**
+     * Scores every subset of K sorted candidates at a cell, in lexicographic order, and leaves
+     * the first one with the lowest GDOP in mBestIndices.
+     */
+    private void search(List<APAlgorithmData> candidates, int cell){
+        int k = mIndices.length;
+        for (int i = 0; i < k; i++)
+            mIndices[i] = i;
+        double bestGDOP = Double.NaN;
+        double gdop;
+        do {
+            gdop = getGrid(candidates, mIndices).getGDOP(cell);
+            if (Double.isNaN(bestGDOP) || gdop < bestGDOP) {
+                bestGDOP = gdop;
+                System.arraycopy(mIndices, 0, mBestIndices, 0, k);
+            }
+        } while (nextSubset(mIndices, candidates.size()));
+    }
+
+    /** @return index of the cell of a position, positions off the map take the nearest cell */
+    private int getCell(double x, double y){
+        int column = Math.max(0, Math.min(mColumns - 1, (int) Math.floor(x / mCellSize)));
+        int row = Math.max(0, Math.min(mRows - 1, (int) Math.floor(y / mCellSize)));
+        return row * mColumns + column;
+    }
+
+    /** Next K-subset of [0, n) in lexicographic order, false after the last one */
+    private static boolean nextSubset(int[] indices, int n){
+        int k = indices.length;
+        int i = k - 1;
+        while (i >= 0 && indices[i] == n - k + i)
+            i--;
+        if (i < 0)
+            return false;
+        indices[i]++;
+        for (int j = i + 1; j < k; j++)
+            indices[j] = indices[j - 1] + 1;
+        return true;
+    }
+
+    /** Bit mask of a subset, never 0 since K >= 1 */
+    private static int toMask(int[] indices){
+        int mask = 0;
+        for (int index : indices)
+            mask |= 1 << index;
+        return mask;
+    }
+
+    /** Subset of a bit mask, in increasing order */
+    private static void fromMask(int mask, int[] indices){
+        int k = 0;
+        for (int index = 0; mask != 0; index++, mask >>>= 1) {
+            if ((mask & 1) != 0)
+                indices[k++] = index;
+        }
+    }
+
+    /**
+     * GRID AND TABLE CACHES
+     * Grid of an unordered AP subset, and table of an unordered candidate set, are kept in LRU
+     * maps keyed by the sorted BSSIDs. A cached entry is checked against the AP coordinates, so
+     * that moved APs are recomputed. Lookups reuse a probe key, hence a hit allocates nothing.
+     */
+
+    /** @param indices subset as positions in mSortedCandidates, in increasing order */
+    private Grid getGrid(List<APAlgorithmData> candidates, int[] indices){
+        int k = indices.length;
+        for (int i = 0; i < k; i++)
+            mSubset[i] = mSortedCandidates[indices[i]];
+
+        mProbeKey.set(candidates, mSubset);
+        Grid grid = mGridCache.get(mProbeKey);
+        if (grid != null && matches(grid.coordinates, candidates, mSubset))
+            return grid;
+        grid = new Grid(candidates, mSubset);
+        mGridCache.put(new SubsetKey(mProbeKey), grid);
+        return grid;
+    }
+
+    private Table getTable(List<APAlgorithmData> candidates, int k){
+        mProbeKey.set(candidates, mSortedCandidates);
+        Table table = mTableCache.get(mProbeKey);
+        if (table != null && table.k == k
+                && matches(table.coordinates, candidates, mSortedCandidates))
+            return table;
+        table = new Table(candidates, mSortedCandidates, k);
+        mTableCache.put(new SubsetKey(mProbeKey), table);
+        return table;
+    }
+
+    /** GDOP at the centre of every cell, row by row, NaN until computed, AP coordinates in
+     * BSSID order and the reference AP */
+    private class Grid {
+        final float[] gdop = new float[mColumns * mRows];
+        final double[] coordinates;
+        final int reference;
+
+        /**
+         * @param subset candidate indices in BSSID order; the lowest one, i.e. the strongest
+         *               candidate, is AP1 as LSAlgorithm would get it
+         */
+        Grid(List<APAlgorithmData> candidates, int[] subset) {
+            coordinates = getCoordinates(candidates, subset);
+            int r = 0;
+            for (int i = 1; i < subset.length; i++) {
+                if (subset[i] < subset[r])
+                    r = i;
+            }
+            reference = r;
+            Arrays.fill(gdop, Float.NaN);
+        }
+
+        float getGDOP(int cell) {
+            float value = gdop[cell];
+            if (Float.isNaN(value)) {
+                value = (float) computeGDOP((cell % mColumns + 0.5) * mCellSize,
+                        (cell / mColumns + 0.5) * mCellSize);
+                gdop[cell] = value;
+            }
+            return value;
+        }
+
+        /* Same normal equations as WCLSSolver, without b */
+        private double computeGDOP(double x, double y) {
+            int k = coordinates.length / 2;
+            int r = reference;
+            double xr = coordinates[2*r], yr = coordinates[2*r + 1];
+            double dx = x - xr, dy = y - yr;
+            double v = variance(dx*dx + dy*dy);
+
+            double sumW = 0, sumWAx = 0, sumWAy = 0;
+            double sumWAxAx = 0, sumWAxAy = 0, sumWAyAy = 0;
+            double ax, ay, w;
+            for (int i = 0; i < k; i++) {
+                if (i == r)
+                    continue;
+                ax = coordinates[2*i] - xr;
+                ay = coordinates[2*i + 1] - yr;
+                dx = x - coordinates[2*i];
+                dy = y - coordinates[2*i + 1];
+                w = 1 / variance(dx*dx + dy*dy);
+                sumW += w;
+                sumWAx += w*ax;
+                sumWAy += w*ay;
+                sumWAxAx += w*ax*ax;
+                sumWAxAy += w*ax*ay;
+                sumWAyAy += w*ay*ay;
+            }
+
+            double c = v / (1 + v*sumW);
+            double m00 = sumWAxAx - c*sumWAx*sumWAx;
+            double m01 = sumWAxAy - c*sumWAx*sumWAy;
+            double m11 = sumWAyAy - c*sumWAy*sumWAy;
+            double det = m00*m11 - m01*m01;
+            double trace = m00 + m11;
+            if (!(det > 1e-8 * trace * trace))
+                return Double.POSITIVE_INFINITY;
+            return Math.sqrt(trace / det);
+        }
+    }
+
+    /** Best subset of K candidates at every cell, as a bit mask over the candidates in BSSID
+     * order, 0 until computed, and candidate coordinates in BSSID order */
+    private class Table {
+        final int[] best = new int[mColumns * mRows];
+        final double[] coordinates;
+        final int k;
+
+        Table(List<APAlgorithmData> candidates, int[] sortedCandidates, int k) {
+            coordinates = getCoordinates(candidates, sortedCandidates);
+            this.k = k;
+        }
+    }
+
+    private static double[] getCoordinates(List<APAlgorithmData> candidates, int[] indices){
+        double[] coordinates = new double[2 * indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            APAlgorithmData apData = candidates.get(indices[i]);
+            coordinates[2*i] = apData.apX;
+            coordinates[2*i + 1] = apData.apY;
+        }
+        return coordinates;
+    }
+
+    private static boolean matches(double[] coordinates, List<APAlgorithmData> candidates,
+                                   int[] indices){
+        for (int i = 0; i < indices.length; i++) {
+            APAlgorithmData apData = candidates.get(indices[i]);
+            if (coordinates[2*i] != apData.apX || coordinates[2*i + 1] != apData.apY)
+                return false;
+        }
+        return true;
+    }
+
+    /** Var(d²), modelled as d^4 as in WCLSSolver, from d² */
+    private static double variance(double distance2){
+        double d2 = Math.max(distance2,
+                WCLSSolver.MIN_VARIANCE_DISTANCE * WCLSSolver.MIN_VARIANCE_DISTANCE);
+        return d2*d2;
+    }
+
+    /** BSSIDs of an unordered AP subset, sorted */
+    private static class SubsetKey {
+        String[] bssids = new String[0];
+        int hash;
+
+        SubsetKey() {
+        }
+
+        SubsetKey(SubsetKey other) {
+            bssids = other.bssids.clone();
+            hash = other.hash;
+        }
+
+        void set(List<APAlgorithmData> candidates, int[] sortedIndices) {
+            if (bssids.length != sortedIndices.length)
+                bssids = new String[sortedIndices.length];
+            hash = 1;
+            for (int i = 0; i < sortedIndices.length; i++) {
+                bssids[i] = candidates.get(sortedIndices[i]).bssid;
+                hash = 31*hash + bssids[i].hashCode();
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SubsetKey))
+                return false;
+            SubsetKey other = (SubsetKey) o;
+            return hash == other.hash && Arrays.equals(bssids, other.bssids);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.raulprojects.ekfindoortracker.core;
+
+/**
+ * Known AP stored in bssids table: identification number, common BSSID name (BSSID without
+ * last digit) and position on the map.
+ */
+public class KnownAP {
+    public final int id;
+    public final String name;
+    public final double x, y;
+
+    public KnownAP(int id, String name, double x, double y){
+        this.id = id;
+        this.name = name;
+        this.x = x;
+        this.y = y;
+    }
+}
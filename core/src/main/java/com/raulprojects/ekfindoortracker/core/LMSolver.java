@@ -0,0 +1,143 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.List;
+
+/**
+ * Nonlinear least squares over range residuals, solved by Levenberg-Marquardt:
+ *
+ *      r_k(p) = |p - AP_k| - d_k                   residual of AP k at position p
+ *      J_k(p) = (p - AP_k)' / |p - AP_k|           its gradient, row k of the Jacobian J
+ *      min sum(w_k r_k²),  w_k = 1/d_k²            range error grows with distance, as in WCLS
+ *
+ * Each iteration solves the damped normal equations
+ *
+ *      (H + lambda*diag(H)) * delta = -g,     H = J'WJ,  g = J'Wr
+ *
+ * and takes the step if it lowers the cost, dividing lambda by 10, or rejects it and multiplies
+ * lambda by 10. Small lambda is Gauss-Newton, large lambda is a short gradient step. It stops
+ * after MAX_ITERATIONS, when an accepted step is below STEP_TOLERANCE, or when lambda exceeds
+ * MAX_DAMPING, i.e. no step lowers the cost any more.
+ *
+ * Unlike WCLS, nothing is linearised away, so the fix converges to the maximum likelihood
+ * position of the ranges. It starts from a given position, e.g. the last fix, hence for a
+ * static or slow device it takes only a few iterations. The covariance is H^-1 scaled by the
+ * residual variance sum(w_k r_k²) / (N - 2).
+ *
+ * Normal equations are 2x2, so they are accumulated in place and solved in closed form: a
+ * solve allocates nothing but its result. The instance keeps statistics of its last solve,
+ * hence it must only be used by one thread.
+ */
+public class LMSolver {
+
+    public static final int MIN_APS = 3;
+    public static final int MAX_ITERATIONS = 20;
+    public static final double STEP_TOLERANCE = 1e-3; // meters
+    public static final double INITIAL_DAMPING = 1e-3;
+    public static final double MAX_DAMPING = 1e8;
+
+    // Distances below this are taken as it in weights, so that no weight is infinite
+    public static final double MIN_WEIGHT_DISTANCE = 0.1;
+
+    // Workspace of accumulate(): cost, H and g at the last evaluated position
+    private double mCost;
+    private double mH00, mH01, mH11;
+    private double mG0, mG1;
+
+    private int mIterations;
+
+    /**
+     * @param algInputList List of APAlgorithmData objects with N >= 3 AP data (BSSID -
+     *                     estimated distance - RSS), in any order
+     * @param x0 x of the start position, e.g. the last fix
+     * @param y0 y of the start position
+     * @return User position estimated, with its covariance
+     * @throws IllegalArgumentException if there are less than 3 APs or their geometry is
+     * degenerate around the solution
+     */
+    public PositionEstimate solve(List<APAlgorithmData> algInputList, double x0, double y0){
+        int numberAPs = algInputList.size();
+        if (numberAPs < MIN_APS)
+            throw new IllegalArgumentException("Nonlinear LS needs at least " + MIN_APS
+                    + " APs");
+
+        double x = x0, y = y0;
+        accumulate(algInputList, x, y);
+        double cost = mCost;
+        double h00 = mH00, h01 = mH01, h11 = mH11, g0 = mG0, g1 = mG1;
+
+        double lambda = INITIAL_DAMPING;
+        double a00, a11, det, dx, dy;
+        boolean isConverged = false;
+        mIterations = 0;
+        while (mIterations < MAX_ITERATIONS && !isConverged) {
+            mIterations++;
+
+            /* Damped step, 2x2 system in closed form */
+            a00 = h00 * (1 + lambda);
+            a11 = h11 * (1 + lambda);
+            det = a00*a11 - h01*h01;
+            if (!(det > 0))
+                throw new IllegalArgumentException("Nearly singular matrix");
+            dx = -(a11*g0 - h01*g1) / det;
+            dy = -(a00*g1 - h01*g0) / det;
+
+            accumulate(algInputList, x + dx, y + dy);
+            if (mCost < cost) {
+                x += dx;
+                y += dy;
+                cost = mCost;
+                h00 = mH00; h01 = mH01; h11 = mH11; g0 = mG0; g1 = mG1;
+                lambda /= 10;
+                isConverged = Math.hypot(dx, dy) < STEP_TOLERANCE;
+            } else {
+                lambda *= 10;
+                isConverged = lambda > MAX_DAMPING;
+            }
+        }
+
+        /* Covariance H^-1 * residual variance */
+        det = h00*h11 - h01*h01;
+        double trace = h00 + h11;
+        if (!(det > 1e-8 * trace * trace))
+            throw new IllegalArgumentException("Nearly singular matrix");
+        double scale = cost / (numberAPs - 2);
+        return new PositionEstimate(x, y, scale * h11/det, -scale * h01/det, scale * h00/det);
+    }
+
+    /** @return iterations of the last solve, accepted and rejected steps */
+    public int getIterations(){
+        return mIterations;
+    }
+
+    /* Cost, H = J'WJ and g = J'Wr at (x, y), into the workspace */
+    private void accumulate(List<APAlgorithmData> algInputList, double x, double y){
+        double cost = 0, h00 = 0, h01 = 0, h11 = 0, g0 = 0, g1 = 0;
+        double ex, ey, range, residual, jx, jy, w, d;
+        APAlgorithmData apData;
+        for (int k = 0; k < algInputList.size(); k++) {
+            apData = algInputList.get(k);
+            ex = x - apData.apX;
+            ey = y - apData.apY;
+            range = Math.sqrt(ex*ex + ey*ey);
+            residual = range - apData.distance;
+            // Gradient is undefined at the AP itself, where the residual is still valid
+            jx = range > 0 ? ex / range : 0;
+            jy = range > 0 ? ey / range : 0;
+            d = Math.max(Math.abs(apData.distance), MIN_WEIGHT_DISTANCE);
+            w = 1 / (d*d);
+
+            cost += w * residual * residual;
+            h00 += w * jx * jx;
+            h01 += w * jx * jy;
+            h11 += w * jy * jy;
+            g0 += w * jx * residual;
+            g1 += w * jy * residual;
+        }
+        mCost = cost;
+        mH00 = h00;
+        mH01 = h01;
+        mH11 = h11;
+        mG0 = g0;
+        mG1 = g1;
+    }
+}
@@ -0,0 +1,283 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Algorithm class which will estimate user position by applying Weighted Circular Least Square
+ *  algorithm. It is used for getting the initial guess x0/0 for inputting EKF algorithm.
+ *
+ *  For a more detailed explanation on how these algorithms have been derived and deployed,
+ *  please refer to Msc Thesis.
+ *
+ *  The geometry-dependent part of WCLS is cached per ordered AP subset, and matrices are
+ *  allocated once, so an instance must only be used by one thread.
+ *
+ *  NOTE: A Java matrix library will be used to handle matrix operations in an efficient way.
+ *  EJML has been chosen because its good performance showed at Java Matrix Benchmark
+ *  (https://code.google.com/p/java-matrix-benchmark/)
+ */
+public class LSAlgorithm {
+
+    public static final int NUMBER_APS = 4;
+    public static final int DEFAULT_CACHE_CAPACITY = 4096; // a few hundred bytes each
+
+    // Geometry of the latest AP subsets, in access order
+    private final Map<SubsetKey, Geometry> mGeometryCache;
+    private final SubsetKey mProbeKey = new SubsetKey();
+    private long mCacheHits, mCacheMisses;
+
+    // these are predeclared for efficiency reasons
+    private final double[] w = new double[NUMBER_APS - 1];
+    private final DenseMatrix64F SInv = new DenseMatrix64F(NUMBER_APS - 1, NUMBER_APS - 1);
+    private final DenseMatrix64F b = new DenseMatrix64F(NUMBER_APS - 1, 1);
+    private final DenseMatrix64F APrime = new DenseMatrix64F(NUMBER_APS - 1, 2);
+    private final DenseMatrix64F information = new DenseMatrix64F(2, 2);
+    private final DenseMatrix64F rhs = new DenseMatrix64F(2, 1);
+
+    public LSAlgorithm(){
+        this(DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param cacheCapacity maximum number of AP subsets whose geometry is cached
+     */
+    public LSAlgorithm(final int cacheCapacity){
+        if (cacheCapacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        mGeometryCache = new LinkedHashMap<SubsetKey, Geometry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SubsetKey, Geometry> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Main method which finds user position based on WiFi scan results.
+     * @param algorithmInputDataList List of APAlgorithmData objects with the 4 AP data  (BSSID -
+     *                               estimated distance - RSS)
+     * @return estimated user position
+     *
+     */
+    public PositionEstimate applyWCLSAlgorithm(List<APAlgorithmData> algorithmInputDataList){
+            // Weighted Circular algorithm
+            return weightedCircularAlgorithm(algorithmInputDataList);
+    }
+
+    /** User position can be acquired by using different approaches:
+     *      + Hyperbolic algorithm:
+     *          - "Radio Tracking of Open Range Sheep" with BS1 as fixed BS
+     *      + Weighted Hyperbolic algorithm:
+     *          - "Weighted Least Square Techniques for Improved RSS based location" with BS1 as
+     *          fixed BS
+     *      + Circular algorithm:
+     *          - "Radio Tracking of ORS" with BS1 as fixed BS
+     *      + Weighted Circular algorithm:
+     *          - "Weighted Least Square Techniques for Improved RSS based location" with BS1 as
+     *          fixed BS
+     *
+     *      NOTE: In this application (EKFTracker), only WCLS is used.
+     */
+
+
+    /**
+     * Estimates user position by applying a circular algorithm based on linearisation and
+     * Weighted Least Square approach:
+     *
+     *      From "Weighted Least Square Techniques for Improved RSS based location"  with BS1
+     *      as fixed BS.
+     *
+     *      A =   [(x2-x1) (y2-y1);
+     *             (x3-x1) (y3-y1);
+     *             (x4-x1) (y4-y1)]
+     *
+     *      b = 1/2 * [b21; b32; b41]
+     *
+     *      S = [Var(r1²)+Var(r2²) Var(r1²) Var(r1²);
+     *           Var(r1²) Var(r1²)+Var(r3²) Var(r1²);
+     *           Var(r1²) Var(r1²) Var(r1²)+Var(r4²)]
+     *
+     *      x = (A'*S^-1*A)^-1*A'*S^-1*b
+     *
+     *      x = [x-x1; y-y1]
+     *
+     *      Cov(x) = (A'*S^-1*A)^-1, up to the scale of S
+     *
+     * The 2x2 normal equations are solved in closed form, so that the covariance is the one of
+     * the estimator. A least-squares solve of S^-1*A*x = S^-1*b would weight by S^-2 instead.
+     *
+     * A and the squared AP distances dk_1 only depend on the AP coordinates, hence they are
+     * taken from the geometry cache; only b and S^-1 are built for each scan.
+     *
+     * @param algInputList List of APAlgorithmData objects with the 4 AP data (BSSID - estimated
+     *                     distance - RSS)
+     * @return User position estimated
+     */
+    private PositionEstimate weightedCircularAlgorithm(List<APAlgorithmData> algInputList) {
+        /* Gather all the collected data: geometry of the AP subset and distances */
+
+        Geometry geometry = getGeometry(algInputList);
+        DenseMatrix64F A = geometry.A;
+        double[] dk_1 = geometry.dk_1;
+
+        double distAP1 = algInputList.get(0).distance;
+        double distAP2 = algInputList.get(1).distance;
+        double distAP3 = algInputList.get(2).distance;
+        double distAP4 = algInputList.get(3).distance;
+
+        double b2_1 = (Math.pow(distAP1,2) - Math.pow(distAP2,2) + dk_1[0]);
+        double b3_1 = (Math.pow(distAP1,2) - Math.pow(distAP3,2) + dk_1[1]);
+        double b4_1 = (Math.pow(distAP1,2) - Math.pow(distAP4,2) + dk_1[2]);
+
+
+        /* Inverse of Matrix S of Variances and vector b, in reused workspaces. S is diagonal
+        plus rank one, so S^-1 = W - c*w*w' by Sherman-Morrison (see WCLSSolver) */
+
+        double var1 = Math.pow(distAP1,4);
+        w[0] = 1 / Math.pow(distAP2,4);
+        w[1] = 1 / Math.pow(distAP3,4);
+        w[2] = 1 / Math.pow(distAP4,4);
+        double c = var1 / (1 + var1*(w[0] + w[1] + w[2]));
+        for (int i = 0; i < NUMBER_APS - 1; i++) {
+            for (int j = 0; j < NUMBER_APS - 1; j++)
+                SInv.set(i, j, -c*w[i]*w[j]);
+            SInv.set(i, i, SInv.get(i, i) + w[i]);
+        }
+
+        b.set(0, 0, b2_1);
+        b.set(1, 0, b3_1);
+        b.set(2, 0, b4_1);
+        CommonOps.scale(0.5,b); //1/2*b
+
+
+        /* Weighted Least Square normal equations */
+
+        // A' = S^-1*A
+        CommonOps.mult(SInv, A, APrime);
+
+        // A'*S^-1*A and A'*S^-1*b, S^-1 being symmetric
+        CommonOps.multTransA(A, APrime, information);
+        CommonOps.multTransA(APrime, b, rhs);
+
+        double i00 = information.get(0,0), i01 = information.get(0,1);
+        double i11 = information.get(1,1);
+        double det = i00*i11 - i01*i01;
+        double trace = i00 + i11;
+        if (!(det > 1e-8 * trace * trace))
+            throw new IllegalArgumentException("Nearly singular matrix");
+
+        // Cov(x) = (A'*S^-1*A)^-1, 2x2 inverse in closed form
+        double pXX = i11/det, pXY = -i01/det, pYY = i00/det;
+        double xUserPosW = pXX*rhs.get(0) + pXY*rhs.get(1) + geometry.x1;
+        double yUserPosW = pXY*rhs.get(0) + pYY*rhs.get(1) + geometry.y1;
+
+        return new PositionEstimate(xUserPosW, yUserPosW, pXX, pXY, pYY);
+    }
+
+    /**
+     * GEOMETRY CACHE
+     * Geometry of an ordered AP subset is kept in a LRU map keyed by the BSSIDs of the subset.
+     * A cached geometry is checked against the AP coordinates of the scan, so that moved APs
+     * are recomputed. Lookups reuse a probe key, hence a hit allocates nothing.
+     */
+
+    private Geometry getGeometry(List<APAlgorithmData> algInputList) {
+        mProbeKey.set(algInputList);
+        Geometry geometry = mGeometryCache.get(mProbeKey);
+        if (geometry != null && geometry.matches(algInputList)) {
+            mCacheHits++;
+            return geometry;
+        }
+        mCacheMisses++;
+        geometry = new Geometry(algInputList);
+        mGeometryCache.put(new SubsetKey(mProbeKey), geometry);
+        return geometry;
+    }
+
+    public long getCacheHits() {
+        return mCacheHits;
+    }
+
+    public long getCacheMisses() {
+        return mCacheMisses;
+    }
+
+    public int getCacheSize() {
+        return mGeometryCache.size();
+    }
+
+    /** Geometry of 4 APs with AP1 as reference: A, dk_1 = |APk - AP1|², AP coordinates */
+    private static class Geometry {
+        final DenseMatrix64F A = new DenseMatrix64F(NUMBER_APS - 1, 2);
+        final double[] dk_1 = new double[NUMBER_APS - 1];
+        final double[] coordinates = new double[2 * NUMBER_APS];
+        final double x1, y1;
+
+        Geometry(List<APAlgorithmData> algInputList) {
+            APAlgorithmData coordAP1 = algInputList.get(0);
+            x1 = coordAP1.apX;
+            y1 = coordAP1.apY;
+            for (int k = 0; k < NUMBER_APS; k++) {
+                APAlgorithmData coordAPk = algInputList.get(k);
+                coordinates[2*k] = coordAPk.apX;
+                coordinates[2*k + 1] = coordAPk.apY;
+                if (k == 0)
+                    continue;
+                A.set(k - 1, 0, coordAPk.apX - x1);
+                A.set(k - 1, 1, coordAPk.apY - y1);
+                dk_1[k - 1] = Math.pow((coordAPk.apX - x1), 2) + Math.pow((coordAPk.apY - y1),
+                        2);
+            }
+        }
+
+        boolean matches(List<APAlgorithmData> algInputList) {
+            for (int k = 0; k < NUMBER_APS; k++) {
+                APAlgorithmData apData = algInputList.get(k);
+                if (coordinates[2*k] != apData.apX || coordinates[2*k + 1] != apData.apY)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /** BSSIDs of an ordered AP subset */
+    private static class SubsetKey {
+        final String[] bssids = new String[NUMBER_APS];
+        int hash;
+
+        SubsetKey() {
+        }
+
+        SubsetKey(SubsetKey other) {
+            System.arraycopy(other.bssids, 0, bssids, 0, NUMBER_APS);
+            hash = other.hash;
+        }
+
+        void set(List<APAlgorithmData> algInputList) {
+            hash = 1;
+            for (int k = 0; k < NUMBER_APS; k++) {
+                bssids[k] = algInputList.get(k).bssid;
+                hash = 31*hash + bssids[k].hashCode();
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SubsetKey))
+                return false;
+            SubsetKey other = (SubsetKey) o;
+            return hash == other.hash && Arrays.equals(bssids, other.bssids);
+        }
+    }
+}
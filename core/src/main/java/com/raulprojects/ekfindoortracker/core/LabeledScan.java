@@ -0,0 +1,18 @@
+package com.raulprojects.ekfindoortracker.core;
+
+/**
+ * WiFi scan of one device together with its true position when the scan was taken, in map
+ * coordinates (meters). Ground truth of synthetic scenarios and of surveyed traces.
+ */
+public class LabeledScan {
+    public final int deviceId;
+    public final RecordedScan scan;
+    public final double trueX, trueY;
+
+    public LabeledScan(int deviceId, RecordedScan scan, double trueX, double trueY){
+        this.deviceId = deviceId;
+        this.scan = scan;
+        this.trueX = trueX;
+        this.trueY = trueY;
+    }
+}
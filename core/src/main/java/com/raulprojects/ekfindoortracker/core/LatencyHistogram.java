@@ -0,0 +1,99 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory latency histogram, in nanoseconds.
+ *
+ * Buckets are log-linear: each power of two is split into 8 linear sub-buckets, so a recorded
+ * value is known within 12.5% whatever its magnitude. 488 buckets cover every positive long,
+ * hence memory never grows. Recording is lock-free and allocation-free, so it can be called in
+ * the hot path, and the histogram can be read from another thread at any time.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUMBER_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(NUMBER_BUCKETS);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * @param nanos measured latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos){
+        if (nanos < 0)
+            nanos = 0;
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMaxNanos.get())) {
+            if (mMaxNanos.compareAndSet(max, nanos))
+                break;
+        }
+    }
+
+    public long getCount(){
+        return mTotalCount.get();
+    }
+
+    public long getMax(){
+        return mMaxNanos.get();
+    }
+
+    public long getMean(){
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * @param percentile percentile in [0, 100]
+     * @return upper bound of the bucket where the percentile falls, never above max
+     */
+    public long getPercentile(double percentile){
+        long count = mTotalCount.get();
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        if (rank < 1)
+            rank = 1;
+        long accumulated = 0;
+        for (int i = 0; i < NUMBER_BUCKETS; i++) {
+            accumulated += mCounts.get(i);
+            if (accumulated >= rank)
+                return Math.min(bucketUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset(){
+        for (int i = 0; i < NUMBER_BUCKETS; i++)
+            mCounts.set(i, 0);
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    private static int bucketIndex(long value){
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index){
+        int group = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (group == 0)
+            return subBucket;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (group - 1);
+        return lowerBound + (1L << (group - 1)) - 1;
+    }
+}
@@ -0,0 +1,146 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-consumer executor with a one-slot mailbox: a newer item overwrites an older one which
+ * has not been processed yet. It is used to process WiFi scans, so that the consumer always
+ * works on the freshest scan and never builds up a backlog.
+ *
+ *      submit(scan1) -> mailbox = scan1
+ *      submit(scan2) -> mailbox = scan2          (scan1 coalesced, never processed)
+ *      consumer      -> takes scan2, mailbox = empty
+ *
+ * The mailbox is an AtomicReference, so everything written by the submitting thread before
+ * submit() happens-before the consumer processes that item. Items are only processed by the
+ * single consumer thread, which is created once, hence the consumer state needs no lock.
+ *
+ * An item whose consumer throws a RuntimeException does not stop the consumer thread: it is
+ * counted as failed and handed to the FailureListener, if any, on the consumer thread.
+ */
+public class LatestWinsExecutor<T> {
+
+    /** Work done on the consumer thread for each item taken from the mailbox */
+    public interface Consumer<T> {
+        void process(T item);
+    }
+
+    /** Called on the consumer thread for each item whose consumer threw an exception */
+    public interface FailureListener<T> {
+        /**
+         * @param item item which failed
+         * @param e exception thrown by the consumer. The listener must not throw.
+         */
+        void onFailure(T item, RuntimeException e);
+    }
+
+    private final AtomicReference<T> mMailbox = new AtomicReference<T>();
+    private final Consumer<T> mConsumer;
+    private final FailureListener<T> mFailureListener;
+    private final Thread mWorker;
+    private volatile boolean mIsRunning = true;
+
+    // counters
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile long mProcessed;
+    private volatile long mFailed;
+
+    public LatestWinsExecutor(String name, Consumer<T> consumer){
+        this(name, consumer, null);
+    }
+
+    /**
+     * @param name name of the consumer thread
+     * @param consumer work done for each item
+     * @param failureListener told about each failed item, or null to only count them
+     */
+    public LatestWinsExecutor(String name, Consumer<T> consumer,
+                              FailureListener<T> failureListener){
+        mConsumer = consumer;
+        mFailureListener = failureListener;
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Puts an item in the mailbox, overwriting any unprocessed one.
+     * @param item item to process, not null
+     * @return false if the executor has been shut down and the item has been dropped
+     */
+    public boolean submit(T item){
+        if (item == null)
+            throw new IllegalArgumentException("Item must not be null");
+        mSubmitted.incrementAndGet();
+        if (!mIsRunning) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        if (mMailbox.getAndSet(item) != null)
+            mCoalesced.incrementAndGet();
+        LockSupport.unpark(mWorker);
+        return true;
+    }
+
+    /** Stops the consumer thread. An item waiting in the mailbox is dropped. */
+    public void shutdown(){
+        mIsRunning = false;
+        LockSupport.unpark(mWorker);
+    }
+
+    private void consume(){
+        T item;
+        while (mIsRunning) {
+            item = mMailbox.getAndSet(null);
+            if (item == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                mConsumer.process(item);
+            } catch (RuntimeException e) {
+                // A failing item must not stop the consumer thread
+                mFailed++;
+                if (mFailureListener != null)
+                    mFailureListener.onFailure(item, e);
+            }
+            mProcessed++;
+        }
+        if (mMailbox.getAndSet(null) != null)
+            mDropped.incrementAndGet();
+    }
+
+    /** COUNTERS */
+
+    public long getSubmitted(){
+        return mSubmitted.get();
+    }
+
+    /** @return items overwritten in the mailbox before being processed */
+    public long getCoalesced(){
+        return mCoalesced.get();
+    }
+
+    /** @return items submitted after shutdown or left in the mailbox at shutdown */
+    public long getDropped(){
+        return mDropped.get();
+    }
+
+    public long getProcessed(){
+        return mProcessed;
+    }
+
+    /** @return processed items whose consumer threw an exception */
+    public long getFailed(){
+        return mFailed;
+    }
+}
@@ -0,0 +1,85 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.LinearSolverFactory;
+import org.ejml.interfaces.linsol.LinearSolver;
+
+/**
+ * Empirical pathloss model of one AP: d = a + b*RSS + c*RSS² + d*RSS³
+ *
+ * RSS is an integer number of dBm in a small range, so distances are precomputed once for
+ * every RSS in [MIN_RSS, MAX_RSS] and translating RSS to distance is a single array load. RSS
+ * values out of that range are evaluated with the polynomial.
+ */
+public class PathLossModel {
+
+    public static final int MIN_RSS = -120;
+    public static final int MAX_RSS = 0;
+
+    // Model of an AP whose coefficients have not been estimated yet: every distance is 0
+    public static final PathLossModel NOT_FITTED = new PathLossModel(new double[4]);
+
+    private final double[] mCoefficients;
+    private final double[] mDistanceTable;
+
+    /**
+     * @param coefficients coefficients [a b c d]
+     */
+    public PathLossModel(double[] coefficients){
+        if (coefficients.length != 4)
+            throw new IllegalArgumentException("Pathloss model needs 4 coefficients");
+        mCoefficients = coefficients.clone();
+        mDistanceTable = new double[MAX_RSS - MIN_RSS + 1];
+        for (int rss = MIN_RSS; rss <= MAX_RSS; rss++)
+            mDistanceTable[rss - MIN_RSS] = evaluate(mCoefficients, rss);
+    }
+
+    /**
+     * @param rss RSS in dBm
+     * @return estimated distance in meters
+     */
+    public double getDistance(int rss){
+        if (rss >= MIN_RSS && rss <= MAX_RSS)
+            return mDistanceTable[rss - MIN_RSS];
+        return evaluate(mCoefficients, rss);
+    }
+
+    /** @return copy of coefficients [a b c d] */
+    public double[] getCoefficients(){
+        return mCoefficients.clone();
+    }
+
+    /** Evaluates a + b*RSS + c*RSS² + d*RSS³ by Horner's rule */
+    public static double evaluate(double[] coefficients, double rss){
+        return coefficients[0] + rss*(coefficients[1] + rss*(coefficients[2]
+                + rss*coefficients[3]));
+    }
+
+    /**
+     * Fits the cubic model by least squares to a log-distance model over [minRSS, maxRSS],
+     * i.e. to the distances d of RSS = rss1m - 10*n*log10(d). Used where no surveyed data is
+     * available, e.g. by synthetic scenarios.
+     * @param rss1m RSS at 1 meter in dBm
+     * @param exponent pathloss exponent n
+     */
+    public static PathLossModel fitLogDistance(double rss1m, double exponent, int minRSS,
+                                               int maxRSS){
+        int n = maxRSS - minRSS + 1;
+        if (n < 4)
+            throw new IllegalArgumentException("At least 4 RSS values are needed");
+        DenseMatrix64F X = new DenseMatrix64F(n, 4);
+        DenseMatrix64F d = new DenseMatrix64F(n, 1);
+        for (int i = 0; i < n; i++) {
+            double rss = minRSS + i;
+            for (int j = 0; j < 4; j++)
+                X.set(i, j, Math.pow(rss, j));
+            d.set(i, 0, Math.pow(10, (rss1m - rss) / (10 * exponent)));
+        }
+        DenseMatrix64F coefficients = new DenseMatrix64F(4, 1);
+        LinearSolver<DenseMatrix64F> solver = LinearSolverFactory.leastSquares(n, 4);
+        if (!solver.setA(X))
+            throw new IllegalStateException("Pathloss model cannot be fitted");
+        solver.solve(d, coefficients);
+        return new PathLossModel(coefficients.data);
+    }
+}
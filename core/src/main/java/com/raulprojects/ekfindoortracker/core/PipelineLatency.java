@@ -0,0 +1,113 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * Latency instrumentation of the scan-to-fix pipeline. Each stage records into its own
+ * LatencyHistogram, which can be read at any time as p50/p99/max:
+ *
+ *      STAGE_SCAN_RECEIVE  startScan() until scan results are received
+ *      STAGE_PREFILTER     Prefilter.filterEverythingOut()
+ *      STAGE_TOP_K         strongest APs selection
+ *      STAGE_TRANSLATE     Prefilter.translatesRSStoDistance()
+ *      STAGE_WCLS          LSAlgorithm.applyWCLSAlgorithm()
+ *      STAGE_EKF           EKF prediction and update
+ *      STAGE_UI_POST       fix posted until the map is updated by the UI thread
+ *      STAGE_SCAN_TO_FIX   scan results received until the map is updated
+ *      STAGE_NLS           LMSolver.solve(), nonlinear least squares
+ *      STAGE_RANSAC        RANSACSolver.solve(), hypotheses and refinement
+ *      STAGE_GDOP          GDOPSelector.select(), AP subset with the best geometry
+ *
+ * Memory is fixed, and recording neither locks nor allocates.
+ */
+public class PipelineLatency {
+
+    public static final int STAGE_SCAN_RECEIVE = 0;
+    public static final int STAGE_PREFILTER = 1;
+    public static final int STAGE_TOP_K = 2;
+    public static final int STAGE_TRANSLATE = 3;
+    public static final int STAGE_WCLS = 4;
+    public static final int STAGE_EKF = 5;
+    public static final int STAGE_UI_POST = 6;
+    public static final int STAGE_SCAN_TO_FIX = 7;
+    public static final int STAGE_NLS = 8;
+    public static final int STAGE_RANSAC = 9;
+    public static final int STAGE_GDOP = 10;
+
+    public static final String[] STAGE_NAMES = {
+            "scan receive", "prefilter", "top-K", "translate", "WCLS", "EKF", "UI post",
+            "scan-to-fix", "NLS", "RANSAC", "GDOP"
+    };
+
+    private final LatencyHistogram[] mHistograms;
+
+    public PipelineLatency(){
+        mHistograms = new LatencyHistogram[STAGE_NAMES.length];
+        for (int i = 0; i < mHistograms.length; i++)
+            mHistograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * @param stage one of STAGE_* constants
+     * @param startNanos System.nanoTime() when the stage started
+     */
+    public void recordSince(int stage, long startNanos){
+        mHistograms[stage].record(System.nanoTime() - startNanos);
+    }
+
+    public void record(int stage, long nanos){
+        mHistograms[stage].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(int stage){
+        return mHistograms[stage];
+    }
+
+    public void reset(){
+        for (LatencyHistogram histogram : mHistograms)
+            histogram.reset();
+    }
+
+    /** @return one line per stage: count, p50, p99 and max in milliseconds */
+    public String getReport(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-13s %6s %8s %8s %8s%n", "stage (ms)", "n", "p50", "p99",
+                "max"));
+        for (int i = 0; i < mHistograms.length; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            sb.append(String.format("%-13s %6d %8.3f %8.3f %8.3f%n", STAGE_NAMES[i],
+                    histogram.getCount(), histogram.getPercentile(50) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the report to a text file.
+     * @param file output file
+     */
+    public void dump(File file) throws IOException {
+        dump(file, "");
+    }
+
+    /**
+     * Appends the report to a text file, followed by other report of the same fix pipeline.
+     * @param file output file
+     * @param otherReport text written after the stage report, e.g. database query latency
+     */
+    public void dump(File file, String otherReport) throws IOException {
+        Writer writer = new FileWriter(file, true);
+        try {
+            writer.write("# " + new Date() + "\n");
+            writer.write(getReport());
+            writer.write(otherReport);
+            writer.write("\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.raulprojects.ekfindoortracker.core;
+
+/**
+ * Estimated user position in map coordinates (meters), with its 2x2 covariance matrix
+ * [pXX pXY; pXY pYY].
+ */
+public class PositionEstimate {
+    public final double x, y;
+    public final double pXX, pXY, pYY;
+
+    public PositionEstimate(double x, double y, double pXX, double pXY, double pYY){
+        this.x = x;
+        this.y = y;
+        this.pXX = pXX;
+        this.pXY = pXY;
+        this.pYY = pYY;
+    }
+
+    @Override
+    public String toString(){
+        return "(" + x + ", " + y + ")";
+    }
+}
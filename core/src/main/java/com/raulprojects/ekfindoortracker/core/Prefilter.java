@@ -0,0 +1,134 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handler class used to filter not necessary WiFi scan results. Known APs and pathloss models
+ * come from an APDataSource: the database in the app, fixed data in replays.
+ */
+public class Prefilter {
+    private final APDataSource mAPDataSource;
+
+    public Prefilter(APDataSource apDataSource){
+        this.mAPDataSource = apDataSource;
+    }
+
+    /**
+     *
+     * @param results WiFi scan results list with the X strongest RSS from X APs
+     * @return WiFi scan results list with all the known AP data and without duplicate BSSIDs
+     */
+    public List<WifiReading> filterEverythingOut (List<WifiReading> results){
+        /* Filters known APs */
+        results = filterKnownAPs (results);
+
+        /* TUT WLAN network has 4 SSIDs for each AP. Therefore, only one must be chosen,
+        filtering out the rest */
+        results = filterSSIDs (results);
+
+        return results;
+
+    }
+
+    /**
+     * Translates RSS to distance by using estimated pathloss model and stores it onto a new List
+     * of APAlgorithmData. Each AP uses its own pathloss model; APs without estimated
+     * coefficients use the model of the BSSID selected.
+     * @param results WiFi scan results list with the X strongest RSS from X APs
+     * @param idBssidApSelected BSSID selected, whose model is the default one
+     * @return List of APAlgorithmData objects with the X AP data (BSSID - estimated distance -
+     * RSS)
+     */
+    public List<APAlgorithmData> translatesRSStoDistance  (List<WifiReading> results,
+                                                            int idBssidApSelected){
+
+        /* Gets pathloss models and known APs, cached in memory */
+        Map<Integer, PathLossModel> pathLossModels = mAPDataSource.getPathLossModels();
+        APRegistry registry = mAPDataSource.getAPRegistry();
+
+        PathLossModel defaultModel = pathLossModels.get(idBssidApSelected);
+        if (defaultModel == null)
+            defaultModel = PathLossModel.NOT_FITTED;
+
+        /* Converts RSS to distance by applying the model of each AP */
+        String BSSID; double estimatedDistance; int RSS;
+        KnownAP knownAP; PathLossModel model;
+        List<APAlgorithmData> algorithmInputDataList = new ArrayList<APAlgorithmData>();
+        for (int i = 0; i < results.size(); i++){
+            BSSID = results.get(i).BSSID;
+            knownAP = registry.getAP(BSSID);
+            RSS = results.get(i).level;
+
+            model = pathLossModels.get(knownAP.id);
+            if (model == null)
+                model = defaultModel;
+
+            /* Empirical pathloss model: d = a + b*RSS + c*RSS² + d*RSS³, precomputed per RSS */
+            estimatedDistance = model.getDistance(RSS);
+
+            algorithmInputDataList.add(new APAlgorithmData(BSSID, estimatedDistance, RSS,
+                    knownAP.x, knownAP.y));
+        }
+        return algorithmInputDataList;
+    }
+
+
+    /**
+     * Compares WiFi AP scan results with known APs and remove those that are not in it. Known
+     * APs are looked up in the in-memory APRegistry, so no query is run unless the registry
+     * must be loaded.
+     * @param results WiFi scan results list with all the AP data scanned
+     * @return WiFi scan results list with AP data already filtered.
+     */
+    private List<WifiReading> filterKnownAPs (List<WifiReading> results){
+        /* Sort Scan results list by BSSID */
+
+        Collections.sort(results, new Comparator<WifiReading>() {
+            public int compare(WifiReading one, WifiReading other) {
+                return one.BSSID.compareTo(other.BSSID);
+            }
+        });
+
+        APRegistry registry = mAPDataSource.getAPRegistry();
+
+        /* Removes every item which is not in known AP table */
+        Iterator<WifiReading> iterator = results.iterator();
+        while (iterator.hasNext()) {
+            WifiReading result = iterator.next();
+            KnownAP knownAP = registry.findScannedAP(result.BSSID);
+            if (knownAP == null)
+                iterator.remove();
+            else // Overwrite with common BSSID name (bssid without last digit)
+                result.BSSID = knownAP.name;
+        }
+        return results;
+    }
+
+    /**
+     * Filters duplicate BSSIDs out caused by different TUT SSIDs.
+     * NOTE: TUT WLAN network provides four BSSIDs (MACs) for each AP, one for each SSID: TUT,
+     * TUT-WPA, LANGATON-WPA and eduroam. Since these four BSSIDs represent the same position and
+     * same power level (this is not actually true), only one must prevail.
+     *
+     * @param results WiFi scan results list with all the known AP data
+     * @return WiFi scan results list with all the known AP data and without duplicate BSSIDs
+     */
+    private List<WifiReading> filterSSIDs (List<WifiReading> results){
+        // It adds the contents of wifi scan results to a Map which will not allow duplicates and
+        // then add the Map back to the wifi scan List.
+        Map<String, WifiReading> map = new LinkedHashMap<String, WifiReading>();
+        for (WifiReading ays : results) {
+            map.put(ays.BSSID.toString(), ays);
+        }
+        results.clear();
+        results.addAll(map.values());
+        return results;
+    }
+
+}
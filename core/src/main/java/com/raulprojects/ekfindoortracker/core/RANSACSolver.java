@@ -0,0 +1,327 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Outlier-robust position estimate: RANSAC over minimal AP subsets, refined with its inliers.
+ *
+ *      1. Hypotheses: WCLSSolver fix of a subset of MIN_APS APs.
+ *      2. Consensus: an AP is an inlier of a hypothesis if its range residual is within
+ *      max(inlierRatio * d, MIN_INLIER_DISTANCE), since range error grows with distance. The
+ *      best hypothesis has the most inliers; ties are broken by the truncated cost
+ *      sum(min((r/t)², 1)), then by the lowest hypothesis index.
+ *      3. Refinement: LMSolver over the inliers of the best hypothesis, started from it.
+ *
+ * A single wrong range, e.g. a duplicate BSSID heard through a wall, only spoils the subsets
+ * that contain it, and it is left out of the refinement.
+ *
+ * With few APs every subset is tried, in order. Otherwise maxHypotheses subsets are drawn at
+ * random and split in chunks of HYPOTHESES_PER_TASK over a ForkJoinPool. Subset h only depends
+ * on the seed and h, and ties are broken by index, so the result does not depend on how the
+ * chunks are scheduled nor on the pool: it only depends on the seed and the input.
+ *
+ * The time budget is a fail-safe well above the usual solve time, not a stopping rule. Once it
+ * is over, every chunk stops drawing after at least one hypothesis, so a solve under heavy load
+ * cannot stall the tracker, but its result then depends on timing. Such solves are counted in
+ * getBudgetOverruns(). Replays which must be reproducible use NO_TIME_BUDGET.
+ *
+ * WCLSSolver is stateless, hence hypotheses share it; the refinement runs on the calling
+ * thread. An instance must only be used by one thread.
+ */
+public class RANSACSolver {
+
+    public static final int MIN_APS = WCLSSolver.MIN_APS;
+    public static final int DEFAULT_MAX_HYPOTHESES = 64;
+    public static final double DEFAULT_INLIER_RATIO = 0.5;
+    public static final long DEFAULT_TIME_BUDGET_NANOS = 20000000; // 20 ms, fail-safe only
+    public static final long NO_TIME_BUDGET = 0;
+    public static final int HYPOTHESES_PER_TASK = 16;
+
+    // Residuals below this are always inliers, so that near APs are not too strict
+    public static final double MIN_INLIER_DISTANCE = 2;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final ForkJoinPool mPool;
+    private final long mSeed;
+    private final int mMaxHypotheses;
+    private final double mInlierRatio;
+    private final long mTimeBudgetNanos;
+    private final WCLSSolver mWCLSSolver = new WCLSSolver();
+    private final LMSolver mLMSolver = new LMSolver();
+    private final List<APAlgorithmData> mInliers = new ArrayList<APAlgorithmData>();
+
+    private int mHypotheses;
+    private int mNumberInliers;
+    private long mBudgetOverruns;
+
+    /**
+     * Solver with the default parameters over the shared pool, one thread per core.
+     * @param seed seed of the random subsets
+     */
+    public RANSACSolver(long seed){
+        this(seed, DEFAULT_TIME_BUDGET_NANOS);
+    }
+
+    /**
+     * Solver with the default parameters over the shared pool, one thread per core.
+     * @param seed seed of the random subsets
+     * @param timeBudgetNanos time after which no more subsets are drawn, or NO_TIME_BUDGET
+     */
+    public RANSACSolver(long seed, long timeBudgetNanos){
+        this(SharedPool.POOL, seed, DEFAULT_MAX_HYPOTHESES, DEFAULT_INLIER_RATIO,
+                timeBudgetNanos);
+    }
+
+    /**
+     * @param pool pool the hypotheses run in, or null to run them on the calling thread
+     * @param seed seed of the random subsets
+     * @param maxHypotheses maximum number of subsets tried per solve
+     * @param inlierRatio inlier threshold as a fraction of the estimated distance
+     * @param timeBudgetNanos time after which no more subsets are drawn, or NO_TIME_BUDGET
+     */
+    public RANSACSolver(ForkJoinPool pool, long seed, int maxHypotheses, double inlierRatio,
+                        long timeBudgetNanos){
+        if (maxHypotheses < 1)
+            throw new IllegalArgumentException("At least one hypothesis is needed");
+        if (!(inlierRatio > 0))
+            throw new IllegalArgumentException("Inlier ratio must be positive");
+        mPool = pool;
+        mSeed = seed;
+        mMaxHypotheses = maxHypotheses;
+        mInlierRatio = inlierRatio;
+        mTimeBudgetNanos = timeBudgetNanos;
+    }
+
+    /**
+     * @param algInputList List of APAlgorithmData objects with N >= 3 AP data (BSSID -
+     *                     estimated distance - RSS), in any order
+     * @return User position estimated, with its covariance
+     * @throws IllegalArgumentException if there are less than 3 APs or no subset has a valid
+     * geometry
+     */
+    public PositionEstimate solve(List<APAlgorithmData> algInputList){
+        int numberAPs = algInputList.size();
+        if (numberAPs < MIN_APS)
+            throw new IllegalArgumentException("RANSAC needs at least " + MIN_APS + " APs");
+        long deadline = mTimeBudgetNanos > 0 ? System.nanoTime() + mTimeBudgetNanos
+                : NO_DEADLINE;
+
+        /* Best hypothesis: every subset, or random ones in parallel */
+        Hypothesis best;
+        long numberSubsets = (long) numberAPs * (numberAPs - 1) * (numberAPs - 2) / 6;
+        int numberHypotheses = (int) Math.min(numberSubsets, mMaxHypotheses);
+        if (numberSubsets <= mMaxHypotheses) {
+            best = tryEverySubset(algInputList, deadline);
+        } else {
+            HypothesisTask task = new HypothesisTask(algInputList, 0, mMaxHypotheses, deadline);
+            best = mPool == null || mMaxHypotheses <= HYPOTHESES_PER_TASK
+                    ? task.tryRange() : mPool.invoke(task);
+        }
+        mHypotheses = best.tried;
+        if (best.tried < numberHypotheses)
+            mBudgetOverruns++;
+        if (best.index < 0)
+            throw new IllegalArgumentException("Nearly singular matrix");
+
+        /* Refinement with the inliers of the best hypothesis */
+        mInliers.clear();
+        for (int k = 0; k < numberAPs; k++) {
+            APAlgorithmData apData = algInputList.get(k);
+            if (isInlier(apData, best.x, best.y))
+                mInliers.add(apData);
+        }
+        mNumberInliers = mInliers.size();
+        List<APAlgorithmData> refinementList = mNumberInliers >= LMSolver.MIN_APS
+                ? mInliers : algInputList;
+        return mLMSolver.solve(refinementList, best.x, best.y);
+    }
+
+    /** @return hypotheses tried by the last solve */
+    public int getHypotheses(){
+        return mHypotheses;
+    }
+
+    /** @return inliers of the best hypothesis of the last solve */
+    public int getNumberInliers(){
+        return mNumberInliers;
+    }
+
+    /** @return solves stopped by the time budget before trying every hypothesis */
+    public long getBudgetOverruns(){
+        return mBudgetOverruns;
+    }
+
+    private Hypothesis tryEverySubset(List<APAlgorithmData> algInputList, long deadline){
+        int numberAPs = algInputList.size();
+        List<APAlgorithmData> subset = createSubsetList();
+        Hypothesis best = new Hypothesis();
+        int h = 0;
+        for (int i = 0; i < numberAPs; i++) {
+            for (int j = i + 1; j < numberAPs; j++) {
+                for (int k = j + 1; k < numberAPs; k++) {
+                    if (h > 0 && deadline != NO_DEADLINE && System.nanoTime() > deadline)
+                        return best;
+                    subset.set(0, algInputList.get(i));
+                    subset.set(1, algInputList.get(j));
+                    subset.set(2, algInputList.get(k));
+                    tryHypothesis(algInputList, subset, h++, best);
+                }
+            }
+        }
+        return best;
+    }
+
+    /* Solves the subset and keeps it in best if it beats it */
+    private void tryHypothesis(List<APAlgorithmData> algInputList,
+                               List<APAlgorithmData> subset, int index, Hypothesis best){
+        best.tried++;
+        PositionEstimate estimate;
+        try {
+            estimate = mWCLSSolver.solve(subset);
+        } catch (IllegalArgumentException e) {
+            return; // nearly collinear subset
+        }
+
+        int inliers = 0;
+        double cost = 0;
+        double threshold, residual, ex, ey;
+        APAlgorithmData apData;
+        for (int k = 0; k < algInputList.size(); k++) {
+            apData = algInputList.get(k);
+            threshold = getThreshold(apData);
+            ex = estimate.x - apData.apX;
+            ey = estimate.y - apData.apY;
+            residual = Math.sqrt(ex*ex + ey*ey) - apData.distance;
+            if (Math.abs(residual) <= threshold) {
+                inliers++;
+                cost += (residual / threshold) * (residual / threshold);
+            } else {
+                cost += 1;
+            }
+        }
+        if (best.isBeatenBy(inliers, cost, index)) {
+            best.x = estimate.x;
+            best.y = estimate.y;
+            best.inliers = inliers;
+            best.cost = cost;
+            best.index = index;
+        }
+    }
+
+    private boolean isInlier(APAlgorithmData apData, double x, double y){
+        double ex = x - apData.apX, ey = y - apData.apY;
+        double residual = Math.sqrt(ex*ex + ey*ey) - apData.distance;
+        return Math.abs(residual) <= getThreshold(apData);
+    }
+
+    private double getThreshold(APAlgorithmData apData){
+        return Math.max(mInlierRatio * Math.abs(apData.distance), MIN_INLIER_DISTANCE);
+    }
+
+    private static List<APAlgorithmData> createSubsetList(){
+        List<APAlgorithmData> subset = new ArrayList<APAlgorithmData>(MIN_APS);
+        for (int i = 0; i < MIN_APS; i++)
+            subset.add(null);
+        return subset;
+    }
+
+    /* SplitMix64 finaliser: random bits of subset h only depend on the seed and h */
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Best hypothesis of a set of subsets, index -1 if none was valid */
+    private static class Hypothesis {
+        double x, y;
+        int inliers;
+        double cost;
+        int index = -1;
+        int tried;
+
+        boolean isBeatenBy(int otherInliers, double otherCost, int otherIndex){
+            if (index < 0)
+                return true;
+            if (otherInliers != inliers)
+                return otherInliers > inliers;
+            if (otherCost != cost)
+                return otherCost < cost;
+            return otherIndex < index;
+        }
+    }
+
+    /** Random subsets [from, to), split in halves down to HYPOTHESES_PER_TASK */
+    private class HypothesisTask extends RecursiveTask<Hypothesis> {
+        private final List<APAlgorithmData> algInputList;
+        private final int from, to;
+        private final long deadline;
+
+        HypothesisTask(List<APAlgorithmData> algInputList, int from, int to, long deadline){
+            this.algInputList = algInputList;
+            this.from = from;
+            this.to = to;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected Hypothesis compute() {
+            if (to - from > HYPOTHESES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                HypothesisTask second = new HypothesisTask(algInputList, middle, to, deadline);
+                second.fork();
+                Hypothesis best = new HypothesisTask(algInputList, from, middle, deadline)
+                        .compute();
+                Hypothesis other = second.join();
+                if (other.index >= 0
+                        && best.isBeatenBy(other.inliers, other.cost, other.index)) {
+                    other.tried += best.tried;
+                    return other;
+                }
+                best.tried += other.tried;
+                return best;
+            }
+            return tryRange();
+        }
+
+        /* Every subset of the range on the current thread */
+        Hypothesis tryRange(){
+            int numberAPs = algInputList.size();
+            List<APAlgorithmData> subset = createSubsetList();
+            Hypothesis best = new Hypothesis();
+            int i, j, k;
+            long bits;
+            for (int h = from; h < to; h++) {
+                if (h > from && deadline != NO_DEADLINE && System.nanoTime() > deadline)
+                    break;
+                /* 3 distinct APs from the random bits of subset h */
+                bits = mix(mSeed + (h + 1) * GOLDEN_GAMMA);
+                i = (int) ((bits & 0xffff) * numberAPs >>> 16);
+                j = (int) (((bits >>> 16) & 0xffff) * (numberAPs - 1) >>> 16);
+                k = (int) (((bits >>> 32) & 0xffff) * (numberAPs - 2) >>> 16);
+                if (j >= i)
+                    j++;
+                if (k >= Math.min(i, j))
+                    k++;
+                if (k >= Math.max(i, j))
+                    k++;
+                subset.set(0, algInputList.get(i));
+                subset.set(1, algInputList.get(j));
+                subset.set(2, algInputList.get(k));
+                tryHypothesis(algInputList, subset, h, best);
+            }
+            return best;
+        }
+    }
+
+    /* Pool shared by every solver, created on first use */
+    private static class SharedPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,18 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.List;
+
+/**
+ * One WiFi scan: the time it was received and its AP readings. It is the input of FixPipeline
+ * and the record of scan logs.
+ */
+public class RecordedScan {
+    /** System.nanoTime() when the scan was received. Only differences are meaningful. */
+    public final long timestamp;
+    public final List<WifiReading> readings;
+
+    public RecordedScan(long timestamp, List<WifiReading> readings){
+        this.timestamp = timestamp;
+        this.readings = readings;
+    }
+}
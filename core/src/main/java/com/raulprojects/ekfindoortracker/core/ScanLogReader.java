@@ -0,0 +1,140 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the scans of a binary scan log written by ScanLogWriter, in order. The file is read
+ * through a FileChannel into a buffer, so reading a scan does no I/O most of the time.
+ *
+ * Session records are not returned as scans: after next(), getSession() tells the session of
+ * the returned scan. Scan timestamps are only comparable within a session.
+ * This class is not thread-safe.
+ */
+public class ScanLogReader implements Closeable {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final char[] mBssidChars = new char[17];
+    private boolean mIsEndOfFile;
+    private boolean mIsTruncated;
+    private int mSession = -1;
+    private long mSessionStartMillis;
+
+    /**
+     * Opens a scan log and checks its header.
+     * @param file scan log file
+     */
+    public ScanLogReader(File file) throws IOException {
+        mChannel = new FileInputStream(file).getChannel();
+        mBuffer = ByteBuffer.allocate(ScanLogWriter.BUFFER_SIZE);
+        mBuffer.flip();
+        if (!fill(ScanLogWriter.HEADER_SIZE) || mBuffer.getInt() != ScanLogWriter.MAGIC) {
+            mChannel.close();
+            throw new IOException("Not a scan log: " + file);
+        }
+        int version = mBuffer.getInt();
+        if (version != ScanLogWriter.VERSION) {
+            mChannel.close();
+            throw new IOException("Unsupported scan log version " + version);
+        }
+    }
+
+    /**
+     * @return next scan of the log, or null at the end of the log. BSSIDs are lower case.
+     */
+    public RecordedScan next() throws IOException {
+        int length, count;
+        long timestamp;
+        while (true) {
+            if (!fill(4))
+                return null;
+            length = mBuffer.getInt();
+            if (length < ScanLogWriter.RECORD_HEADER_SIZE
+                    || length > ScanLogWriter.RECORD_HEADER_SIZE
+                    + ScanLogWriter.MAX_READINGS * ScanLogWriter.READING_SIZE)
+                throw new IOException("Corrupted scan log: record of " + length + " bytes");
+            if (!fill(length)) {
+                // Last record was cut while it was being written
+                mIsTruncated = true;
+                return null;
+            }
+
+            timestamp = mBuffer.getLong();
+            count = mBuffer.getShort() & 0xffff;
+            if (!ScanLogWriter.isValidRecord(length, count))
+                throw new IOException("Corrupted scan log: " + count + " readings in "
+                        + length + " bytes");
+            if (count != ScanLogWriter.SESSION_MARKER)
+                break;
+            mSession++;
+            mSessionStartMillis = timestamp;
+        }
+        List<WifiReading> readings = new ArrayList<WifiReading>(count);
+        String bssid; int level, frequency;
+        for (int i = 0; i < count; i++) {
+            bssid = getBssid();
+            level = mBuffer.get();
+            frequency = mBuffer.getShort() & 0xffff;
+            readings.add(new WifiReading(bssid, level, frequency));
+        }
+        return new RecordedScan(timestamp, readings);
+    }
+
+    /** @return session of the last scan returned by next(), from 0 */
+    public int getSession(){
+        return mSession;
+    }
+
+    /** @return wall-clock time (System.currentTimeMillis()) when that session started */
+    public long getSessionStartMillis(){
+        return mSessionStartMillis;
+    }
+
+    /** @return true if the log ended with an incomplete record, which has been skipped */
+    public boolean isTruncated(){
+        return mIsTruncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Makes sure that the buffer has at least the given number of bytes to read.
+     * @return false if the end of the file comes first
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (mBuffer.remaining() >= bytes)
+            return true;
+        mBuffer.compact();
+        while (mBuffer.position() < bytes && !mIsEndOfFile) {
+            if (mChannel.read(mBuffer) < 0)
+                mIsEndOfFile = true;
+        }
+        mBuffer.flip();
+        return mBuffer.remaining() >= bytes;
+    }
+
+    /** Decodes 6 bytes as aa:bb:cc:dd:ee:ff */
+    private String getBssid(){
+        int b;
+        for (int i = 0; i < 6; i++) {
+            b = mBuffer.get() & 0xff;
+            mBssidChars[3*i] = HEX_DIGITS[b >>> 4];
+            mBssidChars[3*i + 1] = HEX_DIGITS[b & 0xf];
+            if (i < 5)
+                mBssidChars[3*i + 2] = ':';
+        }
+        return new String(mBssidChars);
+    }
+}
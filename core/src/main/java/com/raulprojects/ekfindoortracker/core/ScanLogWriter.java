@@ -0,0 +1,231 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Appends WiFi scans to a binary scan log, which ScanLogReader reads back. The log is:
+ *
+ *      header:  int MAGIC, int VERSION
+ *      record:  int length of the rest of the record in bytes
+ *               long timestamp (System.nanoTime() when the scan was received)
+ *               short number of readings
+ *               per reading: 6 bytes BSSID, byte level (dBm), short frequency (MHz)
+ *
+ * in big-endian order, so a 20-AP scan takes 194 bytes.
+ *
+ * Every time the log is opened a session record is appended, with SESSION_MARKER as number of
+ * readings and the wall-clock time of the session start (System.currentTimeMillis()) as
+ * timestamp. System.nanoTime() has no common origin across processes or reboots, so scan
+ * timestamps are only comparable within their session.
+ *
+ * Records are length-prefixed, hence a record cut by a crash at the end of the log is detected.
+ * On open, the log is truncated after its last complete record, so that later sessions are not
+ * appended behind an incomplete one.
+ *
+ * Records are encoded into a buffer which is written through a FileChannel when it is full,
+ * on flush() and on close(), so appending a scan does no I/O most of the time.
+ * This class is not thread-safe.
+ */
+public class ScanLogWriter implements Closeable {
+
+    public static final int MAGIC = 0x454b4653; // "EKFS"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 8;
+    public static final int MAX_READINGS = 4096;
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int SESSION_MARKER = 0xffff; // number of readings of session records
+
+    static final int RECORD_HEADER_SIZE = 8 + 2;
+    static final int READING_SIZE = 6 + 1 + 2;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private long mNumberScans;
+    private long mDiscardedBytes;
+
+    /**
+     * Opens a scan log for appending and starts a new session now.
+     * @param file scan log file
+     */
+    public ScanLogWriter(File file) throws IOException {
+        this(file, System.currentTimeMillis());
+    }
+
+    /**
+     * Opens a scan log for appending, writes the header if it is a new one, drops an incomplete
+     * last record and starts a new session.
+     * @param file scan log file
+     * @param sessionStartMillis wall-clock time of the session start
+     * @throws IOException if the file is not a scan log of this version
+     */
+    public ScanLogWriter(File file, long sessionStartMillis) throws IOException {
+        mChannel = new RandomAccessFile(file, "rw").getChannel();
+        mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            long size = mChannel.size();
+            long end = size >= HEADER_SIZE ? findEndOfLastRecord(size) : 0;
+            if (end < size) {
+                mChannel.truncate(end);
+                mDiscardedBytes = size - end;
+            }
+            mChannel.position(end);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+        mBuffer.clear();
+        if (mChannel.position() == 0) {
+            mBuffer.putInt(MAGIC);
+            mBuffer.putInt(VERSION);
+        }
+        mBuffer.putInt(RECORD_HEADER_SIZE);
+        mBuffer.putLong(sessionStartMillis);
+        mBuffer.putShort((short) SESSION_MARKER);
+    }
+
+    /**
+     * Appends a scan to the log. A rejected scan leaves nothing in the log.
+     * @param timestamp System.nanoTime() when the scan was received
+     * @param readings AP readings of the scan, BSSIDs as aa:bb:cc:dd:ee:ff
+     * @throws IllegalArgumentException if there are too many readings or a BSSID is invalid
+     */
+    public void append(long timestamp, List<WifiReading> readings) throws IOException {
+        int count = readings.size();
+        if (count > MAX_READINGS)
+            throw new IllegalArgumentException("A scan can have at most " + MAX_READINGS
+                    + " readings");
+        // Every reading is checked before the record is started, so that no half is buffered
+        for (int i = 0; i < count; i++) {
+            if (!isValidBssid(readings.get(i).BSSID))
+                throw new IllegalArgumentException("Invalid BSSID: " + readings.get(i).BSSID);
+        }
+        int length = RECORD_HEADER_SIZE + count * READING_SIZE;
+        if (mBuffer.remaining() < 4 + length)
+            writeBuffer();
+
+        mBuffer.putInt(length);
+        mBuffer.putLong(timestamp);
+        mBuffer.putShort((short) count);
+        WifiReading reading;
+        for (int i = 0; i < count; i++) {
+            reading = readings.get(i);
+            putBssid(reading.BSSID);
+            mBuffer.put((byte) reading.level);
+            mBuffer.putShort((short) reading.frequency);
+        }
+        mNumberScans++;
+    }
+
+    /** Appends a scan to the log */
+    public void append(RecordedScan scan) throws IOException {
+        append(scan.timestamp, scan.readings);
+    }
+
+    /** Writes buffered scans to the file, without forcing them to the storage device */
+    public void flush() throws IOException {
+        writeBuffer();
+    }
+
+    /** @return scans appended since the log was opened */
+    public long getNumberScans(){
+        return mNumberScans;
+    }
+
+    /** @return bytes of an incomplete last record which were dropped when the log was opened */
+    public long getDiscardedBytes(){
+        return mDiscardedBytes;
+    }
+
+    /**
+     * @param length length of a record after its length field
+     * @param count its number of readings, or SESSION_MARKER
+     * @return true if both fields are consistent
+     */
+    static boolean isValidRecord(int length, int count){
+        if (count == SESSION_MARKER)
+            return length == RECORD_HEADER_SIZE;
+        return count <= MAX_READINGS && length == RECORD_HEADER_SIZE + count * READING_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBuffer();
+        } finally {
+            mChannel.close();
+        }
+    }
+
+    /**
+     * Checks the header and walks the records of an existing log. Only record headers are
+     * decoded, a buffer of the file at a time.
+     * @return offset right after the last complete record
+     */
+    private long findEndOfLastRecord(long size) throws IOException {
+        read(0);
+        if (mBuffer.getInt(0) != MAGIC)
+            throw new IOException("Not a scan log");
+        int version = mBuffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported scan log version " + version);
+
+        long end = HEADER_SIZE;
+        int offset, length;
+        while (size - end >= 4 + RECORD_HEADER_SIZE) {
+            read(end);
+            offset = 0;
+            while (offset + 4 + RECORD_HEADER_SIZE <= mBuffer.limit()) {
+                length = mBuffer.getInt(offset);
+                if (!isValidRecord(length, mBuffer.getShort(offset + 12) & 0xffff)
+                        || end + offset + 4 + length > size)
+                    return end + offset;
+                offset += 4 + length;
+            }
+            end += offset;
+        }
+        return end;
+    }
+
+    /* Fills the buffer from the given file position, or up to the end of the file */
+    private void read(long position) throws IOException {
+        mBuffer.clear();
+        int read = 0;
+        while (mBuffer.hasRemaining() && read >= 0)
+            read = mChannel.read(mBuffer, position + mBuffer.position());
+        mBuffer.flip();
+    }
+
+    private void writeBuffer() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+        mBuffer.clear();
+    }
+
+    /** Encodes aa:bb:cc:dd:ee:ff as 6 bytes */
+    private void putBssid(String bssid){
+        for (int i = 0; i < 6; i++) {
+            int high = Character.digit(bssid.charAt(3*i), 16);
+            int low = Character.digit(bssid.charAt(3*i + 1), 16);
+            mBuffer.put((byte) (high << 4 | low));
+        }
+    }
+
+    /** @return true if the BSSID is 6 hexadecimal bytes, as putBssid() needs */
+    private static boolean isValidBssid(String bssid){
+        if (bssid == null || bssid.length() != 17)
+            return false;
+        for (int i = 0; i < 6; i++) {
+            if (Character.digit(bssid.charAt(3*i), 16) < 0
+                    || Character.digit(bssid.charAt(3*i + 1), 16) < 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replays a scan log recorded by MapViewActivity through FixPipeline, i.e. through the same
+ * Prefilter -> LSAlgorithm -> EKFAlgorithmData stages as live scans, without database nor WiFi:
+ * known APs are the seeded Tietotalo ones and pathloss models are given.
+ *
+ *      ScanReplay <scan log> [speed] [a b c d]
+ *
+ *          speed       0 replays as fast as possible (default), otherwise it is a multiple
+ *                      of real time, e.g. 10 replays a 10-minute log in 1 minute. Recording
+ *                      sessions of the log are replayed one after another, without the gap
+ *                      between them
+ *          a b c d     pathloss model of AP 3, which is the default model of every AP
+ *
+ * Fixes are printed to standard output as "scan,timestamp,x,y,known APs", so two runs can be
+ * diffed, and counters and stage latencies to standard error. A replay only depends on the log
+ * and the models, hence it is deterministic.
+ */
+public class ScanReplay {
+
+    /** Gets the result of every replayed scan */
+    public interface FixListener {
+        /**
+         * @param scanIndex index of the scan in the log, from 0
+         * @param scan replayed scan, with its readings already filtered
+         * @param pipeline pipeline state after the scan
+         * @param isFix true if the fix has been updated by this scan
+         */
+        void onScan(long scanIndex, RecordedScan scan, FixPipeline pipeline, boolean isFix);
+    }
+
+    public static final int DEFAULT_ID_BSSID_AP_SELECTED = 3;
+
+    private final FixPipeline mPipeline;
+    private final PipelineLatency mLatency;
+    private final double mSpeed;
+
+    // counters
+    private long mScans, mFixes, mFailed;
+    private long mElapsedNanos;
+
+    /**
+     * @param apDataSource known APs and pathloss models
+     * @param idBssidApSelected AP whose pathloss model is the default one
+     * @param speed 0 to replay as fast as possible, otherwise multiple of real time
+     */
+    public ScanReplay(APDataSource apDataSource, int idBssidApSelected, double speed){
+        if (speed < 0)
+            throw new IllegalArgumentException("Speed must not be negative");
+        mLatency = new PipelineLatency();
+        mPipeline = new FixPipeline(apDataSource, idBssidApSelected, mLatency);
+        // No RANSAC time budget: its fixes must not depend on the load of the machine
+        mPipeline.setRANSACSolver(new RANSACSolver(FixPipeline.RANSAC_SEED,
+                RANSACSolver.NO_TIME_BUDGET));
+        mSpeed = speed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScanReplay <scan log> [speed] [a b c d]");
+            System.exit(1);
+        }
+        File log = new File(args[0]);
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        Map<Integer, PathLossModel> models = new HashMap<Integer, PathLossModel>();
+        if (args.length > 5) {
+            double[] coefficients = new double[4];
+            for (int i = 0; i < 4; i++)
+                coefficients[i] = Double.parseDouble(args[2 + i]);
+            models.put(DEFAULT_ID_BSSID_AP_SELECTED, new PathLossModel(coefficients));
+        }
+
+        ScanReplay replay = new ScanReplay(TietotaloFloorPlan.createDataSource(models),
+                DEFAULT_ID_BSSID_AP_SELECTED, speed);
+        replay.replay(log, new FixListener() {
+            @Override
+            public void onScan(long scanIndex, RecordedScan scan, FixPipeline pipeline,
+                               boolean isFix) {
+                if (isFix)
+                    System.out.println(scanIndex + "," + scan.timestamp + ","
+                            + pipeline.getX() + "," + pipeline.getY() + ","
+                            + pipeline.getNumberKnownAPs());
+            }
+        });
+        System.err.print(replay.getStatistics());
+    }
+
+    /**
+     * Replays every scan of a log.
+     * @param log scan log written by ScanLogWriter
+     * @param listener gets the result of every scan, may be null
+     */
+    public void replay(File log, FixListener listener) throws IOException,
+            InterruptedException {
+        ScanLogReader reader = new ScanLogReader(log);
+        try {
+            long start = System.nanoTime();
+            // Scan timestamps are only comparable within a session: pacing restarts on each
+            long sessionStart = start;
+            long firstTimestamp = 0;
+            int session = -1;
+            RecordedScan scan;
+            boolean isFix;
+            long scanStart;
+            while ((scan = reader.next()) != null) {
+                if (reader.getSession() != session) {
+                    session = reader.getSession();
+                    sessionStart = System.nanoTime();
+                    firstTimestamp = scan.timestamp;
+                }
+                if (mSpeed > 0)
+                    waitUntil(sessionStart
+                            + (long) ((scan.timestamp - firstTimestamp) / mSpeed));
+
+                scanStart = System.nanoTime();
+                try {
+                    isFix = mPipeline.estimate(scan);
+                } catch (RuntimeException e) {
+                    // e.g. nearly singular WCLS geometry, as the estimation executor does
+                    mFailed++;
+                    isFix = false;
+                }
+                mLatency.recordSince(PipelineLatency.STAGE_SCAN_TO_FIX, scanStart);
+                if (isFix)
+                    mFixes++;
+                if (listener != null)
+                    listener.onScan(mScans, scan, mPipeline, isFix);
+                mScans++;
+            }
+            mElapsedNanos = System.nanoTime() - start;
+            if (reader.isTruncated())
+                System.err.println("Scan log ends with an incomplete record, skipped");
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void waitUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+            Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+    }
+
+    /** COUNTERS */
+
+    public long getScans(){
+        return mScans;
+    }
+
+    public long getFixes(){
+        return mFixes;
+    }
+
+    /** @return scans whose pipeline threw an exception */
+    public long getFailed(){
+        return mFailed;
+    }
+
+    public PipelineLatency getLatency(){
+        return mLatency;
+    }
+
+    /** @return counters, replay rate, WCLS cache and RANSAC counters and stage latencies */
+    public String getStatistics(){
+        double seconds = mElapsedNanos / 1e9;
+        return String.format("scans=%d fixes=%d failed=%d elapsed=%.3fs rate=%.0f scans/s%n",
+                mScans, mFixes, mFailed, seconds, seconds > 0 ? mScans / seconds : 0)
+                + String.format("wcls geometry cache: hits=%d misses=%d%n",
+                mPipeline.getWCLSCacheHits(), mPipeline.getWCLSCacheMisses())
+                + String.format("ransac budget overruns=%d%n",
+                mPipeline.getRANSACBudgetOverruns())
+                + mLatency.getReport();
+    }
+}
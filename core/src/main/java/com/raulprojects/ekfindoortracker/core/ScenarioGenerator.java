@@ -0,0 +1,365 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Synthetic indoor scenario: devices walking over the floor and scanning WiFi, with the true
+ * position of every scan. It feeds load tests, benchmarks and accuracy evaluations with as many
+ * scans as needed.
+ *
+ * Known APs and pathloss models come from an APDataSource, as in Prefilter. The RSS of each AP
+ * is the one whose distance, through the cubic pathloss model of the AP, is the nearest to the
+ * true distance, plus log-normal shadowing:
+ *
+ *      RSS = model^-1(d) + N(0, rssNoise^2)
+ *
+ * Readings weaker than minRSS are not seen, and each AP also drops out of a scan with
+ * dropoutProbability. Every seen AP is reported through ssidsPerAP BSSIDs, one per TUT WLAN
+ * SSID, which only differ in their last digit and in a small extra noise. Foreign APs, which
+ * Prefilter drops, can be added too.
+ *
+ * Devices follow random waypoints over the map at walkingSpeed, and each one scans every
+ * scanInterval. Scans are generated lazily, round robin over the devices, so only the state of
+ * the devices is kept in memory however many scans are generated. Given the same settings and
+ * seed, the same scans are generated.
+ *
+ *      ScenarioGenerator <scan log> [scans] [devices] [seed]
+ *
+ * writes scans to a scan log, which ScanReplay can replay.
+ */
+public class ScenarioGenerator {
+
+    // Log-distance model which the default cubic model is fitted to
+    public static final double DEFAULT_RSS_1M = -40;
+    public static final double DEFAULT_PATHLOSS_EXPONENT = 3.0;
+    public static final int DEFAULT_ID_BSSID_AP_SELECTED = 3;
+
+    public static final int DEFAULT_MIN_RSS = -95;
+    public static final int DEFAULT_MAX_RSS = -30;
+    public static final double DEFAULT_RSS_NOISE = 4.0;
+    public static final double DEFAULT_SSID_NOISE = 1.0;
+    public static final double DEFAULT_DROPOUT_PROBABILITY = 0.1;
+    public static final int DEFAULT_SSIDS_PER_AP = 4;
+    public static final double DEFAULT_WALKING_SPEED = 1.2; // m/s
+    public static final long DEFAULT_SCAN_INTERVAL_NANOS = 2000000000L;
+
+    // Resolution of the distance to RSS tables
+    private static final double DISTANCE_STEP = 0.1;
+
+    private final List<KnownAP> mAPs;
+    private final PathLossModel[] mModels;
+    private final long mSeed;
+
+    private int mNumberDevices = 1;
+    private double mRssNoise = DEFAULT_RSS_NOISE;
+    private double mSsidNoise = DEFAULT_SSID_NOISE;
+    private double mDropoutProbability = DEFAULT_DROPOUT_PROBABILITY;
+    private int mSsidsPerAP = DEFAULT_SSIDS_PER_AP;
+    private int mForeignAPs = 0;
+    private int mMinRSS = DEFAULT_MIN_RSS;
+    private int mMaxRSS = DEFAULT_MAX_RSS;
+    private double mWalkingSpeed = DEFAULT_WALKING_SPEED;
+    private long mScanIntervalNanos = DEFAULT_SCAN_INTERVAL_NANOS;
+    private double mMapWidth = TietotaloFloorPlan.MAP_WIDTH;
+    private double mMapHeight = TietotaloFloorPlan.MAP_HEIGHT;
+
+    /**
+     * @param apDataSource known APs and pathloss models
+     * @param idBssidApSelected AP whose pathloss model is used by APs without their own one
+     * @param seed seed of every random draw
+     */
+    public ScenarioGenerator(APDataSource apDataSource, int idBssidApSelected, long seed){
+        Map<Integer, PathLossModel> pathLossModels = apDataSource.getPathLossModels();
+        PathLossModel defaultModel = pathLossModels.get(idBssidApSelected);
+        if (defaultModel == null)
+            defaultModel = PathLossModel.NOT_FITTED;
+
+        mAPs = apDataSource.getAPRegistry().getAPs();
+        mModels = new PathLossModel[mAPs.size()];
+        for (int i = 0; i < mModels.length; i++) {
+            PathLossModel model = pathLossModels.get(mAPs.get(i).id);
+            mModels[i] = model != null ? model : defaultModel;
+        }
+        mSeed = seed;
+    }
+
+    /**
+     * @param seed seed of every random draw
+     * @return generator over the seeded Tietotalo APs, whose default pathloss model is fitted to
+     * the log-distance model RSS = DEFAULT_RSS_1M - 10*DEFAULT_PATHLOSS_EXPONENT*log10(d)
+     */
+    public static ScenarioGenerator createTietotalo(long seed){
+        return new ScenarioGenerator(createTietotaloDataSource(), DEFAULT_ID_BSSID_AP_SELECTED,
+                seed);
+    }
+
+    /** @return seeded Tietotalo APs with the fitted log-distance model as default model */
+    public static APDataSource createTietotaloDataSource(){
+        Map<Integer, PathLossModel> models = new HashMap<Integer, PathLossModel>();
+        models.put(DEFAULT_ID_BSSID_AP_SELECTED, PathLossModel.fitLogDistance(DEFAULT_RSS_1M,
+                DEFAULT_PATHLOSS_EXPONENT, DEFAULT_MIN_RSS, DEFAULT_MAX_RSS));
+        return TietotaloFloorPlan.createDataSource(models);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScenarioGenerator <scan log> [scans] [devices] [seed]");
+            System.exit(1);
+        }
+        long numberScans = args.length > 1 ? Long.parseLong(args[1]) : 10000;
+        int numberDevices = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        ScenarioGenerator generator = createTietotalo(seed);
+        generator.setNumberDevices(numberDevices);
+        ScanLogWriter writer = new ScanLogWriter(new File(args[0]));
+        try {
+            Iterator<LabeledScan> scans = generator.scans(numberScans);
+            while (scans.hasNext()) {
+                RecordedScan scan = scans.next().scan;
+                writer.append(scan.timestamp, scan.readings);
+            }
+        } finally {
+            writer.close();
+        }
+        System.err.println(writer.getNumberScans() + " scans written");
+    }
+
+    /**
+     * Lazily generates scans. Each call starts the scenario again from the seed.
+     * @param numberScans number of scans, over every device
+     * @return iterator over scans with their true position
+     */
+    public Iterator<LabeledScan> scans(long numberScans){
+        if (numberScans < 0)
+            throw new IllegalArgumentException("Number of scans must not be negative");
+        return new ScanIterator(numberScans);
+    }
+
+    /** SETTINGS */
+
+    public void setNumberDevices(int numberDevices){
+        if (numberDevices < 1)
+            throw new IllegalArgumentException("At least one device is needed");
+        mNumberDevices = numberDevices;
+    }
+
+    /** @param rssNoise standard deviation of shadowing in dB */
+    public void setRssNoise(double rssNoise){
+        mRssNoise = rssNoise;
+    }
+
+    /** @param ssidNoise standard deviation in dB between BSSIDs of the same AP */
+    public void setSsidNoise(double ssidNoise){
+        mSsidNoise = ssidNoise;
+    }
+
+    /** @param dropoutProbability probability of an AP in range missing from a scan */
+    public void setDropoutProbability(double dropoutProbability){
+        if (dropoutProbability < 0 || dropoutProbability > 1)
+            throw new IllegalArgumentException("Dropout probability must be in [0, 1]");
+        mDropoutProbability = dropoutProbability;
+    }
+
+    /** @param ssidsPerAP BSSIDs reported for each AP, 1 for no duplicates */
+    public void setSsidsPerAP(int ssidsPerAP){
+        if (ssidsPerAP < 1 || ssidsPerAP > 16)
+            throw new IllegalArgumentException("SSIDs per AP must be in [1, 16]");
+        mSsidsPerAP = ssidsPerAP;
+    }
+
+    /** @param foreignAPs unknown APs added to each scan */
+    public void setForeignAPs(int foreignAPs){
+        mForeignAPs = foreignAPs;
+    }
+
+    /**
+     * @param minRSS weakest RSS which is seen, i.e. receiver sensitivity
+     * @param maxRSS strongest RSS, stronger ones are clamped
+     */
+    public void setRSSRange(int minRSS, int maxRSS){
+        if (minRSS > maxRSS)
+            throw new IllegalArgumentException("RSS range is empty");
+        mMinRSS = minRSS;
+        mMaxRSS = maxRSS;
+    }
+
+    /** @param walkingSpeed speed of every device in m/s, 0 for static devices */
+    public void setWalkingSpeed(double walkingSpeed){
+        mWalkingSpeed = walkingSpeed;
+    }
+
+    /** @param scanIntervalNanos time between two scans of the same device */
+    public void setScanInterval(long scanIntervalNanos){
+        if (scanIntervalNanos < 1)
+            throw new IllegalArgumentException("Scan interval must be positive");
+        mScanIntervalNanos = scanIntervalNanos;
+    }
+
+    /** @param width map width in meters, X: [0 - width]
+     *  @param height map height in meters, Y: [0 - height] */
+    public void setMapBounds(double width, double height){
+        mMapWidth = width;
+        mMapHeight = height;
+    }
+
+    /**
+     * For each RSS model, nearest RSS in [minRSS, maxRSS] to every distance, one entry each
+     * DISTANCE_STEP meters up to the map diagonal. Models shared by several APs share a table.
+     */
+    private int[][] createRSSTables(){
+        int numberSteps = (int) Math.ceil(Math.hypot(mMapWidth, mMapHeight) / DISTANCE_STEP) + 1;
+        Map<PathLossModel, int[]> tablesByModel = new IdentityHashMap<PathLossModel, int[]>();
+        int[][] tables = new int[mModels.length][];
+        for (int i = 0; i < mModels.length; i++) {
+            int[] table = tablesByModel.get(mModels[i]);
+            if (table == null) {
+                table = createRSSTable(mModels[i], mAPs.get(i), numberSteps);
+                tablesByModel.put(mModels[i], table);
+            }
+            tables[i] = table;
+        }
+        return tables;
+    }
+
+    private int[] createRSSTable(PathLossModel model, KnownAP ap, int numberSteps){
+        if (model.getDistance(mMinRSS) == model.getDistance(mMaxRSS))
+            throw new IllegalArgumentException("Pathloss model of AP " + ap.id
+                    + " is not fitted");
+        int[] table = new int[numberSteps];
+        for (int step = 0; step < numberSteps; step++) {
+            double distance = step * DISTANCE_STEP;
+            int nearestRSS = mMaxRSS;
+            double nearestError = Double.MAX_VALUE, error;
+            for (int rss = mMaxRSS; rss >= mMinRSS; rss--) {
+                error = Math.abs(model.getDistance(rss) - distance);
+                if (error < nearestError) {
+                    nearestError = error;
+                    nearestRSS = rss;
+                }
+            }
+            table[step] = nearestRSS;
+        }
+        return table;
+    }
+
+    /**
+     * Scans of every device, round robin. Settings are copied when it is created, so changing
+     * them does not affect an iterator in use.
+     */
+    private class ScanIterator implements Iterator<LabeledScan> {
+        private final long numberScans;
+        private final Random random = new Random(mSeed);
+        private final int[][] rssTables = createRSSTables();
+        private final int numberDevices = mNumberDevices;
+        private final double rssNoise = mRssNoise, ssidNoise = mSsidNoise;
+        private final double dropoutProbability = mDropoutProbability;
+        private final int ssidsPerAP = mSsidsPerAP, foreignAPs = mForeignAPs;
+        private final int minRSS = mMinRSS, maxRSS = mMaxRSS;
+        private final double stepLength = mWalkingSpeed * mScanIntervalNanos / 1e9;
+        private final long scanIntervalNanos = mScanIntervalNanos;
+        private final double mapWidth = mMapWidth, mapHeight = mMapHeight;
+
+        // device state: position and waypoint
+        private final double[] x, y, waypointX, waypointY;
+        private long scanIndex;
+
+        ScanIterator(long numberScans){
+            this.numberScans = numberScans;
+            x = new double[numberDevices];
+            y = new double[numberDevices];
+            waypointX = new double[numberDevices];
+            waypointY = new double[numberDevices];
+            for (int i = 0; i < numberDevices; i++) {
+                x[i] = random.nextDouble() * mapWidth;
+                y[i] = random.nextDouble() * mapHeight;
+                waypointX[i] = random.nextDouble() * mapWidth;
+                waypointY[i] = random.nextDouble() * mapHeight;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return scanIndex < numberScans;
+        }
+
+        @Override
+        public LabeledScan next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int device = (int) (scanIndex % numberDevices);
+            long round = scanIndex / numberDevices;
+            // Devices scan evenly spread over the scan interval
+            long timestamp = round * scanIntervalNanos
+                    + device * (scanIntervalNanos / numberDevices);
+            if (round > 0)
+                walk(device);
+            scanIndex++;
+
+            List<WifiReading> readings = new ArrayList<WifiReading>(
+                    mAPs.size() * ssidsPerAP + foreignAPs);
+            double dx, dy, rss;
+            int step;
+            for (int i = 0; i < mAPs.size(); i++) {
+                KnownAP ap = mAPs.get(i);
+                if (random.nextDouble() < dropoutProbability)
+                    continue;
+                dx = x[device] - ap.x;
+                dy = y[device] - ap.y;
+                step = (int) Math.round(Math.sqrt(dx*dx + dy*dy) / DISTANCE_STEP);
+                rss = rssTables[i][Math.min(step, rssTables[i].length - 1)]
+                        + random.nextGaussian() * rssNoise;
+                for (int ssid = 0; ssid < ssidsPerAP; ssid++) {
+                    long level = Math.round(rss + random.nextGaussian() * ssidNoise);
+                    if (level < minRSS)
+                        continue;
+                    readings.add(new WifiReading(ap.name + Integer.toHexString(ssid),
+                            (int) Math.min(level, maxRSS), 2412 + 5*ssid));
+                }
+            }
+            for (int i = 0; i < foreignAPs; i++)
+                readings.add(new WifiReading(String.format("02:00:00:%02x:%02x:%02x",
+                        (device >>> 8) & 0xff, device & 0xff, i & 0xff),
+                        minRSS + random.nextInt(maxRSS - minRSS + 1), 5180));
+            Collections.shuffle(readings, random);
+
+            return new LabeledScan(device, new RecordedScan(timestamp, readings), x[device],
+                    y[device]);
+        }
+
+        /* Moves the device one step towards its waypoint, which is renewed when reached */
+        private void walk(int device){
+            double remaining = stepLength;
+            while (remaining > 0) {
+                double dx = waypointX[device] - x[device];
+                double dy = waypointY[device] - y[device];
+                double distance = Math.sqrt(dx*dx + dy*dy);
+                if (distance > remaining) {
+                    x[device] += dx / distance * remaining;
+                    y[device] += dy / distance * remaining;
+                    return;
+                }
+                x[device] = waypointX[device];
+                y[device] = waypointY[device];
+                remaining -= distance;
+                waypointX[device] = random.nextDouble() * mapWidth;
+                waypointY[device] = random.nextDouble() * mapHeight;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
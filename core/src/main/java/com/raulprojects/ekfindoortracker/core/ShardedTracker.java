@@ -0,0 +1,240 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless tracking engine which estimates the position of many devices at once.
+ *
+ * Devices are sharded by deviceId hash across a fixed pool of worker threads. Each shard owns a
+ * bounded queue and an EKFBatchEngine, and only its worker thread touches that engine. Hence,
+ * the EKF state of a device has a single writer and no lock is needed:
+ *
+ *      submit(scan) --> queue[hash(deviceId) % shards] --> worker: drain, applyBatch, notify
+ *
+ * Scans of the same device are always processed in submission order. The first scan of an
+ * unknown device initialises its state with the weighted centroid of the APs (weights 1/d)
+ * and covariance P0.
+ *
+ * Per-shard queue depth and throughput counters can be read from any thread.
+ */
+public class ShardedTracker {
+
+    /** Receives every updated estimate. It is called from the worker thread of the shard. */
+    public interface EstimateListener {
+        void onEstimate(int deviceId, long timestamp, double x, double y, double pXX,
+                        double pXY, double pYY);
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final double DEFAULT_INITIAL_VARIANCE = 10;
+
+    private final Shard[] shards;
+    private final EstimateListener listener;
+    private final double initialVariance;
+    private volatile boolean isRunning;
+
+    public ShardedTracker(int numberShards, EstimateListener listener){
+        this(numberShards, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_INITIAL_VARIANCE,
+                listener);
+    }
+
+    /**
+     * @param numberShards number of worker threads, usually the number of cores
+     * @param queueCapacity maximum number of pending scans per shard
+     * @param maxBatch maximum number of scans applied in one EKFBatchEngine call
+     * @param initialVariance diagonal of P0 for new devices
+     * @param listener receives updated estimates, it may be null
+     */
+    public ShardedTracker(int numberShards, int queueCapacity, int maxBatch,
+                          double initialVariance, EstimateListener listener){
+        if (numberShards < 1)
+            throw new IllegalArgumentException("At least one shard is needed");
+        this.listener = listener;
+        this.initialVariance = initialVariance;
+        shards = new Shard[numberShards];
+        for (int i = 0; i < numberShards; i++)
+            shards[i] = new Shard(i, queueCapacity, maxBatch);
+    }
+
+    /** Starts every worker thread */
+    public synchronized void start(){
+        if (isRunning)
+            return;
+        isRunning = true;
+        for (Shard shard : shards)
+            shard.start();
+    }
+
+    /**
+     * Stops every worker thread once its queue is empty.
+     * @param timeoutMillis maximum time waited for each worker
+     */
+    public synchronized void shutdown(long timeoutMillis) throws InterruptedException {
+        if (!isRunning)
+            return;
+        isRunning = false;
+        for (Shard shard : shards)
+            shard.worker.join(timeoutMillis);
+    }
+
+    /**
+     * Queues a scan in the shard of its device.
+     * @param scan device scan
+     * @return false if the shard queue is full and the scan has been rejected
+     */
+    public boolean submit(DeviceScan scan){
+        if (!isRunning)
+            throw new IllegalStateException("Tracker is not running");
+        Shard shard = shards[shardOf(scan.deviceId)];
+        if (shard.queue.offer(scan))
+            return true;
+        shard.rejectedScans.incrementAndGet();
+        return false;
+    }
+
+    public int shardOf(int deviceId){
+        int h = deviceId * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length;
+    }
+
+    /** COUNTERS */
+
+    public int getNumberShards(){
+        return shards.length;
+    }
+
+    public int getQueueDepth(int shard){
+        return shards[shard].queue.size();
+    }
+
+    public long getProcessedScans(int shard){
+        return shards[shard].processedScans;
+    }
+
+    public long getRejectedScans(int shard){
+        return shards[shard].rejectedScans.get();
+    }
+
+    public long getBatches(int shard){
+        return shards[shard].batches;
+    }
+
+    public int getNumberDevices(int shard){
+        return shards[shard].numberDevices;
+    }
+
+    /** @return processed scans per second since the shard was started */
+    public double getThroughput(int shard){
+        long elapsed = System.nanoTime() - shards[shard].startTime;
+        return elapsed > 0 ? shards[shard].processedScans / (elapsed / 1e9) : 0;
+    }
+
+    /** @return one line per shard with its counters */
+    public String getStatistics(){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < shards.length; i++) {
+            sb.append(String.format("shard %d: queue=%d devices=%d processed=%d rejected=%d "
+                            + "batches=%d throughput=%.0f scans/s%n", i, getQueueDepth(i),
+                    getNumberDevices(i), getProcessedScans(i), getRejectedScans(i),
+                    getBatches(i), getThroughput(i)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Shard: queue, EKF state of its devices and worker thread. Counters are only written by
+     * the worker, except rejectedScans which is written by submitters.
+     */
+    private class Shard implements Runnable {
+        final BlockingQueue<DeviceScan> queue;
+        final Thread worker;
+        final AtomicLong rejectedScans = new AtomicLong();
+        volatile long processedScans;
+        volatile long batches;
+        volatile int numberDevices;
+        volatile long startTime;
+
+        private final int maxBatch;
+        private final EKFBatchEngine engine = new EKFBatchEngine(1024);
+        private final EKFBatch batch;
+        private final List<DeviceScan> pending;
+        private final double[] initialX = new double[2];
+        private final double[][] initialP = new double[2][2];
+
+        Shard(int index, int queueCapacity, int maxBatch){
+            this.maxBatch = maxBatch;
+            queue = new ArrayBlockingQueue<DeviceScan>(queueCapacity);
+            batch = new EKFBatch(maxBatch, 8);
+            pending = new ArrayList<DeviceScan>(maxBatch);
+            worker = new Thread(this, "tracker-shard-" + index);
+            worker.setDaemon(true);
+        }
+
+        void start(){
+            startTime = System.nanoTime();
+            worker.start();
+        }
+
+        public void run(){
+            try {
+                while (isRunning || !queue.isEmpty()) {
+                    DeviceScan first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+                    pending.add(first);
+                    queue.drainTo(pending, maxBatch - 1);
+                    process();
+                    pending.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void process(){
+            batch.clear();
+            for (int i = 0; i < pending.size(); i++) {
+                DeviceScan scan = pending.get(i);
+                if (!engine.containsDevice(scan.deviceId))
+                    initialiseDevice(scan);
+                batch.beginRecord(scan.deviceId);
+                for (int m = 0; m < scan.getNumberMeasurements(); m++)
+                    batch.addMeasurement(scan.apX[m], scan.apY[m], scan.distance[m]);
+            }
+            engine.applyBatch(batch);
+
+            if (listener != null) {
+                for (int r = 0; r < batch.numberRecords; r++)
+                    listener.onEstimate(batch.deviceIds[r], pending.get(r).timestamp,
+                            batch.estimateX[r], batch.estimateY[r], batch.covarianceXX[r],
+                            batch.covarianceXY[r], batch.covarianceYY[r]);
+            }
+            processedScans += batch.numberRecords;
+            batches++;
+        }
+
+        /* Weighted centroid of the APs, weights 1/d */
+        private void initialiseDevice(DeviceScan scan){
+            double sumWeights = 0, sumX = 0, sumY = 0, weight;
+            for (int m = 0; m < scan.getNumberMeasurements(); m++) {
+                weight = 1.0 / Math.max(scan.distance[m], 1.0);
+                sumWeights += weight;
+                sumX += weight * scan.apX[m];
+                sumY += weight * scan.apY[m];
+            }
+            // Centroid would sit on the AP with only one measurement: shift it by 1 m
+            initialX[0] = sumX / sumWeights + (scan.getNumberMeasurements() == 1 ? 1 : 0);
+            initialX[1] = sumY / sumWeights;
+            initialP[0][0] = initialVariance;
+            initialP[1][1] = initialVariance;
+            engine.addDevice(scan.deviceId, initialX, initialP);
+            numberDevices = engine.getNumberDevices();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.List;
+
+/**
+ * Selects the K strongest APs of a WiFi scan results list in a single pass, without sorting the
+ * whole list.
+ *
+ * A bounded min-heap keeps the K strongest readings seen so far, with the weakest one at its
+ * root: each new reading is only compared with the root, so selection costs O(n log K). The heap
+ * storage is allocated once in the constructor.
+ *
+ * Output order is stable: descending RSS, and ascending BSSID for equal RSS. Hence, the same
+ * scan always gives the same list to downstream estimators, whatever the input order.
+ *
+ * This class is not thread-safe.
+ */
+public class StrongestAPSelector {
+
+    private final WifiReading[] mHeap;
+    private int mHeapSize;
+
+    /**
+     * @param maxK largest K which will be requested
+     */
+    public StrongestAPSelector(int maxK){
+        if (maxK < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        mHeap = new WifiReading[maxK];
+    }
+
+    /**
+     * Gets the K strongest RSS from the results list.
+     * @param results WiFi scan results list, it is not modified
+     * @param k number of APs to select. If results list is shorter, every AP is selected.
+     * @param strongestResults output list, cleared and filled with the selected APs from the
+     *                         strongest to the weakest one
+     * @return strongestResults
+     */
+    public List<WifiReading> select(List<WifiReading> results, int k,
+                                   List<WifiReading> strongestResults){
+        if (k < 1 || k > mHeap.length)
+            throw new IllegalArgumentException("K must be in [1, " + mHeap.length + "]");
+
+        mHeapSize = 0;
+        WifiReading result;
+        for (int i = 0; i < results.size(); i++) {
+            result = results.get(i);
+            if (mHeapSize < k) {
+                mHeap[mHeapSize] = result;
+                siftUp(mHeapSize++);
+            } else if (isStronger(result, mHeap[0])) {
+                mHeap[0] = result;
+                siftDown(0);
+            }
+        }
+
+        /* Heap sort in place: the weakest AP is moved to the end of the heap storage each time */
+        int size = mHeapSize;
+        while (mHeapSize > 1) {
+            result = mHeap[0];
+            mHeap[0] = mHeap[--mHeapSize];
+            mHeap[mHeapSize] = result;
+            siftDown(0);
+        }
+
+        strongestResults.clear();
+        for (int i = 0; i < size; i++) {
+            strongestResults.add(mHeap[i]);
+            mHeap[i] = null;
+        }
+        return strongestResults;
+    }
+
+    /** Strongest RSS first, ascending BSSID when RSS is the same */
+    private static boolean isStronger(WifiReading one, WifiReading other){
+        if (one.level != other.level)
+            return one.level > other.level;
+        return one.BSSID.compareTo(other.BSSID) < 0;
+    }
+
+    private void siftUp(int i){
+        WifiReading result = mHeap[i];
+        int parent;
+        while (i > 0) {
+            parent = (i - 1) >>> 1;
+            if (!isStronger(mHeap[parent], result))
+                break;
+            mHeap[i] = mHeap[parent];
+            i = parent;
+        }
+        mHeap[i] = result;
+    }
+
+    private void siftDown(int i){
+        WifiReading result = mHeap[i];
+        int child;
+        while ((child = 2*i + 1) < mHeapSize) {
+            if (child + 1 < mHeapSize && isStronger(mHeap[child], mHeap[child + 1]))
+                child++;
+            if (!isStronger(result, mHeap[child]))
+                break;
+            mHeap[i] = mHeap[child];
+            i = child;
+        }
+        mHeap[i] = result;
+    }
+}
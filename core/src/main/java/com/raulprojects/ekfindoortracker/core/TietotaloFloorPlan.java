@@ -0,0 +1,61 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * APs of Tietotalo's first floor, as seeded in bssids table: common BSSID name (BSSID without
+ * last digit) and position on the map, X: [0 - 60], Y: [0 - 150]. AP ids follow array order
+ * starting at 1, as rows are inserted in that order.
+ */
+public class TietotaloFloorPlan {
+
+    public static final String[] BSSIDS = {
+            "00:17:0f:d9:71:d", "00:17:0f:d9:6c:8", "00:17:0f:d9:6f:d", "f4:7f:35:f6:ab:a",
+            "18:33:9d:fe:9c:6", "18:33:9d:fe:91:c", "18:33:9d:f9:31:8", "18:33:9d:f9:84:7",
+            "04:da:d2:a7:2f:c", "04:da:d2:29:bf:8", "04:da:d2:57:0a:3", "04:da:d2:29:c4:c",
+            "04:da:d2:57:0a:3", "04:da:d2:56:ee:e", "04:da:d2:29:c2:3", "04:da:d2:57:0d:a",
+            "04:da:d2:29:b4:0", "04:da:d2:57:0e:5"
+    };
+    public static final int[] X_POSITIONS = {
+            44, 29, 46, 39, 50, 40, 51, 40, 32, 19,
+            15, 17, 8, 15, 17, 8, 13, 6
+    };
+    public static final int[] Y_POSITIONS = {
+            11, 28, 40, 61, 72, 100, 102, 115, 138, 146,
+            123, 108, 108, 100, 83, 83, 70, 37
+    };
+
+    public static final int MAP_WIDTH = 60;
+    public static final int MAP_HEIGHT = 150;
+
+    /** @return registry with the seeded APs, the same as loaded from a new database */
+    public static APRegistry createRegistry(){
+        List<KnownAP> knownAPs = new ArrayList<KnownAP>(BSSIDS.length);
+        for (int i = 0; i < BSSIDS.length; i++)
+            knownAPs.add(new KnownAP(i + 1, BSSIDS[i], X_POSITIONS[i], Y_POSITIONS[i]));
+        return new APRegistry(knownAPs);
+    }
+
+    /**
+     * @param pathLossModels pathloss model by AP id
+     * @return data source with the seeded APs and the given models, without database
+     */
+    public static APDataSource createDataSource(Map<Integer, PathLossModel> pathLossModels){
+        final APRegistry registry = createRegistry();
+        final Map<Integer, PathLossModel> models = Collections.unmodifiableMap(pathLossModels);
+        return new APDataSource() {
+            @Override
+            public APRegistry getAPRegistry() {
+                return registry;
+            }
+
+            @Override
+            public Map<Integer, PathLossModel> getPathLossModels() {
+                return models;
+            }
+        };
+    }
+}
@@ -0,0 +1,171 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Deployment settings of the tracker: scan cadence, AP selection, default pathloss model, map
+ * bounds and the estimator with its EKF parameters. They are read from a properties file:
+ *
+ *      scan_interval_ms=2000           time between two WiFi scans
+ *      scan_delay_ms=1000              time before the first scan
+ *      strongest_aps=4                 K strongest APs of the WCLS estimate, at least
+ *                                      MIN_APS_WCLS: with WCLS_STRONGEST, LSAlgorithm solves
+ *                                      4 APs and WCLSSolver more; WCLS_GDOP selects 4 APs
+ *                                      among the K + 2 strongest; WCLS_ALL_APS ignores it
+ *      id_bssid_ap_selected=3          AP whose pathloss model is the default one
+ *      map_width=60                    map bounds in meters, X: [0 - width], Y: [0 - height]
+ *      map_height=150
+ *
+ * followed by the EstimatorConfiguration keys (mode, wcls, kernel, sigma_xy, sigma_meas,
+ * initial_variance), so a file written by EKFTuner is also a valid tracker configuration.
+ * Missing keys take the value of DEFAULT, and every value is validated when loaded.
+ *
+ * Configurations are immutable, hence a new one can be handed over to running threads as a
+ * whole: FixPipeline.setConfiguration() applies it between two scans.
+ */
+public class TrackerConfiguration {
+
+    public static final String KEY_SCAN_INTERVAL = "scan_interval_ms";
+    public static final String KEY_SCAN_DELAY = "scan_delay_ms";
+    public static final String KEY_STRONGEST_APS = "strongest_aps";
+    public static final String KEY_ID_BSSID_AP_SELECTED = "id_bssid_ap_selected";
+    public static final String KEY_MAP_WIDTH = "map_width";
+    public static final String KEY_MAP_HEIGHT = "map_height";
+
+    public static final int MIN_SCAN_INTERVAL = 100; // ms
+    public static final int MAX_STRONGEST_APS = 64;
+
+    public static final TrackerConfiguration DEFAULT = new TrackerConfiguration(2000, 1000,
+            FixPipeline.STRONGEST_APS, 3, TietotaloFloorPlan.MAP_WIDTH,
+            TietotaloFloorPlan.MAP_HEIGHT, EstimatorConfiguration.DEFAULT);
+
+    public final int scanIntervalMillis;
+    public final int scanDelayMillis;
+    public final int strongestAPs;
+    public final int idBssidApSelected;
+    public final double mapWidth, mapHeight;
+    public final EstimatorConfiguration estimator;
+
+    /**
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public TrackerConfiguration(int scanIntervalMillis, int scanDelayMillis, int strongestAPs,
+                                int idBssidApSelected, double mapWidth, double mapHeight,
+                                EstimatorConfiguration estimator){
+        if (scanIntervalMillis < MIN_SCAN_INTERVAL)
+            throw new IllegalArgumentException(KEY_SCAN_INTERVAL + " must be at least "
+                    + MIN_SCAN_INTERVAL);
+        if (scanDelayMillis < 0)
+            throw new IllegalArgumentException(KEY_SCAN_DELAY + " must not be negative");
+        if (strongestAPs < FixPipeline.MIN_APS_WCLS || strongestAPs > MAX_STRONGEST_APS)
+            throw new IllegalArgumentException(KEY_STRONGEST_APS + " must be in ["
+                    + FixPipeline.MIN_APS_WCLS + ", " + MAX_STRONGEST_APS + "]");
+        if (idBssidApSelected < 0)
+            throw new IllegalArgumentException(KEY_ID_BSSID_AP_SELECTED
+                    + " must not be negative");
+        if (!(mapWidth > 0) || !(mapHeight > 0))
+            throw new IllegalArgumentException("Map bounds must be positive");
+        if (estimator == null)
+            throw new IllegalArgumentException("Estimator is needed");
+        this.scanIntervalMillis = scanIntervalMillis;
+        this.scanDelayMillis = scanDelayMillis;
+        this.strongestAPs = strongestAPs;
+        this.idBssidApSelected = idBssidApSelected;
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+        this.estimator = estimator;
+    }
+
+    /** @return copy of this configuration with another estimator */
+    public TrackerConfiguration withEstimator(EstimatorConfiguration estimator){
+        return new TrackerConfiguration(scanIntervalMillis, scanDelayMillis, strongestAPs,
+                idBssidApSelected, mapWidth, mapHeight, estimator);
+    }
+
+    /** @return copy of this configuration with another default pathloss model */
+    public TrackerConfiguration withIdBssidApSelected(int idBssidApSelected){
+        return new TrackerConfiguration(scanIntervalMillis, scanDelayMillis, strongestAPs,
+                idBssidApSelected, mapWidth, mapHeight, estimator);
+    }
+
+    /**
+     * Reads a configuration from a properties file.
+     * @param file properties file
+     * @return configuration, missing keys take the value of DEFAULT
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    public static TrackerConfiguration load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        return fromProperties(properties);
+    }
+
+    /**
+     * @param properties configuration keys, others are ignored
+     * @return configuration, missing keys take the value of DEFAULT
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    public static TrackerConfiguration fromProperties(Properties properties){
+        try {
+            return new TrackerConfiguration(
+                    getInt(properties, KEY_SCAN_INTERVAL, DEFAULT.scanIntervalMillis),
+                    getInt(properties, KEY_SCAN_DELAY, DEFAULT.scanDelayMillis),
+                    getInt(properties, KEY_STRONGEST_APS, DEFAULT.strongestAPs),
+                    getInt(properties, KEY_ID_BSSID_AP_SELECTED, DEFAULT.idBssidApSelected),
+                    getDouble(properties, KEY_MAP_WIDTH, DEFAULT.mapWidth),
+                    getDouble(properties, KEY_MAP_HEIGHT, DEFAULT.mapHeight),
+                    EstimatorConfiguration.fromProperties(properties));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid tracker configuration: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes this configuration as a properties file, estimator keys included.
+     * @param file output file, overwritten
+     * @param comment comment written at the top of the file, may be null
+     */
+    public void store(File file, String comment) throws IOException {
+        Properties properties = estimator.toProperties();
+        properties.setProperty(KEY_SCAN_INTERVAL, Integer.toString(scanIntervalMillis));
+        properties.setProperty(KEY_SCAN_DELAY, Integer.toString(scanDelayMillis));
+        properties.setProperty(KEY_STRONGEST_APS, Integer.toString(strongestAPs));
+        properties.setProperty(KEY_ID_BSSID_AP_SELECTED, Integer.toString(idBssidApSelected));
+        properties.setProperty(KEY_MAP_WIDTH, Double.toString(mapWidth));
+        properties.setProperty(KEY_MAP_HEIGHT, Double.toString(mapHeight));
+        OutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, comment);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static int getInt(Properties properties, String key, int defaultValue){
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static double getDouble(Properties properties, String key, double defaultValue){
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    @Override
+    public String toString(){
+        return "scan every " + scanIntervalMillis + " ms, K=" + strongestAPs + ", AP "
+                + idBssidApSelected + " model, " + estimator.name;
+    }
+}
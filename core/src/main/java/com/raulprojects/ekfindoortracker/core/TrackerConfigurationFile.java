@@ -0,0 +1,128 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Tracker configuration file which is reloaded when it changes. poll() usually only checks the
+ * modification time and length of the file, so it can be called before every scan.
+ *
+ * An edit which keeps the length within the same modification time tick would go unnoticed,
+ * hence the file is also read while its modification time is less than
+ * MTIME_GRANULARITY_MILLIS older than the last read. A read file is only parsed and validated
+ * when the CRC32 of its content differs from the last one read.
+ *
+ * An invalid or unreadable file never replaces the current configuration: the error is kept
+ * in getLastError() and the previous configuration stays in use. A missing file gives DEFAULT.
+ *
+ * Methods are synchronized, so that polls from different threads, e.g. two scanning timers
+ * while one is being replaced, do not overlap.
+ */
+public class TrackerConfigurationFile {
+
+    // Coarsest modification time resolution of common file systems (FAT), in ms
+    public static final long MTIME_GRANULARITY_MILLIS = 2000;
+
+    private static final long CHECKSUM_MISSING = -1; // CRC32 values are non-negative
+    private static final long CHECKSUM_NONE = -2;
+
+    private final File mFile;
+    private TrackerConfiguration mConfiguration = TrackerConfiguration.DEFAULT;
+    private long mLastModified = -1;
+    private long mLastLength = -1;
+    private long mLastReadTime;
+    private long mLastChecksum = CHECKSUM_NONE;
+    private String mLastError;
+
+    /**
+     * @param file properties file, it may not exist yet
+     */
+    public TrackerConfigurationFile(File file){
+        mFile = file;
+    }
+
+    /**
+     * Reloads the file if it has changed since the last call.
+     * @return true if the configuration has changed
+     */
+    public synchronized boolean poll(){
+        long lastModified = mFile.lastModified(); // 0 if the file does not exist
+        long length = mFile.length();
+        // A later write gets a newer time than lastModified, unless it is within a tick of it
+        if (lastModified == mLastModified && length == mLastLength
+                && lastModified < mLastReadTime - MTIME_GRANULARITY_MILLIS)
+            return false;
+        mLastModified = lastModified;
+        mLastLength = length;
+        mLastReadTime = System.currentTimeMillis();
+
+        TrackerConfiguration configuration;
+        try {
+            byte[] content = mFile.exists() ? read() : null;
+            long checksum = content != null ? checksum(content) : CHECKSUM_MISSING;
+            if (checksum == mLastChecksum)
+                return false;
+            mLastChecksum = checksum;
+            configuration = content != null ? parse(content) : TrackerConfiguration.DEFAULT;
+        } catch (IOException e) {
+            mLastError = mFile.getName() + ": " + e.getMessage();
+            return false;
+        } catch (IllegalArgumentException e) {
+            mLastError = mFile.getName() + ": " + e.getMessage();
+            return false;
+        }
+        mLastError = null;
+        if (configuration == mConfiguration)
+            return false;
+        mConfiguration = configuration;
+        return true;
+    }
+
+    /** @return last valid configuration, DEFAULT until a valid file has been read */
+    public synchronized TrackerConfiguration getConfiguration(){
+        return mConfiguration;
+    }
+
+    /** @return error of the last reload, or null if it succeeded */
+    public synchronized String getLastError(){
+        return mLastError;
+    }
+
+    public File getFile(){
+        return mFile;
+    }
+
+    private byte[] read() throws IOException {
+        InputStream input = new FileInputStream(mFile);
+        try {
+            byte[] content = new byte[1024];
+            int length = 0, read;
+            while ((read = input.read(content, length, content.length - length)) >= 0) {
+                length += read;
+                if (length == content.length)
+                    content = Arrays.copyOf(content, length * 2);
+            }
+            return Arrays.copyOf(content, length);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static long checksum(byte[] content){
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
+    private static TrackerConfiguration parse(byte[] content) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(content));
+        return TrackerConfiguration.fromProperties(properties);
+    }
+}
@@ -0,0 +1,112 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.List;
+
+/**
+ * Weighted Circular Least Square with any number of APs (N >= 3), in O(N) time and without
+ * allocating anything but the result.
+ *
+ * It is the same linearisation as LSAlgorithm, with AP r as reference instead of AP1:
+ *
+ *      a_k = [x_k - x_r, y_k - y_r]                        k != r, rows of A
+ *      b_k = 1/2 * (d_r² - d_k² + |AP_k - AP_r|²)
+ *      S   = D + v*1*1',   D = diag(Var(d_k²)),  v = Var(d_r²)
+ *
+ * Every entry of S shares Var(d_r²), so S is diagonal plus rank one and Sherman-Morrison
+ * gives its inverse in closed form:
+ *
+ *      S^-1 = W - c*w*w',   W = D^-1,  w_k = 1/Var(d_k²),  c = v / (1 + v*sum(w_k))
+ *
+ * Hence the normal equations only need running sums over the APs:
+ *
+ *      A'S^-1A = sum(w_k a_k a_k') - c*(sum w_k a_k)(sum w_k a_k)'
+ *      A'S^-1b = sum(w_k a_k b_k)  - c*(sum w_k a_k)(sum w_k b_k)
+ *      x = (A'S^-1A)^-1 * A'S^-1b,     Cov(x) = (A'S^-1A)^-1, up to the scale of S
+ *
+ * and the 2x2 system is solved in closed form. Var(d²) is modelled as d^4, as in
+ * LSAlgorithm, and the reference AP is the one with the smallest variance, i.e. the nearest
+ * one, so that the noise shared by every row is as small as possible.
+ *
+ * This class has no state and can be shared by several threads.
+ */
+public class WCLSSolver {
+
+    public static final int MIN_APS = 3;
+
+    // Distances below this are taken as it in variances, so that no weight is infinite
+    public static final double MIN_VARIANCE_DISTANCE = 0.1;
+
+    /**
+     * @param algInputList List of APAlgorithmData objects with N >= 3 AP data (BSSID -
+     *                     estimated distance - RSS), in any order
+     * @return User position estimated, with its covariance
+     * @throws IllegalArgumentException if there are less than 3 APs or they are nearly
+     * collinear
+     */
+    public PositionEstimate solve(List<APAlgorithmData> algInputList){
+        int numberAPs = algInputList.size();
+        if (numberAPs < MIN_APS)
+            throw new IllegalArgumentException("WCLS needs at least " + MIN_APS + " APs");
+
+        /* Reference AP: smallest variance, i.e. smallest distance */
+        int r = 0;
+        for (int k = 1; k < numberAPs; k++) {
+            if (Math.abs(algInputList.get(k).distance) < Math.abs(algInputList.get(r).distance))
+                r = k;
+        }
+        APAlgorithmData reference = algInputList.get(r);
+        double xr = reference.apX, yr = reference.apY;
+        double dr2 = reference.distance * reference.distance;
+        double v = variance(reference.distance);
+
+        /* Running sums of the weighted normal equations */
+        double sumW = 0, sumWAx = 0, sumWAy = 0, sumWB = 0;
+        double sumWAxAx = 0, sumWAxAy = 0, sumWAyAy = 0, sumWAxB = 0, sumWAyB = 0;
+        double ax, ay, bk, w;
+        APAlgorithmData apData;
+        for (int k = 0; k < numberAPs; k++) {
+            if (k == r)
+                continue;
+            apData = algInputList.get(k);
+            ax = apData.apX - xr;
+            ay = apData.apY - yr;
+            bk = 0.5 * (dr2 - apData.distance * apData.distance + ax*ax + ay*ay);
+            w = 1 / variance(apData.distance);
+
+            sumW += w;
+            sumWAx += w*ax;
+            sumWAy += w*ay;
+            sumWB += w*bk;
+            sumWAxAx += w*ax*ax;
+            sumWAxAy += w*ax*ay;
+            sumWAyAy += w*ay*ay;
+            sumWAxB += w*ax*bk;
+            sumWAyB += w*ay*bk;
+        }
+
+        /* Sherman-Morrison correction of the rank-one term */
+        double c = v / (1 + v*sumW);
+        double m00 = sumWAxAx - c*sumWAx*sumWAx;
+        double m01 = sumWAxAy - c*sumWAx*sumWAy;
+        double m11 = sumWAyAy - c*sumWAy*sumWAy;
+        double g0 = sumWAxB - c*sumWAx*sumWB;
+        double g1 = sumWAyB - c*sumWAy*sumWB;
+
+        double det = m00*m11 - m01*m01;
+        double trace = m00 + m11;
+        if (!(det > 1e-8 * trace * trace))
+            throw new IllegalArgumentException("Nearly singular matrix");
+
+        /* (A'S^-1A)^-1 in closed form */
+        double pXX = m11/det, pXY = -m01/det, pYY = m00/det;
+        return new PositionEstimate(xr + pXX*g0 + pXY*g1, yr + pXY*g0 + pYY*g1, pXX, pXY,
+                pYY);
+    }
+
+    /** Var(d²), modelled as d^4 */
+    private static double variance(double distance){
+        double d = Math.max(Math.abs(distance), MIN_VARIANCE_DISTANCE);
+        double d2 = d*d;
+        return d2*d2;
+    }
+}
@@ -0,0 +1,18 @@
+package com.raulprojects.ekfindoortracker.core;
+
+/**
+ * One AP reading of a WiFi scan: BSSID, RSS level in dBm and frequency in MHz. Field names are
+ * the ones of android.net.wifi.ScanResult, which readings are copied from, but this class has no
+ * Android dependency, so recorded scans can be replayed on a plain JVM.
+ */
+public class WifiReading {
+    public String BSSID;
+    public int level;
+    public int frequency;
+
+    public WifiReading(String BSSID, int level, int frequency){
+        this.BSSID = BSSID;
+        this.level = level;
+        this.frequency = frequency;
+    }
+}
@@ -0,0 +1,67 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation budget of EKFAlgorithmData.applyEKFStep(): once workspaces have grown to the
+ * largest number of measurements, a step must not allocate anything. Allocated bytes are read
+ * from the HotSpot ThreadMXBean, so the test is skipped on JVMs without it.
+ */
+public class EKFAlgorithmDataAllocationTest {
+
+    private static final int WARM_UP_STEPS = 20000;
+    private static final int MEASURED_STEPS = 100000;
+
+    // Reading the counter itself may allocate a few bytes, far below one byte per step
+    private static final long BUDGET_BYTES = 1024;
+
+    @Test
+    public void closedFormStepDoesNotAllocate() {
+        assertNoAllocation(EKFAlgorithmData.KERNEL_CLOSED_FORM);
+    }
+
+    @Test
+    public void ejmlStepDoesNotAllocate() {
+        assertNoAllocation(EKFAlgorithmData.KERNEL_EJML);
+    }
+
+    private static void assertNoAllocation(int kernel) {
+        com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        long threadId = Thread.currentThread().getId();
+
+        // Steps alternate between 4 and 3 measurements: workspaces only grow on the first one
+        List<APAlgorithmData> fourAPs = TietotaloFixture.createAPs(4);
+        List<APAlgorithmData> threeAPs = new ArrayList<APAlgorithmData>(fourAPs.subList(0, 3));
+        EKFAlgorithmData filter = new EKFAlgorithmData(new double[]{20, 50},
+                new double[][]{{10, 0}, {0, 10}}, kernel);
+
+        for (int i = 0; i < WARM_UP_STEPS; i++)
+            filter.applyEKFStep(i % 2 == 0 ? fourAPs : threeAPs);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_STEPS; i++)
+            filter.applyEKFStep(i % 2 == 0 ? fourAPs : threeAPs);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Allocated " + allocated + " bytes over " + MEASURED_STEPS + " steps",
+                allocated <= BUDGET_BYTES);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocated bytes per thread are not available",
+                threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue("Allocated bytes per thread are not supported",
+                hotSpotBean.isThreadAllocatedMemorySupported());
+        hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+        return hotSpotBean;
+    }
+}
@@ -0,0 +1,81 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * KERNEL_CLOSED_FORM must give the same x and P as the KERNEL_EJML reference, step after step,
+ * whatever the number of measurements and the geometry of the APs.
+ */
+public class EKFKernelEquivalenceTest {
+
+    private static final double TOLERANCE = 1e-9; // relative to the magnitude of each entry
+    private static final int NUMBER_STEPS = 20;
+
+    @Test
+    public void kernelsAgreeOnTietotaloAPs() {
+        for (int numberAPs = 1; numberAPs <= TietotaloFloorPlan.BSSIDS.length; numberAPs++) {
+            List<APAlgorithmData> aps = TietotaloFixture.createAPs(numberAPs);
+            assertKernelsAgree(new double[]{25, 60}, aps, "Tietotalo " + numberAPs + " APs");
+        }
+    }
+
+    @Test
+    public void kernelsAgreeOnRandomGeometries() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++) {
+            int numberAPs = 1 + random.nextInt(24);
+            double trueX = random.nextDouble() * 60, trueY = random.nextDouble() * 150;
+            List<APAlgorithmData> aps = new ArrayList<APAlgorithmData>(numberAPs);
+            for (int i = 0; i < numberAPs; i++) {
+                double apX = random.nextDouble() * 60, apY = random.nextDouble() * 150;
+                double distance = Math.hypot(trueX - apX, trueY - apY)
+                        * (1 + 0.2 * random.nextGaussian());
+                aps.add(new APAlgorithmData("ap" + i, distance, -60, apX, apY));
+            }
+            double[] x0 = {trueX + 10 * random.nextGaussian(), trueY + 10 * random.nextGaussian()};
+            assertKernelsAgree(x0, aps, "trial " + trial + ", " + numberAPs + " APs");
+        }
+    }
+
+    @Test
+    public void kernelsAgreeOnCollinearAPs() {
+        // APs along a corridor, the device off the line
+        List<APAlgorithmData> aps = new ArrayList<APAlgorithmData>();
+        for (int i = 0; i < 5; i++)
+            aps.add(new APAlgorithmData("ap" + i, Math.hypot(10, 20 * i - 30), -60, 30, 20 * i));
+        assertKernelsAgree(new double[]{38, 35}, aps, "collinear APs");
+    }
+
+    private static void assertKernelsAgree(double[] x0, List<APAlgorithmData> aps,
+                                           String message) {
+        double[][] P0 = {{10, 1}, {1, 5}};
+        EKFAlgorithmData reference = new EKFAlgorithmData(x0.clone(), copy(P0),
+                EKFAlgorithmData.KERNEL_EJML);
+        EKFAlgorithmData closedForm = new EKFAlgorithmData(x0.clone(), copy(P0),
+                EKFAlgorithmData.KERNEL_CLOSED_FORM);
+        for (int step = 0; step < NUMBER_STEPS; step++) {
+            reference.applyEKFStep(aps);
+            closedForm.applyEKFStep(aps);
+            for (int i = 0; i < reference.x.getNumElements(); i++)
+                assertClose(message + ", step " + step + ", x" + i, reference.x.get(i),
+                        closedForm.x.get(i));
+            for (int i = 0; i < reference.P.getNumElements(); i++)
+                assertClose(message + ", step " + step + ", P" + i, reference.P.get(i),
+                        closedForm.P.get(i));
+        }
+    }
+
+    private static void assertClose(String message, double expected, double actual) {
+        assertEquals(message, expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)));
+    }
+
+    private static double[][] copy(double[][] matrix) {
+        return new double[][]{matrix[0].clone(), matrix[1].clone()};
+    }
+}
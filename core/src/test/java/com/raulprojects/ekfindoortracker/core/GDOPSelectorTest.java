@@ -0,0 +1,84 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Precomputed GDOP tables give the same selections as a search over the subsets, and GDOP
+ * does not depend on which AP is the reference.
+ */
+public class GDOPSelectorTest {
+
+    private static final int NUMBER_CANDIDATES = LSAlgorithm.NUMBER_APS
+            + GDOPSelector.EXTRA_CANDIDATES;
+    private static final int TRIALS = 2000;
+
+    @Test
+    public void precomputedSelectionsMatchSearch(){
+        APRegistry registry = TietotaloFloorPlan.createRegistry();
+        GDOPSelector precomputed = new GDOPSelector(TietotaloFloorPlan.MAP_WIDTH,
+                TietotaloFloorPlan.MAP_HEIGHT);
+        precomputed.precompute(registry, NUMBER_CANDIDATES, LSAlgorithm.NUMBER_APS);
+        GDOPSelector searched = new GDOPSelector(TietotaloFloorPlan.MAP_WIDTH,
+                TietotaloFloorPlan.MAP_HEIGHT);
+
+        Random random = new Random(1);
+        List<APAlgorithmData> expected = new ArrayList<APAlgorithmData>();
+        List<APAlgorithmData> actual = new ArrayList<APAlgorithmData>();
+        for (int t = 0; t < TRIALS; t++) {
+            double x = random.nextDouble() * TietotaloFloorPlan.MAP_WIDTH;
+            double y = random.nextDouble() * TietotaloFloorPlan.MAP_HEIGHT;
+            // Nearest APs, as precomputed, in a strength order of their own
+            List<APAlgorithmData> candidates = nearestAPs(registry, x, y);
+            Collections.shuffle(candidates, random);
+            searched.select(candidates, LSAlgorithm.NUMBER_APS, x, y, expected);
+            precomputed.select(candidates, LSAlgorithm.NUMBER_APS, x, y, actual);
+            assertEquals("trial " + t, expected, actual);
+        }
+        assertEquals(TRIALS, precomputed.getCacheHits());
+        assertEquals(0, precomputed.getCacheMisses());
+    }
+
+    @Test
+    public void gdopDoesNotDependOnReference(){
+        APRegistry registry = TietotaloFloorPlan.createRegistry();
+        Random random = new Random(2);
+        for (int t = 0; t < TRIALS; t++) {
+            double x = random.nextDouble() * TietotaloFloorPlan.MAP_WIDTH;
+            double y = random.nextDouble() * TietotaloFloorPlan.MAP_HEIGHT;
+            List<APAlgorithmData> subset = nearestAPs(registry, x, y)
+                    .subList(0, LSAlgorithm.NUMBER_APS);
+            double gdop = new GDOPSelector(TietotaloFloorPlan.MAP_WIDTH,
+                    TietotaloFloorPlan.MAP_HEIGHT).getGDOP(subset, x, y);
+            for (int r = 1; r < subset.size(); r++) {
+                List<APAlgorithmData> reordered = new ArrayList<APAlgorithmData>(subset);
+                Collections.swap(reordered, 0, r);
+                double other = new GDOPSelector(TietotaloFloorPlan.MAP_WIDTH,
+                        TietotaloFloorPlan.MAP_HEIGHT).getGDOP(reordered, x, y);
+                if (Double.isInfinite(gdop))
+                    assertEquals("trial " + t, gdop, other, 0);
+                else
+                    assertEquals("trial " + t, gdop, other, 1e-4 * gdop);
+            }
+        }
+    }
+
+    /* Candidates nearest to a position, nearest first */
+    private static List<APAlgorithmData> nearestAPs(APRegistry registry, double x, double y){
+        List<APAlgorithmData> aps = new ArrayList<APAlgorithmData>();
+        for (KnownAP knownAP : registry.getAPs()) {
+            double distance = Math.hypot(x - knownAP.x, y - knownAP.y);
+            int i = 0;
+            while (i < aps.size() && aps.get(i).distance <= distance)
+                i++;
+            aps.add(i, new APAlgorithmData(knownAP.name, distance, 0, knownAP.x, knownAP.y));
+        }
+        return new ArrayList<APAlgorithmData>(aps.subList(0, NUMBER_CANDIDATES));
+    }
+}
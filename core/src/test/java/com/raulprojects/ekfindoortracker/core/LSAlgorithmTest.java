@@ -0,0 +1,71 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * LSAlgorithm is the 4-AP case of WCLSSolver: with AP1 instead of the nearest AP as reference,
+ * the weighted least squares estimate and its covariance are the same.
+ */
+public class LSAlgorithmTest {
+
+    private static final int TRIALS = 10000;
+    private static final double TOLERANCE = 1e-6; // relative
+
+    @Test
+    public void estimateMatchesWCLSSolver(){
+        Random random = new Random(1);
+        LSAlgorithm lsAlgorithm = new LSAlgorithm();
+        WCLSSolver solver = new WCLSSolver();
+        int compared = 0;
+        for (int t = 0; t < TRIALS; t++) {
+            List<APAlgorithmData> input = createInput(random);
+            PositionEstimate expected;
+            try {
+                expected = solver.solve(input);
+            } catch (IllegalArgumentException e) {
+                continue; // nearly collinear APs
+            }
+            PositionEstimate actual = lsAlgorithm.applyWCLSAlgorithm(input);
+            assertClose("x " + t, expected.x, actual.x);
+            assertClose("y " + t, expected.y, actual.y);
+            assertClose("pXX " + t, expected.pXX, actual.pXX);
+            assertClose("pXY " + t, expected.pXY, actual.pXY);
+            assertClose("pYY " + t, expected.pYY, actual.pYY);
+            compared++;
+        }
+        assertEquals(TRIALS, compared, TRIALS / 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void collinearAPsAreRejected(){
+        List<APAlgorithmData> input = new ArrayList<APAlgorithmData>();
+        for (int k = 0; k < LSAlgorithm.NUMBER_APS; k++)
+            input.add(new APAlgorithmData("ap" + k, 10 + k, 0, 10, 20 * k));
+        new LSAlgorithm().applyWCLSAlgorithm(input);
+    }
+
+    /* 4 APs over the map, ranges with gaussian noise */
+    private static List<APAlgorithmData> createInput(Random random){
+        double x = random.nextDouble() * TietotaloFloorPlan.MAP_WIDTH;
+        double y = random.nextDouble() * TietotaloFloorPlan.MAP_HEIGHT;
+        List<APAlgorithmData> input = new ArrayList<APAlgorithmData>(LSAlgorithm.NUMBER_APS);
+        for (int k = 0; k < LSAlgorithm.NUMBER_APS; k++) {
+            double apX = random.nextInt(TietotaloFloorPlan.MAP_WIDTH);
+            double apY = random.nextInt(TietotaloFloorPlan.MAP_HEIGHT);
+            double distance = Math.sqrt((x - apX)*(x - apX) + (y - apY)*(y - apY))
+                    + random.nextGaussian() * 2;
+            input.add(new APAlgorithmData("ap" + k, Math.max(distance, 0.5), 0, apX, apY));
+        }
+        return input;
+    }
+
+    private static void assertClose(String message, double expected, double actual){
+        assertEquals(message, expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)));
+    }
+}
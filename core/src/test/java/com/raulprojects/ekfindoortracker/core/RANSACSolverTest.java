@@ -0,0 +1,198 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RANSAC fixes only depend on the seed and the input when there is no time budget: they are
+ * the same across runs, across pools and on the calling thread. Fixes are compared exactly.
+ */
+public class RANSACSolverTest {
+
+    private static final long SEED = FixPipeline.RANSAC_SEED;
+    private static final int MAX_HYPOTHESES = 256;
+    private static final int TRIALS = 300;
+
+    private ForkJoinPool mPool;
+
+    @Before
+    public void createPool(){
+        // More workers than cores, so that chunks interleave even on a single core
+        mPool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void shutdownPool(){
+        mPool.shutdown();
+    }
+
+    @Test
+    public void fixesAreIdenticalAcrossRunsAndThreads(){
+        List<List<APAlgorithmData>> inputs = createInputs(new Random(1));
+        List<PositionEstimate> pool = solveAll(new RANSACSolver(mPool, SEED, MAX_HYPOTHESES,
+                RANSACSolver.DEFAULT_INLIER_RATIO, RANSACSolver.NO_TIME_BUDGET), inputs);
+        List<PositionEstimate> poolAgain = solveAll(new RANSACSolver(mPool, SEED,
+                MAX_HYPOTHESES, RANSACSolver.DEFAULT_INLIER_RATIO,
+                RANSACSolver.NO_TIME_BUDGET), inputs);
+        List<PositionEstimate> callerThread = solveAll(new RANSACSolver(null, SEED,
+                MAX_HYPOTHESES, RANSACSolver.DEFAULT_INLIER_RATIO,
+                RANSACSolver.NO_TIME_BUDGET), inputs);
+
+        for (int i = 0; i < inputs.size(); i++) {
+            assertSameFix("run " + i, pool.get(i), poolAgain.get(i));
+            assertSameFix("caller thread " + i, pool.get(i), callerThread.get(i));
+        }
+    }
+
+    @Test
+    public void sharedPoolMatchesCallerThread(){
+        List<List<APAlgorithmData>> inputs = createInputs(new Random(2));
+        List<PositionEstimate> shared = solveAll(new RANSACSolver(SEED,
+                RANSACSolver.NO_TIME_BUDGET), inputs);
+        List<PositionEstimate> callerThread = solveAll(new RANSACSolver(null, SEED,
+                RANSACSolver.DEFAULT_MAX_HYPOTHESES, RANSACSolver.DEFAULT_INLIER_RATIO,
+                RANSACSolver.NO_TIME_BUDGET), inputs);
+
+        for (int i = 0; i < inputs.size(); i++)
+            assertSameFix("scan " + i, shared.get(i), callerThread.get(i));
+    }
+
+    @Test
+    public void pipelineFixesAreIdenticalAcrossRuns(){
+        ScenarioGenerator generator = ScenarioGenerator.createTietotalo(1);
+        generator.setNumberDevices(1);
+        List<LabeledScan> trace = new ArrayList<LabeledScan>();
+        Iterator<LabeledScan> scans = generator.scans(500);
+        while (scans.hasNext())
+            trace.add(scans.next());
+
+        double[] pool = replay(trace, new RANSACSolver(mPool, SEED,
+                RANSACSolver.DEFAULT_MAX_HYPOTHESES, RANSACSolver.DEFAULT_INLIER_RATIO,
+                RANSACSolver.NO_TIME_BUDGET));
+        double[] poolAgain = replay(trace, new RANSACSolver(SEED, RANSACSolver.NO_TIME_BUDGET));
+        double[] callerThread = replay(trace, new RANSACSolver(null, SEED,
+                RANSACSolver.DEFAULT_MAX_HYPOTHESES, RANSACSolver.DEFAULT_INLIER_RATIO,
+                RANSACSolver.NO_TIME_BUDGET));
+
+        assertTrue(pool.length > 0);
+        assertEquals(pool.length, poolAgain.length);
+        assertEquals(pool.length, callerThread.length);
+        for (int i = 0; i < pool.length; i++) {
+            assertEquals("run " + i, pool[i], poolAgain[i], 0);
+            assertEquals("caller thread " + i, pool[i], callerThread[i], 0);
+        }
+    }
+
+    @Test
+    public void budgetOverrunsAreCounted(){
+        List<List<APAlgorithmData>> inputs = createInputs(new Random(3));
+        RANSACSolver solver = new RANSACSolver(null, SEED, MAX_HYPOTHESES,
+                RANSACSolver.DEFAULT_INLIER_RATIO, 1);
+        int stopped = 0;
+        for (List<APAlgorithmData> input : inputs) {
+            long numberAPs = input.size();
+            try {
+                solver.solve(input);
+            } catch (IllegalArgumentException e) {
+                // Only its hypothesis was collinear
+            }
+            if (numberAPs * (numberAPs - 1) * (numberAPs - 2) / 6 > 1) {
+                // The first hypothesis is always tried, no other fits in 1 ns
+                assertEquals(1, solver.getHypotheses());
+                stopped++;
+            }
+        }
+        assertTrue(stopped > 0);
+        assertEquals(stopped, solver.getBudgetOverruns());
+
+        RANSACSolver unlimited = new RANSACSolver(null, SEED, MAX_HYPOTHESES,
+                RANSACSolver.DEFAULT_INLIER_RATIO, RANSACSolver.NO_TIME_BUDGET);
+        solveAll(unlimited, inputs);
+        assertEquals(0, unlimited.getBudgetOverruns());
+    }
+
+    /* Random APs over the map, ranges with gaussian noise and some gross outliers */
+    private static List<List<APAlgorithmData>> createInputs(Random random){
+        List<List<APAlgorithmData>> inputs = new ArrayList<List<APAlgorithmData>>(TRIALS);
+        for (int t = 0; t < TRIALS; t++) {
+            int numberAPs = RANSACSolver.MIN_APS + random.nextInt(22);
+            double x = random.nextDouble() * TietotaloFloorPlan.MAP_WIDTH;
+            double y = random.nextDouble() * TietotaloFloorPlan.MAP_HEIGHT;
+            List<APAlgorithmData> input = new ArrayList<APAlgorithmData>(numberAPs);
+            for (int k = 0; k < numberAPs; k++) {
+                double apX = random.nextInt(TietotaloFloorPlan.MAP_WIDTH);
+                double apY = random.nextInt(TietotaloFloorPlan.MAP_HEIGHT);
+                double distance = Math.sqrt((x - apX)*(x - apX) + (y - apY)*(y - apY))
+                        + random.nextGaussian() * 2;
+                if (random.nextInt(5) == 0)
+                    distance += 20 + random.nextDouble() * 30;
+                input.add(new APAlgorithmData("ap" + k, Math.max(distance, 0.5), 0, apX, apY));
+            }
+            inputs.add(input);
+        }
+        return inputs;
+    }
+
+    /* Fix of every input, null where no subset had a valid geometry */
+    private static List<PositionEstimate> solveAll(RANSACSolver solver,
+                                                   List<List<APAlgorithmData>> inputs){
+        List<PositionEstimate> fixes = new ArrayList<PositionEstimate>(inputs.size());
+        for (List<APAlgorithmData> input : inputs) {
+            try {
+                fixes.add(solver.solve(input));
+            } catch (IllegalArgumentException e) {
+                fixes.add(null);
+            }
+        }
+        return fixes;
+    }
+
+    /* x and y of every fix of a RANSAC pipeline over the trace */
+    private static double[] replay(List<LabeledScan> trace, RANSACSolver solver){
+        FixPipeline pipeline = new FixPipeline(ScenarioGenerator.createTietotaloDataSource(),
+                ScenarioGenerator.DEFAULT_ID_BSSID_AP_SELECTED, new PipelineLatency(),
+                EstimatorConfiguration.ransac());
+        pipeline.setRANSACSolver(solver);
+        double[] fixes = new double[2 * trace.size()];
+        int numberFixes = 0;
+        for (LabeledScan labeledScan : trace) {
+            List<WifiReading> readings = new ArrayList<WifiReading>();
+            for (WifiReading reading : labeledScan.scan.readings)
+                readings.add(new WifiReading(reading.BSSID, reading.level, reading.frequency));
+            try {
+                if (!pipeline.estimate(new RecordedScan(labeledScan.scan.timestamp, readings)))
+                    continue;
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            fixes[numberFixes++] = pipeline.getX();
+            fixes[numberFixes++] = pipeline.getY();
+        }
+        double[] result = new double[numberFixes];
+        System.arraycopy(fixes, 0, result, 0, numberFixes);
+        return result;
+    }
+
+    private static void assertSameFix(String message, PositionEstimate expected,
+                                      PositionEstimate actual){
+        if (expected == null || actual == null) {
+            assertTrue(message, expected == actual);
+            return;
+        }
+        assertEquals(message, expected.x, actual.x, 0);
+        assertEquals(message, expected.y, actual.y, 0);
+        assertEquals(message, expected.pXX, actual.pXX, 0);
+        assertEquals(message, expected.pXY, actual.pXY, 0);
+        assertEquals(message, expected.pYY, actual.pYY, 0);
+    }
+}
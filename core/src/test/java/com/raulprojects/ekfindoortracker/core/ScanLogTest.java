@@ -0,0 +1,214 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Sessions and crash recovery of scan logs: each ScanLogWriter opens a new session, and an
+ * incomplete last record is dropped when the log is opened again, so that later scans can
+ * still be read.
+ */
+public class ScanLogTest {
+
+    private File mFile;
+
+    @Before
+    public void createFile() throws IOException {
+        mFile = File.createTempFile("scans", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void deleteFile(){
+        mFile.delete();
+    }
+
+    @Test
+    public void sessionsAreReadBack() throws IOException {
+        write(1000, 0, 2);
+        write(2000, 0, 1);
+
+        ScanLogReader reader = new ScanLogReader(mFile);
+        try {
+            assertScan(reader.next(), 0);
+            assertEquals(0, reader.getSession());
+            assertEquals(1000, reader.getSessionStartMillis());
+            assertScan(reader.next(), 1);
+            assertEquals(0, reader.getSession());
+            // Timestamps of the new session start again from 0
+            assertScan(reader.next(), 0);
+            assertEquals(1, reader.getSession());
+            assertEquals(2000, reader.getSessionStartMillis());
+            assertNull(reader.next());
+            assertFalse(reader.isTruncated());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void incompleteRecordIsDroppedOnOpen() throws IOException {
+        write(1000, 0, 3);
+        long complete = mFile.length();
+        // Crash while the last scan was being written: only part of it reached the file
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(complete - 5);
+        } finally {
+            file.close();
+        }
+
+        ScanLogWriter writer = new ScanLogWriter(mFile, 2000);
+        int recordSize = 4 + ScanLogWriter.RECORD_HEADER_SIZE + 2 * ScanLogWriter.READING_SIZE;
+        assertEquals(recordSize - 5, writer.getDiscardedBytes());
+        writer.append(7, createReadings());
+        writer.close();
+
+        assertEquals(Arrays.asList(0L, 1L, 7L), readTimestamps());
+    }
+
+    @Test
+    public void longLogIsCheckedAcrossBuffers() throws IOException {
+        // Several times ScanLogWriter.BUFFER_SIZE, records not aligned with it
+        write(1000, 0, 7000);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+
+        ScanLogWriter writer = new ScanLogWriter(mFile, 2000);
+        writer.append(7, createReadings());
+        writer.close();
+
+        List<Long> timestamps = readTimestamps();
+        assertEquals(7000, timestamps.size());
+        assertEquals(6998L, (long) timestamps.get(6998));
+        assertEquals(7L, (long) timestamps.get(6999));
+    }
+
+    @Test
+    public void zeroFilledTailIsDroppedOnOpen() throws IOException {
+        write(1000, 0, 2);
+        long complete = mFile.length();
+        // Crash after the file size was updated but before its data reached the storage
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(complete + 100);
+        } finally {
+            file.close();
+        }
+
+        ScanLogWriter writer = new ScanLogWriter(mFile, 2000);
+        assertEquals(100, writer.getDiscardedBytes());
+        writer.append(7, createReadings());
+        writer.close();
+
+        assertEquals(Arrays.asList(0L, 1L, 7L), readTimestamps());
+    }
+
+    @Test
+    public void incompleteHeaderIsRewritten() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.writeInt(ScanLogWriter.MAGIC);
+        } finally {
+            file.close();
+        }
+
+        write(1000, 0, 1);
+
+        assertEquals(Arrays.asList(0L), readTimestamps());
+    }
+
+    @Test
+    public void rejectedScanLeavesNothing() throws IOException {
+        ScanLogWriter writer = new ScanLogWriter(mFile, 1000);
+        try {
+            writer.append(0, createReadings());
+            for (String bssid : new String[]{"00:11:22:33:44:zz", null}) {
+                List<WifiReading> readings = createReadings();
+                // The bad reading comes after a valid one
+                readings.add(new WifiReading(bssid, -80, 2437));
+                try {
+                    writer.append(1, readings);
+                    fail("Scan with BSSID " + bssid + " was appended");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+            writer.append(2, createReadings());
+            assertEquals(2, writer.getNumberScans());
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(Arrays.asList(0L, 2L), readTimestamps());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.writeLong(0x1234567890abcdefL);
+        } finally {
+            file.close();
+        }
+
+        new ScanLogWriter(mFile, 1000).close();
+    }
+
+    /* Opens a session and appends scans with timestamps first, first+1... */
+    private void write(long sessionStartMillis, long first, int numberScans) throws IOException {
+        ScanLogWriter writer = new ScanLogWriter(mFile, sessionStartMillis);
+        try {
+            for (int i = 0; i < numberScans; i++)
+                writer.append(first + i, createReadings());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<Long> readTimestamps() throws IOException {
+        List<Long> timestamps = new ArrayList<Long>();
+        ScanLogReader reader = new ScanLogReader(mFile);
+        try {
+            RecordedScan scan;
+            while ((scan = reader.next()) != null)
+                timestamps.add(scan.timestamp);
+            assertFalse(reader.isTruncated());
+        } finally {
+            reader.close();
+        }
+        return timestamps;
+    }
+
+    private static List<WifiReading> createReadings(){
+        List<WifiReading> readings = new ArrayList<WifiReading>();
+        readings.add(new WifiReading("00:11:22:33:44:55", -60, 2412));
+        readings.add(new WifiReading("aa:bb:cc:dd:ee:f0", -75, 5180));
+        return readings;
+    }
+
+    private static void assertScan(RecordedScan scan, long timestamp){
+        assertEquals(timestamp, scan.timestamp);
+        assertEquals(2, scan.readings.size());
+        assertEquals("aa:bb:cc:dd:ee:f0", scan.readings.get(1).BSSID);
+        assertEquals(-75, scan.readings.get(1).level);
+        assertEquals(5180, scan.readings.get(1).frequency);
+    }
+}
@@ -0,0 +1,22 @@
+package com.raulprojects.ekfindoortracker.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AP fixtures shared by the EKF tests, built from the seeded Tietotalo APs.
+ */
+class TietotaloFixture {
+
+    /** APs around the Tietotalo map with the distances from (20, 50) */
+    static List<APAlgorithmData> createAPs(int numberAPs) {
+        List<APAlgorithmData> aps = new ArrayList<APAlgorithmData>(numberAPs);
+        for (int i = 0; i < numberAPs; i++) {
+            double apX = TietotaloFloorPlan.X_POSITIONS[i];
+            double apY = TietotaloFloorPlan.Y_POSITIONS[i];
+            aps.add(new APAlgorithmData(TietotaloFloorPlan.BSSIDS[i],
+                    Math.hypot(20 - apX, 50 - apY), -60, apX, apY));
+        }
+        return aps;
+    }
+}